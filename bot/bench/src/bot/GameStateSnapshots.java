@@ -0,0 +1,58 @@
+package bot;
+
+import ai.abstraction.WorkerRush;
+import ai.abstraction.pathfinding.BFSPathFinding;
+import ai.core.AI;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/** Produces GameState snapshots for the benchmarks.
+ * A snapshot is taken by playing WorkersForLife (player 0) against WorkerRush (player 1) from the start of a
+ * map for a set number of cycles. Both AIs are deterministic, so the same map and phase always give the same state.
+ * @author HoaxShark
+ */
+public class GameStateSnapshots
+{
+    public static final String MAPS_FOLDER = "../microrts/maps/";
+
+    /** Game phases a snapshot can be taken at, and the cycle each one stands for. */
+    public enum Phase
+    {
+        EARLY(0), MID(500), LATE(1500);
+
+        public final int cycle;
+
+        Phase(int cycle)
+        {
+            this.cycle = cycle;
+        }
+    }
+
+    /** Plays a map up to a phase and returns the state reached.
+     * If the game ends first the last state before the end is returned.
+     * @param map Map file relative to the microrts maps folder
+     * @param phase How far into the game to go
+     * @param utt The UnitTypeTable to load the map with
+     * @return A copy of the game state at that phase
+     */
+    public static GameState take(String map, Phase phase, UnitTypeTable utt) throws Exception
+    {
+        PhysicalGameState pgs = PhysicalGameState.load(MAPS_FOLDER + map, utt);
+        GameState gs = new GameState(pgs, utt);
+        AI ai1 = new WorkersForLife(utt);
+        AI ai2 = new WorkerRush(utt, new BFSPathFinding());
+        GameState last = gs.clone();
+        while (gs.getTime() < phase.cycle)
+        {
+            gs.issueSafe(ai1.getAction(0, gs));
+            gs.issueSafe(ai2.getAction(1, gs));
+            if (gs.cycle())
+            {
+                break;
+            }
+            last = gs.clone();
+        }
+        return last;
+    }
+}
@@ -0,0 +1,123 @@
+package bot;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import rts.GameState;
+import rts.Player;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/** Benchmarks one tick of WorkersForLife, whole and behaviour by behaviour.
+ * Each benchmark runs against a snapshot of a map at an early, mid or late game phase (see GameStateSnapshots).
+ * The per-behaviour benchmarks build the tick's UnitIndex once per iteration and then only time the behaviour.
+ * Run through "ant bench", which adds the GC profiler so the allocation rate is reported next to the time.
+ * @author HoaxShark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetActionBenchmark
+{
+    @Param({"8x8/basesWorkers8x8.xml", "16x16/basesWorkers16x16.xml", "24x24/basesWorkers24x24.xml",
+            "32x32/basesWorkers32x32A.xml", "BroodWar/(4)BloodBath.scmB.xml"})
+    public String map;
+
+    @Param({"EARLY", "MID", "LATE"})
+    public GameStateSnapshots.Phase phase;
+
+    private static final int PLAYER = 0;
+
+    private GameState gs;
+    private Player p;
+    private WorkersForLife bot;
+
+    @Setup(Level.Trial)
+    public void loadSnapshot() throws Exception
+    {
+        UnitTypeTable utt = new UnitTypeTable();
+        gs = GameStateSnapshots.take(map, phase, utt);
+        p = gs.getPlayer(PLAYER);
+        bot = new WorkersForLife(utt);
+    }
+
+    @Setup(Level.Iteration)
+    public void prepareTick()
+    {
+        bot.beginTick(PLAYER, gs);
+    }
+
+    @Benchmark
+    public Object getAction()
+    {
+        return bot.getAction(PLAYER, gs);
+    }
+
+    @Benchmark
+    public void workersBehavior(Blackhole bh)
+    {
+        UnitIndex units = bot.getUnitIndex();
+        bot.workersBehavior(units, p, gs.getPhysicalGameState(), gs, units.getBase());
+        bh.consume(bot);
+    }
+
+    @Benchmark
+    public void battleUnitBehavior(Blackhole bh)
+    {
+        UnitIndex units = bot.getUnitIndex();
+        forEach(units.getRanged(), u -> bot.battleUnitBehavior(u, p, units));
+        forEach(units.getLight(), u -> bot.battleUnitBehavior(u, p, units));
+        forEach(units.getWorkers(), u -> bot.battleUnitBehavior(u, p, units));
+        bh.consume(bot);
+    }
+
+    @Benchmark
+    public void stackUnits(Blackhole bh)
+    {
+        UnitIndex units = bot.getUnitIndex();
+        Unit base = units.getBase();
+        if (base == null)
+        {
+            return;
+        }
+        forEach(units.getWorkers(), u -> bot.stackUnits(u, gs, 0, base, 5));
+        forEach(units.getRanged(), u -> bot.stackUnits(u, gs, 1, base, 5));
+        bh.consume(bot);
+    }
+
+    /** The whole decision stage of a tick, getAction without translating the queued actions into a PlayerAction:
+     * building the tick state, worker roles, targets and harvesting, stacking, the ranged and light loops and what
+     * the base and barracks train. Compare its -prof gc figure with getAction to see what translating allocates.
+     */
+    @Benchmark
+    public void decisionPath(Blackhole bh)
+    {
+        bot.decide(PLAYER, gs);
+        bh.consume(bot);
+    }
+
+    private static void forEach(UnitBuffer buffer, Consumer<Unit> action)
+    {
+        for (int i = 0; i < buffer.size(); i++)
+        {
+            action.accept(buffer.get(i));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package bot;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import rts.units.Unit;
+
+/** Picks the target of every battle unit at once, splitting large armies across a ForkJoinPool.
+ * Picking a target only reads the tick state WorkersForLife builds in beginTick and workersBehavior (the unit
+ * index, the spatial grid, the flow fields and the shared out targets), so each unit can be done on any thread.
+ * The picks go into one slot per unit and nothing is handed to AbstractionLayerAI here: the behaviour loops still
+ * go through the units in their usual order and issue each unit's attack from its slot, so the actions are the
+ * same as picking one unit at a time.
+ *
+ * Below a threshold the stage does nothing and every unit is picked as its behaviour runs, as forking costs more
+ * than a few look ups. Path finding is not part of the stage, moves are still found one unit at a time when the
+ * actions are translated, as the path finders keep state between calls.
+ * @author HoaxShark
+ */
+public class BattleDecisions
+{
+    private static final int GRAIN = 16; ///< Fewest units a task picks for before it stops splitting
+
+    /** Picks the target of one unit, reading only the tick state. */
+    interface Picker
+    {
+        /** @param u The unit to pick for
+         * @param scratch Holder this thread can fill in while picking
+         * @return The target, null if there is nothing to attack
+         */
+        Unit pick(Unit u, WorkersForLife.ClosestEnemy scratch);
+    }
+
+    private final ForkJoinPool pool;
+    private final LongIntMap slots = new LongIntMap(); ///< Slot of each unit picked for this tick, by unit ID
+    private Unit[] picks = new Unit[64]; ///< Target picked for each slot, null for none
+    private long stages = 0; ///< Ticks the stage ran on the pool
+    private long units = 0; ///< Units picked for on the pool
+
+    /** Creates a stage running on the common ForkJoinPool. */
+    public BattleDecisions()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** @param pool The pool targets are picked on */
+    public BattleDecisions(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /** Picks targets for a tick's battle units, on the pool if there are enough of them.
+     * Picks from the last call are dropped either way.
+     * @param attackers The battle units, each given the slot of its index
+     * @param picker Picks a unit's target
+     * @param threshold Fewest units worth splitting across the pool
+     */
+    void decide(UnitBuffer attackers, Picker picker, int threshold)
+    {
+        clear();
+        int n = attackers.size();
+        if (n < threshold || n < 2)
+        {
+            return;
+        }
+        if (picks.length < n)
+        {
+            picks = new Unit[Math.max(n, picks.length * 2)];
+        }
+        /// The map is filled before forking, the tasks only write their own slots
+        for (int i = 0; i < n; i++)
+        {
+            slots.put(attackers.get(i).getID(), i);
+        }
+        int grain = Math.max(GRAIN, n / (pool.getParallelism() * 4));
+        pool.invoke(new Pick(attackers, picker, 0, n, grain));
+        stages++;
+        units += n;
+    }
+
+    /** Drops the picks, so every unit is picked as its behaviour runs until the next decide. */
+    void clear()
+    {
+        slots.clear();
+    }
+
+    /** @return The slot a unit's target was picked into this tick, -1 if it has to be picked as it runs */
+    int slotOf(Unit u)
+    {
+        return slots.get(u.getID(), -1);
+    }
+
+    /** @return The target picked into a slot, null if there was nothing to attack */
+    Unit getPick(int slot)
+    {
+        return picks[slot];
+    }
+
+    /** @return Ticks the stage ran on the pool */
+    public long getStages()
+    {
+        return stages;
+    }
+
+    /** @return Units picked for on the pool */
+    public long getUnits()
+    {
+        return units;
+    }
+
+    /** Picks for a range of slots, splitting it in half until it is small enough. */
+    private final class Pick extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final UnitBuffer attackers;
+        private final Picker picker;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Pick(UnitBuffer attackers, Picker picker, int from, int to, int grain)
+        {
+            this.attackers = attackers;
+            this.picker = picker;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= grain)
+            {
+                WorkersForLife.ClosestEnemy scratch = new WorkersForLife.ClosestEnemy();
+                for (int i = from; i < to; i++)
+                {
+                    picks[i] = picker.pick(attackers.get(i), scratch);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Pick(attackers, picker, from, middle, grain), new Pick(attackers, picker, middle, to, grain));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package bot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Times the parts of a WorkersForLife tick, so a slow tick can be put down to the behaviour that caused it.
+ * Each section keeps a call count, total and max, and a histogram of call times in power of two nanosecond
+ * buckets. With JDK Flight Recorder available every timed call is also an event, see ProfilerEvents, so a
+ * recording shows which behaviour ran long on which tick. ProfilerEvents is loaded by name, so the bot still
+ * builds and runs on a JDK 8 without jdk.jfr, where the build leaves it out. At the end of each game the totals are written to
+ * a CSV and a JSON file and cleared.
+ *
+ * Switched on with the workersforlife.profile system property. It is read once into a static final, so
+ * when it is off the JIT drops every check and the calls cost nothing, and the profiler can be left in a
+ * production build. Files go to the workersforlife.profile.dir folder, the working directory if unset.
+ * Sections nest, WORKERS includes the HARVEST and BATTLE calls made for workers and TICK includes everything.
+ * Targets picked by DECIDE on other threads are not timed under CLOSEST_ENEMY, the profiler is not shared.
+ * @author HoaxShark
+ */
+public class BotProfiler
+{
+    public static final boolean ENABLED = Boolean.getBoolean("workersforlife.profile"); ///< Read once so the JIT can fold it
+    private static final boolean JFR = ENABLED && jfrAvailable(); ///< If events are sent to Flight Recorder
+    private static final String EVENTS = "bot.ProfilerEvents"; ///< Sends the events, only built where jdk.jfr is
+
+    public static final int TICK = 0; ///< The whole of getAction
+    public static final int LOOKAHEAD = 1; ///< The lookahead search
+    public static final int BEGIN_TICK = 2; ///< Indexing the units and building the per-tick state
+    public static final int WORKERS = 3; ///< workersBehavior
+    public static final int HARVEST = 4; ///< workerHarvest
+    public static final int BATTLE = 5; ///< battleUnitBehavior, once per unit
+    public static final int CLOSEST_ENEMY = 6; ///< getClosestEnemy
+    public static final int STACK = 7; ///< stackUnits
+    public static final int TRANSLATE = 8; ///< translateActions
+    public static final int DECIDE = 9; ///< Picking the battle units' targets on the ForkJoinPool, see BattleDecisions
+    public static final String[] SECTIONS = {"tick", "lookahead", "beginTick", "workersBehavior", "workerHarvest",
+            "battleUnitBehavior", "getClosestEnemy", "stackUnits", "translateActions", "decideTargets"};
+    private static final int BUCKETS = 40; ///< Bucket b counts calls of 2^b to 2^(b+1) - 1 ns, the last takes the rest
+
+    private static final long RUN = System.currentTimeMillis(); ///< Names this run's files
+    private static final AtomicInteger games = new AtomicInteger(); ///< Numbers each dump in this run
+    public static final BotProfiler OFF = new BotProfiler(false); ///< Shared by bots that should never be profiled
+
+    private final boolean active;
+    private final long[] calls = new long[SECTIONS.length];
+    private final long[] totalNanos = new long[SECTIONS.length];
+    private final long[] maxNanos = new long[SECTIONS.length];
+    private final long[][] histogram = new long[SECTIONS.length][BUCKETS];
+    private long reachabilityChecks = 0; ///< Reachability checks made by stackUnits, each one replaced a pathExists search
+    private int cycle = -1; ///< Cycle of the tick being timed, sent with each event
+    private final Events events; ///< Flight Recorder events for this profiler's sections, null when not sent
+
+    /** Sends each timed section to Flight Recorder as one event, see ProfilerEvents. */
+    interface Events
+    {
+        /** Opens an event for a section that is starting. */
+        void begin();
+
+        /** Closes the event of the last section begun and commits it, if a recording wants it.
+         * @param section The section name from SECTIONS
+         * @param cycle The game cycle of the tick
+         */
+        void end(String section, int cycle);
+
+        /** Drops any events left open, when a tick ended without closing them. */
+        void reset();
+    }
+
+    public BotProfiler()
+    {
+        this(true);
+    }
+
+    private BotProfiler(boolean active)
+    {
+        this.active = active;
+        this.events = (JFR && active) ? newEvents() : null;
+    }
+
+    private static boolean jfrAvailable()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            Class.forName(EVENTS);
+            return true;
+        }
+        catch (ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    private static Events newEvents()
+    {
+        try
+        {
+            return (Events) Class.forName(EVENTS).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            System.err.println("WorkersForLife: could not send Flight Recorder events: " + e);
+            return null;
+        }
+    }
+
+    /** Starts timing a section.
+     * @return The start time to hand to end, 0 when profiling is off
+     */
+    public long start()
+    {
+        if (!ENABLED || !active)
+        {
+            return 0;
+        }
+        if (JFR && events != null)
+        {
+            events.begin();
+        }
+        return System.nanoTime();
+    }
+
+    /** Stops timing a section.
+     * @param section One of the section constants
+     * @param start What start returned
+     */
+    public void end(int section, long start)
+    {
+        if (!ENABLED || !active)
+        {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        calls[section]++;
+        totalNanos[section] += nanos;
+        maxNanos[section] = Math.max(maxNanos[section], nanos);
+        histogram[section][Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos)))]++;
+        if (JFR && events != null)
+        {
+            events.end(SECTIONS[section], cycle);
+        }
+    }
+
+    /** @param cycle The cycle of the tick about to be timed */
+    public void beginTick(int cycle)
+    {
+        this.cycle = cycle;
+        if (JFR && events != null)
+        {
+            events.reset();
+        }
+    }
+
+    /** Counts reachability checks made while stacking units.
+     * @param n How many were made
+     */
+    public void countReachabilityChecks(int n)
+    {
+        if (ENABLED && active)
+        {
+            reachabilityChecks += n;
+        }
+    }
+
+    public long getCalls(int section)
+    {
+        return calls[section];
+    }
+
+    public long getTotalNanos(int section)
+    {
+        return totalNanos[section];
+    }
+
+    public long getMaxNanos(int section)
+    {
+        return maxNanos[section];
+    }
+
+    public long getReachabilityChecks()
+    {
+        return reachabilityChecks;
+    }
+
+    /** Estimates a percentile of a section's call times from its histogram.
+     * @param section One of the section constants
+     * @param percentile From 0 to 100
+     * @return The top of the bucket the percentile falls in, in nanoseconds, never more than the max
+     */
+    public long percentileNanos(int section, double percentile)
+    {
+        long rank = (long) Math.ceil(percentile / 100.0 * calls[section]);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += histogram[section][b];
+            if (seen >= rank && seen > 0)
+            {
+                return Math.min(maxNanos[section], (2L << b) - 1);
+            }
+        }
+        return maxNanos[section];
+    }
+
+    /** Writes this game's totals to a CSV and a JSON file and clears them.
+     * Does nothing when profiling is off or nothing was timed. A failed write is reported and the game goes on.
+     * @param winner The winner of the game, -1 for a draw
+     */
+    public void dump(int winner)
+    {
+        if (!ENABLED || !active || calls[TICK] == 0)
+        {
+            return;
+        }
+        String folder = System.getProperty("workersforlife.profile.dir", ".");
+        String name = "workersforlife-profile-" + RUN + "-" + games.incrementAndGet();
+        try
+        {
+            new File(folder).mkdirs();
+            writeCsv(new File(folder, name + ".csv"));
+            writeJson(new File(folder, name + ".json"), winner);
+        }
+        catch (IOException e)
+        {
+            System.err.println("WorkersForLife: could not write profile " + name + ": " + e);
+        }
+        clear();
+    }
+
+    /** Forgets everything timed so far. */
+    public void clear()
+    {
+        Arrays.fill(calls, 0);
+        Arrays.fill(totalNanos, 0);
+        Arrays.fill(maxNanos, 0);
+        for (long[] buckets : histogram)
+        {
+            Arrays.fill(buckets, 0);
+        }
+        reachabilityChecks = 0;
+        cycle = -1;
+    }
+
+    private void writeCsv(File file) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            out.println("section,calls,totalNanos,meanNanos,p50Nanos,p99Nanos,maxNanos");
+            for (int s = 0; s < SECTIONS.length; s++)
+            {
+                out.println(SECTIONS[s] + "," + calls[s] + "," + totalNanos[s] + ","
+                        + (calls[s] == 0 ? 0 : totalNanos[s] / calls[s]) + "," + percentileNanos(s, 50) + ","
+                        + percentileNanos(s, 99) + "," + maxNanos[s]);
+            }
+            out.println("reachabilityChecks," + reachabilityChecks + ",,,,,");
+        }
+    }
+
+    private void writeJson(File file, int winner) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            out.println("{");
+            out.println("  \"winner\": " + winner + ",");
+            out.println("  \"reachabilityChecks\": " + reachabilityChecks + ",");
+            out.println("  \"sections\": {");
+            for (int s = 0; s < SECTIONS.length; s++)
+            {
+                out.print("    \"" + SECTIONS[s] + "\": {\"calls\": " + calls[s] + ", \"totalNanos\": " + totalNanos[s]
+                        + ", \"p50Nanos\": " + percentileNanos(s, 50) + ", \"p99Nanos\": " + percentileNanos(s, 99)
+                        + ", \"maxNanos\": " + maxNanos[s] + ", \"log2Histogram\": [");
+                /// Trailing empty buckets are left off
+                int last = BUCKETS - 1;
+                while (last >= 0 && histogram[s][last] == 0)
+                {
+                    last--;
+                }
+                for (int b = 0; b <= last; b++)
+                {
+                    out.print((b == 0 ? "" : ", ") + histogram[s][b]);
+                }
+                out.println("]}" + (s == SECTIONS.length - 1 ? "" : ","));
+            }
+            out.println("  }");
+            out.println("}");
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package bot;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+
+/** A production plan for one starting base, found by simulating the economy before the game gets going.
+ * The simulation follows the bot's own production rules: a number of workers harvest from the closest resource
+ * cluster, one of them walks off to build the barracks once we have enough workers, the base trains workers up to
+ * the worker cap keeping workerReserve once there is a barracks, and the barracks trains army units in a fixed
+ * order. Trip times come from the walking distances in the MapAnalysis and the move, harvest, return and
+ * production times and costs in the UnitTypeTable. Every number of harvesters, barracks timing and army order is
+ * tried, and the plan that finishes the target army soonest wins.
+ *
+ * Plans are kept in memory for the rest of the run, keyed by the map, the UnitTypeTable, the starting base and
+ * everything else the simulation reads, so a game only pays for a table look up. A plan never changes once
+ * built, so one can be shared between bots and threads.
+ * @author HoaxShark
+ */
+public class BuildOrder
+{
+    public static final int RANGED = 0; ///< Army unit index, as WorkersForLife's rangedOrLight
+    public static final int LIGHT = 1; ///< Army unit index, as WorkersForLife's rangedOrLight
+    private static final int HORIZON = 5000; ///< Cycles simulated, an army not finished by then never finishes
+    private static final int ORDERS = 4; ///< Ranged first, light first, alternate from ranged, alternate from light
+    private static final int SLOTS_PER_PILE = 2; ///< Harvesters one pile keeps busy
+    private static final ConcurrentHashMap<Long, BuildOrder> planned = new ConcurrentHashMap<>(); ///< Every plan made this run, by key
+
+    private final int harvesters; ///< Free workers to keep harvesting
+    private final int barracksWorkers; ///< Workers we need before building the barracks
+    private final int order; ///< Army order, one of the ORDERS
+    private final int ranged; ///< Ranged units in the target army
+    private final int light; ///< Light units in the target army
+    private final int readyCycle; ///< Cycles from the start of the plan until the target army is trained, -1 if never
+
+    private BuildOrder(int harvesters, int barracksWorkers, int order, int ranged, int light, int readyCycle)
+    {
+        this.harvesters = harvesters;
+        this.barracksWorkers = barracksWorkers;
+        this.order = order;
+        this.ranged = ranged;
+        this.light = light;
+        this.readyCycle = readyCycle;
+    }
+
+    /** Gets the plan for a starting base, from memory, and only simulates if this run hasn't planned it yet.
+     * @param analysis The analysis of the map
+     * @param utt The UnitTypeTable of the game
+     * @param base Cell of our base, as x + y * width
+     * @param workers Workers we have now
+     * @param resources Resources we have now
+     * @param maxWorkers The base trains workers while we have this many or fewer
+     * @param workerReserve Resources the base keeps back once there is a barracks
+     * @param ranged Ranged units in the target army
+     * @param light Light units in the target army, an army of neither plans for one of each
+     * @return The plan, or null if the UnitTypeTable lacks a type the bot trains
+     */
+    public static BuildOrder of(MapAnalysis analysis, UnitTypeTable utt, int base, int workers, int resources,
+            int maxWorkers, int workerReserve, int ranged, int light)
+    {
+        long key = 0xcbf29ce484222325L;
+        key = mix(key, analysis.getHash());
+        key = mix(key, hashOf(utt));
+        key = mix(key, base);
+        key = mix(key, workers);
+        key = mix(key, resources);
+        key = mix(key, maxWorkers);
+        key = mix(key, workerReserve);
+        key = mix(key, ranged);
+        key = mix(key, light);
+        BuildOrder plan = planned.get(key);
+        if (plan != null)
+        {
+            return plan;
+        }
+        Economy economy = Economy.of(analysis, utt, base);
+        if (economy == null)
+        {
+            return null;
+        }
+        if (ranged + light <= 0)
+        {
+            ranged = 1;
+            light = 1;
+        }
+        plan = search(economy, workers, resources, maxWorkers, workerReserve, ranged, light);
+        BuildOrder raced = planned.putIfAbsent(key, plan);
+        return (raced != null) ? raced : plan;
+    }
+
+    /** Hashes the costs and times of every unit type, which is all the simulation reads from a UnitTypeTable. */
+    static long hashOf(UnitTypeTable utt)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (UnitType type : utt.getUnitTypes())
+        {
+            h = mix(h, type.ID);
+            h = mix(h, type.cost);
+            h = mix(h, type.produceTime);
+            h = mix(h, type.moveTime);
+            h = mix(h, type.harvestTime);
+            h = mix(h, type.returnTime);
+            h = mix(h, type.harvestAmount);
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value)
+    {
+        for (int i = 0; i < 8; i++)
+        {
+            h ^= (value >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Tries every plan and keeps the one whose army is ready first.
+     * Ties go to the army that is there sooner on average, then to fewer harvesters, which leaves more workers
+     * to fight, then to the earlier barracks.
+     */
+    private static BuildOrder search(Economy economy, int workers, int resources, int maxWorkers, int workerReserve,
+            int ranged, int light)
+    {
+        int mostHarvesters = Math.max(1, Math.min(maxWorkers + 1, economy.piles * SLOTS_PER_PILE));
+        Simulation sim = new Simulation(economy);
+        BuildOrder best = null;
+        long bestScore = Long.MAX_VALUE;
+        for (int h = 1; h <= mostHarvesters; h++)
+        {
+            for (int b = 1; b <= maxWorkers + 1; b++)
+            {
+                for (int order = 0; order < ORDERS; order++)
+                {
+                    int ready = sim.run(workers, resources, maxWorkers, workerReserve, h, b, order, ranged, light);
+                    long score = ((long) (ready < 0 ? HORIZON : ready) << 32) | Math.min(sim.totalFinish / (ranged + light), 0xffffffL);
+                    if (score < bestScore)
+                    {
+                        bestScore = score;
+                        best = new BuildOrder(h, b, order, ranged, light, ready);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Which army unit to train next.
+     * Once the target army is trained the same order is started again.
+     * @param trained Army units the barracks has trained so far under this plan
+     * @return RANGED or LIGHT
+     */
+    public int getArmyUnit(int trained)
+    {
+        return armyUnit(order, trained % (ranged + light), ranged, light);
+    }
+
+    private static int armyUnit(int order, int k, int ranged, int light)
+    {
+        switch (order)
+        {
+            case 0:
+                return (k < ranged) ? RANGED : LIGHT;
+            case 1:
+                return (k < light) ? LIGHT : RANGED;
+            default:
+                /// Alternate while both are still wanted, then finish with whichever is left
+                int first = (order == 2) ? RANGED : LIGHT;
+                int pairs = Math.min(ranged, light);
+                if (k < pairs * 2)
+                {
+                    return (k % 2 == 0) ? first : 1 - first;
+                }
+                return (ranged > light) ? RANGED : LIGHT;
+        }
+    }
+
+    /** @return Free workers to keep harvesting */
+    public int getHarvesters()
+    {
+        return harvesters;
+    }
+
+    /** @return Workers we need before building the barracks */
+    public int getBarracksWorkers()
+    {
+        return barracksWorkers;
+    }
+
+    /** @return Cycles from the start of the plan until the target army is trained, -1 if not within the horizon */
+    public int getReadyCycle()
+    {
+        return readyCycle;
+    }
+
+    @Override
+    public String toString()
+    {
+        String[] orders = {"ranged first", "light first", "alternating from ranged", "alternating from light"};
+        return harvesters + " harvesters, barracks at " + barracksWorkers + " workers, " + ranged + " ranged and "
+                + light + " light " + orders[order] + ", army ready at cycle " + readyCycle;
+    }
+
+    /** What the simulation needs to know about the map and the unit types. */
+    private static final class Economy
+    {
+        UnitType worker;
+        UnitType barracks;
+        UnitType[] army = new UnitType[2]; ///< Indexed by RANGED and LIGHT
+        int trip; ///< Cycles for one harvest trip, or 0 if no cluster can be reached
+        int piles; ///< Piles in the closest cluster
+        int barracksWalk; ///< Cycles to walk from the base to the barracks site
+
+        static Economy of(MapAnalysis analysis, UnitTypeTable utt, int base)
+        {
+            Economy e = new Economy();
+            e.worker = utt.getUnitType("Worker");
+            e.barracks = utt.getUnitType("Barracks");
+            e.army[RANGED] = utt.getUnitType("Ranged");
+            e.army[LIGHT] = utt.getUnitType("Light");
+            if (e.worker == null || e.barracks == null || e.army[RANGED] == null || e.army[LIGHT] == null)
+            {
+                return null;
+            }
+            /// Walking distances are between the cells themselves, workers stop next to the base and the pile
+            int closest = -1;
+            for (int c = 0; c < analysis.getClusterCount(); c++)
+            {
+                int d = analysis.getDistance(base, analysis.getClusterCentre(c));
+                if (d >= 0 && (closest < 0 || d < closest))
+                {
+                    closest = d;
+                    e.piles = analysis.getClusterSize(c);
+                }
+            }
+            if (closest >= 0)
+            {
+                e.trip = 2 * Math.max(0, closest - 2) * e.worker.moveTime + e.worker.harvestTime + e.worker.returnTime;
+            }
+            int site = analysis.getBarracksSite(base % analysis.getWidth(), base / analysis.getWidth());
+            int walk = (site < 0) ? -1 : analysis.getDistance(base, site);
+            e.barracksWalk = Math.max(0, walk - 1) * e.worker.moveTime;
+            return e;
+        }
+    }
+
+    /** Plays the bot's production rules forward one cycle at a time, reusing its arrays between runs. */
+    private static final class Simulation
+    {
+        private final Economy e;
+        private int[] deposit = new int[0]; ///< Cycle each harvester next brings back resources, 0 while idle
+        long totalFinish; ///< Sum of the cycles each army unit of the last run finished on
+
+        Simulation(Economy e)
+        {
+            this.e = e;
+        }
+
+        /** @return The cycle the target army is trained, or -1 if it isn't within the horizon */
+        int run(int workers, int resources, int maxWorkers, int workerReserve, int harvesters, int barracksWorkers,
+                int order, int ranged, int light)
+        {
+            if (deposit.length < harvesters)
+            {
+                deposit = new int[harvesters];
+            }
+            Arrays.fill(deposit, 0, harvesters, 0);
+            int res = resources;
+            int baseFree = 0; ///< Cycle the base finishes its worker, 0 if idle
+            int buildStart = -1; ///< Cycle the barracks is started, -1 before it is ordered
+            int barracksReady = -1;
+            int barracksFree = 0; ///< Cycle the barracks finishes its army unit
+            int trained = 0;
+            int army = ranged + light;
+            totalFinish = 0;
+            for (int t = 0; t < HORIZON; t++)
+            {
+                if (baseFree > 0 && t >= baseFree)
+                {
+                    workers++;
+                    baseFree = 0;
+                }
+                /// Workers fill the harvesting slots in order, the builder's slot is paused while it is away
+                for (int i = 0; i < harvesters && i < workers; i++)
+                {
+                    if (e.trip == 0)
+                    {
+                        break;
+                    }
+                    if (deposit[i] == 0)
+                    {
+                        deposit[i] = t + e.trip;
+                    }
+                    else if (t >= deposit[i])
+                    {
+                        res += e.worker.harvestAmount;
+                        deposit[i] = t + e.trip;
+                    }
+                }
+                /// Workers first, as in getAction: the barracks
+                if (buildStart < 0 && workers >= barracksWorkers && res >= e.barracks.cost)
+                {
+                    res -= e.barracks.cost;
+                    buildStart = t + e.barracksWalk;
+                    barracksReady = buildStart + e.barracks.produceTime;
+                    deposit[0] = barracksReady + e.barracksWalk + e.trip;
+                }
+                /// Then the base
+                boolean hasBarracks = buildStart >= 0 && t >= buildStart;
+                if (baseFree == 0 && workers <= maxWorkers
+                        && res >= (hasBarracks ? Math.max(workerReserve, e.worker.cost) : e.worker.cost))
+                {
+                    res -= e.worker.cost;
+                    baseFree = t + e.worker.produceTime;
+                }
+                /// Then the barracks
+                if (barracksReady >= 0 && t >= barracksReady && t >= barracksFree)
+                {
+                    UnitType type = e.army[armyUnit(order, trained, ranged, light)];
+                    if (res >= type.cost)
+                    {
+                        res -= type.cost;
+                        barracksFree = t + type.produceTime;
+                        totalFinish += barracksFree;
+                        if (++trained == army)
+                        {
+                            return barracksFree;
+                        }
+                    }
+                }
+            }
+            totalFinish += (long) (army - trained) * HORIZON;
+            return -1;
+        }
+    }
+}
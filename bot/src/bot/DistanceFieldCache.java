@@ -0,0 +1,306 @@
+package bot;
+
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.UnitActionAssignment;
+import rts.units.Unit;
+
+/** Reachability and distance field over the free cells of the map.
+ * Replaces the per-unit pathExists searches used when stacking units. Free cells are labelled with a
+ * connected component, so "can unit u walk to this cell" becomes a comparison of labels, and a breadth
+ * first search seeded from the parking cells gives every free cell its distance to the nearest one.
+ * Free means the same as it does for AStarPathFinding: no wall, no unit, and not the target of a move or
+ * produce action already under way. Both fields are only recomputed when that occupancy or the set of
+ * parking cells changes.
+ * @author HoaxShark
+ */
+public class DistanceFieldCache
+{
+    private int width = 0;
+    private int height = 0;
+
+    private long[] blocked = new long[0]; ///< Occupancy the fields were built from, one bit per cell
+    private long[] scratch = new long[0]; ///< Occupancy of the current tick, compared against blocked
+    private int[] component = new int[0]; ///< Component label of each free cell, 0 for blocked cells
+    private int[] distance = new int[0]; ///< Steps from each cell to the nearest parking cell, -1 if none can be reached
+    private int[] queue = new int[0]; ///< Breadth first search queue, reused between rebuilds
+
+    private int[] parking = new int[0]; ///< Parking cells the distance field is seeded from
+    private int parkingCount = 0;
+    private boolean dirty = true; ///< Set when the parking cells changed since the last rebuild
+
+    private GameState lastState = null; ///< The state the fields were last checked against
+    private int lastTime = -1; ///< The cycle the fields were last checked on
+    private int rebuilds = 0; ///< How many times the fields have been recomputed
+
+    /** Sets the cells the distance field is measured to.
+     * Cells outside the map are allowed and are simply never reachable.
+     * @param cells Cell positions as x + y * width
+     * @param count How many entries of cells to use
+     */
+    public void setParkingCells(int[] cells, int count)
+    {
+        if (count == parkingCount)
+        {
+            int same = 0;
+            while (same < count && parking[same] == cells[same])
+            {
+                same++;
+            }
+            if (same == count)
+            {
+                return;
+            }
+        }
+        if (parking.length < count)
+        {
+            parking = new int[count];
+        }
+        System.arraycopy(cells, 0, parking, 0, count);
+        parkingCount = count;
+        dirty = true;
+    }
+
+    /** Brings the fields up to date with a game state.
+     * Cheap when called again for the same state and cycle, and only rebuilds when the occupancy changed.
+     * @param gs The GameState
+     */
+    public void refresh(GameState gs)
+    {
+        if (!dirty && gs == lastState && gs.getTime() == lastTime)
+        {
+            return;
+        }
+        lastState = gs;
+        lastTime = gs.getTime();
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (pgs.getWidth() != width || pgs.getHeight() != height)
+        {
+            resize(pgs.getWidth(), pgs.getHeight());
+        }
+        markOccupancy(gs, pgs);
+        if (!dirty && Arrays.equals(scratch, blocked))
+        {
+            return;
+        }
+        long[] swap = blocked;
+        blocked = scratch;
+        scratch = swap;
+        labelComponents();
+        seedDistances();
+        dirty = false;
+        rebuilds++;
+    }
+
+    /** Checks if a unit can walk to a cell, the same question pathExists answers.
+     * @param u The unit that would move
+     * @param pos The target cell as x + y * width
+     * @return True if the unit is already there or a path over free cells exists
+     */
+    public boolean isReachable(Unit u, int pos)
+    {
+        int start = u.getX() + u.getY() * width;
+        if (start == pos)
+        {
+            return true;
+        }
+        if (pos < 0 || pos >= width * height || component[pos] == 0)
+        {
+            return false;
+        }
+        return touchesComponent(u.getX(), u.getY(), component[pos]);
+    }
+
+    /** Gets how far a unit is from the nearest parking cell it can reach.
+     * @param u The unit to check
+     * @return The number of steps, 0 if it is standing on a parking cell, or -1 if none can be reached
+     */
+    public int distanceToParking(Unit u)
+    {
+        int x = u.getX();
+        int y = u.getY();
+        int start = x + y * width;
+        for (int i = 0; i < parkingCount; i++)
+        {
+            if (parking[i] == start)
+            {
+                return 0;
+            }
+        }
+        int best = -1;
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+            int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height)
+            {
+                int d = distance[nx + ny * width];
+                if (d >= 0 && (best < 0 || d + 1 < best))
+                {
+                    best = d + 1;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** @return How many times the fields have been recomputed since this cache was created */
+    public int getRebuilds()
+    {
+        return rebuilds;
+    }
+
+    private boolean touchesComponent(int x, int y, int label)
+    {
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+            int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height && component[nx + ny * width] == label)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resize(int w, int h)
+    {
+        width = w;
+        height = h;
+        int words = (w * h + 63) >> 6;
+        blocked = new long[words];
+        scratch = new long[words];
+        component = new int[w * h];
+        distance = new int[w * h];
+        queue = new int[w * h];
+        dirty = true;
+    }
+
+    /** Fills scratch with this tick's blocked cells: walls, units and cells claimed by ongoing actions. */
+    private void markOccupancy(GameState gs, PhysicalGameState pgs)
+    {
+        Arrays.fill(scratch, 0L);
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL)
+                {
+                    block(x + y * width);
+                }
+            }
+        }
+        for (Unit u : pgs.getUnits())
+        {
+            block(u.getX() + u.getY() * width);
+        }
+        for (UnitActionAssignment uaa : gs.getUnitActions().values())
+        {
+            int type = uaa.action.getType();
+            if (type == UnitAction.TYPE_MOVE || type == UnitAction.TYPE_PRODUCE)
+            {
+                int dir = uaa.action.getDirection();
+                int x = uaa.unit.getX() + UnitAction.DIRECTION_OFFSET_X[dir];
+                int y = uaa.unit.getY() + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (x >= 0 && y >= 0 && x < width && y < height)
+                {
+                    block(x + y * width);
+                }
+            }
+        }
+    }
+
+    private void block(int pos)
+    {
+        scratch[pos >> 6] |= 1L << pos;
+    }
+
+    private boolean isBlocked(int pos)
+    {
+        return (blocked[pos >> 6] & (1L << pos)) != 0;
+    }
+
+    /** Flood fills every free cell with the label of its connected component. */
+    private void labelComponents()
+    {
+        int cells = width * height;
+        Arrays.fill(component, 0, cells, 0);
+        int label = 0;
+        for (int seed = 0; seed < cells; seed++)
+        {
+            if (component[seed] != 0 || isBlocked(seed))
+            {
+                continue;
+            }
+            label++;
+            component[seed] = label;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = seed;
+            while (head < tail)
+            {
+                int pos = queue[head++];
+                int x = pos % width;
+                int y = pos / width;
+                for (int dir = 0; dir < 4; dir++)
+                {
+                    int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                    int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                    if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                    {
+                        continue;
+                    }
+                    int next = nx + ny * width;
+                    if (component[next] == 0 && !isBlocked(next))
+                    {
+                        component[next] = label;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Breadth first search over free cells from every free parking cell at once. */
+    private void seedDistances()
+    {
+        int cells = width * height;
+        Arrays.fill(distance, 0, cells, -1);
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < parkingCount; i++)
+        {
+            int pos = parking[i];
+            if (pos >= 0 && pos < cells && component[pos] != 0 && distance[pos] < 0)
+            {
+                distance[pos] = 0;
+                queue[tail++] = pos;
+            }
+        }
+        while (head < tail)
+        {
+            int pos = queue[head++];
+            int x = pos % width;
+            int y = pos / width;
+            for (int dir = 0; dir < 4; dir++)
+            {
+                int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                if (distance[next] < 0 && component[next] != 0)
+                {
+                    distance[next] = distance[pos] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package bot;
+
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** A multi-source flow field towards a set of target units.
+ * One breadth first search from every target at once gives each cell of the map its distance to the nearest
+ * target and which target that is, so any number of our units can look up where to go and what to attack in O(1).
+ * The search goes around walls and buildings but straight through mobile units, since those move out of the
+ * way, and step() checks the cell is actually free before using it.
+ * Built once per tick, a field only answers for the state and cycle it was built from.
+ * @author HoaxShark
+ */
+public class FlowField
+{
+    private int width = 0;
+    private int height = 0;
+
+    private boolean[] passable = new boolean[0]; ///< Cells without a wall or a building
+    private int[] distance = new int[0]; ///< Steps from each cell to its nearest target, -1 if no target can be reached
+    private int[] target = new int[0]; ///< Index in sources of the nearest target of each cell
+    private int[] queue = new int[0];
+
+    private UnitBuffer sources = null; ///< The targets, kept for the tick the field was built on
+    private int[] sourceCells = new int[0]; ///< Cell of each target
+
+    private GameState builtFor = null; ///< The state this field was built from
+    private int builtTime = -1; ///< The cycle this field was built on
+
+    /** Rebuilds the field towards a set of units.
+     * @param gs The GameState
+     * @param targets The units to flow towards, earlier units win ties
+     */
+    public void build(GameState gs, UnitBuffer targets)
+    {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (pgs.getWidth() != width || pgs.getHeight() != height)
+        {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            passable = new boolean[width * height];
+            distance = new int[width * height];
+            target = new int[width * height];
+            queue = new int[width * height];
+        }
+        builtFor = gs;
+        builtTime = gs.getTime();
+        sources = targets;
+        if (sourceCells.length < targets.size())
+        {
+            sourceCells = new int[Math.max(targets.size(), sourceCells.length * 2)];
+        }
+
+        /// Walls and units that can't move block the field
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                passable[x + y * width] = pgs.getTerrain(x, y) != PhysicalGameState.TERRAIN_WALL;
+            }
+        }
+        for (Unit u : pgs.getUnits())
+        {
+            if (!u.getType().canMove)
+            {
+                passable[u.getX() + u.getY() * width] = false;
+            }
+        }
+
+        Arrays.fill(distance, -1);
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < targets.size(); i++)
+        {
+            Unit t = targets.get(i);
+            int pos = t.getX() + t.getY() * width;
+            sourceCells[i] = pos;
+            if (distance[pos] < 0)
+            {
+                distance[pos] = 0;
+                target[pos] = i;
+                queue[tail++] = pos;
+            }
+        }
+        while (head < tail)
+        {
+            int pos = queue[head++];
+            int x = pos % width;
+            int y = pos / width;
+            for (int dir = 0; dir < 4; dir++)
+            {
+                int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                if (distance[next] < 0 && passable[next])
+                {
+                    distance[next] = distance[pos] + 1;
+                    target[next] = target[pos];
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /** Checks the field was built from this state on this cycle. */
+    public boolean isBuiltFor(GameState gs)
+    {
+        return builtFor == gs && builtTime == gs.getTime();
+    }
+
+    /** Gets the target the field leads a unit to.
+     * @param u Our unit
+     * @return The nearest target by walking distance, or null if none can be reached
+     */
+    public Unit targetOf(Unit u)
+    {
+        if (sources == null)
+        {
+            return null;
+        }
+        int pos = u.getX() + u.getY() * width;
+        if (distance[pos] < 0)
+        {
+            return null;
+        }
+        return sources.get(target[pos]);
+    }
+
+    /** Gets the next move along the field for a unit heading to a target cell.
+     * Only answers when the field leads this unit to that target, and only with a step into a free cell
+     * that is not already claimed by another unit this tick.
+     * @param start The unit to move
+     * @param targetpos Cell of the target it is heading for
+     * @param gs The GameState
+     * @param ru Cells already claimed this tick, can be null
+     * @return A move action, or null if the field can't help and a path search is needed
+     */
+    public UnitAction step(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (!isBuiltFor(gs))
+        {
+            return null;
+        }
+        int x = start.getX();
+        int y = start.getY();
+        int pos = x + y * width;
+        if (distance[pos] <= 0 || sourceCells[target[pos]] != targetpos)
+        {
+            return null;
+        }
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+            int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+            {
+                continue;
+            }
+            int next = nx + ny * width;
+            if (distance[next] == distance[pos] - 1 && target[next] == target[pos] && gs.free(nx, ny)
+                    && !PathCache.isClaimed(ru, next))
+            {
+                return new UnitAction(UnitAction.TYPE_MOVE, dir);
+            }
+        }
+        return null;
+    }
+}
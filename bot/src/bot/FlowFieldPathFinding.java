@@ -0,0 +1,76 @@
+package bot;
+
+import ai.abstraction.pathfinding.PathFinding;
+import rts.GameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** Path finding that follows this tick's flow fields when it can and searches when it can't.
+ * Attack actions ask for a path to a position in range of their target every tick. When a unit is heading
+ * for the target its flow field leads to, the next step is read straight from the field. Everything else,
+ * and any unit the field can't move (target unreachable, or the next cell is taken), goes to the wrapped
+ * path finding.
+ * @author HoaxShark
+ */
+public class FlowFieldPathFinding extends PathFinding
+{
+    private final PathFinding fallback; ///< Used whenever the fields can't answer
+    private final FlowField[] fields; ///< The fields to try, in order
+
+    public FlowFieldPathFinding(PathFinding fallback, FlowField... fields)
+    {
+        this.fallback = fallback;
+        this.fields = fields;
+    }
+
+    @Override
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        for (FlowField field : fields)
+        {
+            UnitAction step = field.step(start, targetpos, gs, ru);
+            if (step != null)
+            {
+                return step;
+            }
+        }
+        return fallback.findPathToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        return fallback.pathExists(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        return fallback.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        return fallback.findPath(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        return fallback.findPathToAdjacentPosition(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        return fallback.findDistToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    /** @return The path finding used when the fields can't answer */
+    public PathFinding getFallback()
+    {
+        return fallback;
+    }
+}
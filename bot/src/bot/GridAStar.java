@@ -0,0 +1,180 @@
+package bot;
+
+import rts.UnitAction;
+
+/** A* over a rectangle of the map grid, returning the whole path.
+ * Walls and buildings are never crossed. Cells holding a mobile unit can be crossed at an extra cost, as the
+ * unit will usually have moved by the time we get there, but the first step has to be free right now. The
+ * goal is any open cell within a range of a target cell, using the same squared distance AStarPathFinding uses.
+ * Arrays are kept between searches and cleared by stamping, so a search allocates nothing once they have grown.
+ * @author HoaxShark
+ */
+public class GridAStar
+{
+    private int width = 0; ///< Width of the map of the current search
+    private int[] g = new int[0]; ///< Cost of the best path found to each cell
+    private int[] parent = new int[0]; ///< Cell each cell was reached from
+    private int[] seen = new int[0]; ///< Search stamp of the last search that reached each cell
+    private int[] closed = new int[0]; ///< Search stamp of the last search that expanded each cell
+    private int stamp = 0;
+    private final LongHeap heap = new LongHeap();
+    private int[] path = new int[64]; ///< Cells of the last path found, from the first step to the goal
+    private int searches = 0; ///< Searches run so far
+
+    /** Finds a path from a cell to the cells in range of a target, without leaving a rectangle.
+     * @param width Width of the map
+     * @param height Height of the map
+     * @param open Cells that can be walked through, by x + y * width
+     * @param busy Stamps marking cells with a mobile unit in them
+     * @param busyStamp The stamp that means a cell is busy now
+     * @param busyCost Extra cost of stepping into a busy cell, 0 to ignore them
+     * @param start Cell to start from
+     * @param firstSteps Bit d is set if the first step may go in UnitAction direction d
+     * @param target Cell to get in range of
+     * @param range Distance from the target that counts as arrived, 0 for the target itself
+     * @param x0 Left column of the rectangle
+     * @param y0 Top row of the rectangle
+     * @param x1 One past the right column of the rectangle
+     * @param y1 One past the bottom row of the rectangle
+     * @return The number of steps in the path, 0 if the start is already in range, or -1 if there is no path
+     */
+    public int search(int width, int height, boolean[] open, int[] busy, int busyStamp, int busyCost, int start,
+            int firstSteps, int target, int range, int x0, int y0, int x1, int y1)
+    {
+        searches++;
+        int tx = target % width;
+        int ty = target / width;
+        int sqRange = range * range;
+        if (inRange(start, tx, ty, sqRange, width))
+        {
+            return 0;
+        }
+        if (width * height > g.length)
+        {
+            g = new int[width * height];
+            parent = new int[width * height];
+            seen = new int[width * height];
+            closed = new int[width * height];
+            stamp = 0;
+        }
+        this.width = width;
+        stamp++;
+        /// Being in range can save up to range * sqrt(2) steps, which keeps the estimate from overshooting
+        int reach = (int) Math.ceil(range * 1.4143);
+        heap.clear();
+        g[start] = 0;
+        parent[start] = start;
+        seen[start] = stamp;
+        heap.push(((long) estimate(start, tx, ty, reach) << 32) | start);
+        while (!heap.isEmpty())
+        {
+            long key = heap.pop();
+            int cell = (int) key;
+            if (closed[cell] == stamp)
+            {
+                continue;
+            }
+            closed[cell] = stamp;
+            if (cell != start && open[cell] && inRange(cell, tx, ty, sqRange, width))
+            {
+                return tracePath(start, cell);
+            }
+            int x = cell % width;
+            int y = cell / width;
+            for (int dir = 0; dir < 4; dir++)
+            {
+                if (cell == start && (firstSteps & (1 << dir)) == 0)
+                {
+                    continue;
+                }
+                int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < x0 || ny < y0 || nx >= x1 || ny >= y1)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                if (!open[next] || closed[next] == stamp)
+                {
+                    continue;
+                }
+                int cost = g[cell] + 1 + (busy[next] == busyStamp ? busyCost : 0);
+                if (seen[next] != stamp || cost < g[next])
+                {
+                    seen[next] = stamp;
+                    g[next] = cost;
+                    parent[next] = cell;
+                    heap.push(((long) (cost + estimate(next, tx, ty, reach)) << 32) | next);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** Copies the path ending at a cell into path, first step first. */
+    private int tracePath(int start, int end)
+    {
+        int length = 0;
+        for (int cell = end; cell != start; cell = parent[cell])
+        {
+            length++;
+        }
+        if (path.length < length)
+        {
+            path = new int[Math.max(length, path.length * 2)];
+        }
+        int i = length;
+        for (int cell = end; cell != start; cell = parent[cell])
+        {
+            path[--i] = cell;
+        }
+        return length;
+    }
+
+    private static boolean inRange(int cell, int tx, int ty, int sqRange, int width)
+    {
+        int dx = cell % width - tx;
+        int dy = cell / width - ty;
+        return dx * dx + dy * dy <= sqRange;
+    }
+
+    /** Manhattan distance to the target less what being in range can save, never more than the real cost. */
+    private int estimate(int cell, int tx, int ty, int reach)
+    {
+        return Math.max(0, Math.abs(cell % width - tx) + Math.abs(cell / width - ty) - reach);
+    }
+
+    /** @return The cells of the last path found, from the first step to the goal */
+    public int[] getPath()
+    {
+        return path;
+    }
+
+    public int getSearches()
+    {
+        return searches;
+    }
+
+    /** Gets the move that takes one step between two neighbouring cells.
+     * @param from The cell a unit is in
+     * @param to A neighbouring cell
+     * @param width Width of the map
+     * @return A move action in the direction of to
+     */
+    public static UnitAction stepTowards(int from, int to, int width)
+    {
+        if (to == from + 1)
+        {
+            return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_RIGHT);
+        }
+        if (to == from - 1)
+        {
+            return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_LEFT);
+        }
+        if (to == from + width)
+        {
+            return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_DOWN);
+        }
+        return new UnitAction(UnitAction.TYPE_MOVE, UnitAction.DIRECTION_UP);
+    }
+}
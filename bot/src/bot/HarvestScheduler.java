@@ -0,0 +1,280 @@
+package bot;
+
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** Shares our harvesting workers out between the resource piles.
+ * For every pile it keeps the walking distance to our closest stockpile, measured by a breadth first search
+ * around walls and buildings. That only changes when a pile runs out or a building, stockpile or not, goes up or
+ * comes down, so it is only recomputed then. Each tick every worker looks at its few closest piles, costed as the walk to the pile
+ * plus a round trip to the pile's stockpile, and one priority queue over all (worker, pile) pairs hands them out
+ * cheapest first with no more than PILE_CAP workers on a pile.
+ * Piles further than the harvest range from every stockpile are left alone, and a worker that gets no pile
+ * gets no entry so the caller can find something else for it to do. Given a ThreatMap, piles enemies can reach
+ * cost more, so workers go to safe piles first but still harvest dangerous ones when nothing else is left.
+ * @author HoaxShark
+ */
+public class HarvestScheduler
+{
+    private static final int CANDIDATES = 4; ///< Closest piles each worker considers
+    private static final int PILE_CAP = 2; ///< Most workers sent to one pile
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int DANGER_STEPS = 2; ///< Extra steps a pile costs for each point of enemy damage that can land on it
+
+    private int harvestRange = 8; ///< Furthest a pile can be from a stockpile, in steps, and still be harvested
+
+    private int width = 0;
+    private int height = 0;
+    private long signature = 0; ///< Hash of the pile, stockpile and building IDs the costs were worked out for
+    private int rebuilds = 0; ///< How many times the costs have been worked out
+    private UnitBuffer piles = null; ///< This tick's resource piles
+    private UnitBuffer stockpiles = null; ///< This tick's stockpiles
+    private int[] haul = new int[0]; ///< Steps from each pile to its closest stockpile, UNREACHABLE if none can reach it
+    private int[] stockpileOf = new int[0]; ///< Index of each pile's closest stockpile
+    private int[] distance = new int[0]; ///< Breadth first search scratch
+    private boolean[] blocked = new boolean[0];
+    private int[] queue = new int[0];
+
+    private int[] candidates = new int[16 * CANDIDATES]; ///< Closest piles of each worker
+    private int[] candidateDistances = new int[16 * CANDIDATES];
+    private int[] candidateCounts = new int[16];
+    private int[] assignedPile = new int[16]; ///< Pile given to each worker, -1 for none
+    private int[] workersOnPile = new int[0];
+    private final LongHeap heap = new LongHeap(); ///< (worker, pile) pairs still to look at
+    private ThreatMap threat = null; ///< Danger of each pile for the current assign, null to ignore it
+
+    /** Brings the round trip costs up to date, only doing any work when the piles, stockpiles or buildings changed.
+     * @param gs The GameState
+     * @param units This tick's UnitIndex
+     */
+    public void update(GameState gs, UnitIndex units)
+    {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        piles = units.getResources();
+        stockpiles = units.getStockpiles();
+        long now = signatureOf(piles, signatureOf(stockpiles, pgs.getWidth() * 31L + pgs.getHeight()));
+        /// Any building, ours or theirs, changes the walks around it, a new barracks can cut a path in two
+        now = buildingsSignatureOf(pgs, now);
+        if (now == signature && haul.length >= piles.size())
+        {
+            return;
+        }
+        signature = now;
+        rebuilds++;
+        if (pgs.getWidth() != width || pgs.getHeight() != height)
+        {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            distance = new int[width * height];
+            blocked = new boolean[width * height];
+            queue = new int[width * height];
+        }
+        if (haul.length < piles.size())
+        {
+            haul = new int[Math.max(piles.size(), haul.length * 2)];
+            stockpileOf = new int[haul.length];
+            workersOnPile = new int[haul.length];
+        }
+        Arrays.fill(haul, UNREACHABLE);
+
+        /// Walls and anything that can't move are in the way
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                blocked[x + y * width] = pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL;
+            }
+        }
+        for (Unit u : pgs.getUnits())
+        {
+            if (!u.getType().canMove)
+            {
+                blocked[u.getX() + u.getY() * width] = true;
+            }
+        }
+        for (int s = 0; s < stockpiles.size(); s++)
+        {
+            walk(stockpiles.get(s));
+            for (int p = 0; p < piles.size(); p++)
+            {
+                Unit pile = piles.get(p);
+                int d = distance[pile.getX() + pile.getY() * width];
+                if (d >= 0 && d < haul[p])
+                {
+                    haul[p] = d;
+                    stockpileOf[p] = s;
+                }
+            }
+        }
+    }
+
+    /** Gives workers a pile each.
+     * @param workers The workers to share out
+     * @param from Index of the first worker in workers to share out
+     * @param grid This tick's SpatialGrid
+     * @param threat This tick's ThreatMap, or null to ignore enemies
+     */
+    public void assign(UnitBuffer workers, int from, SpatialGrid grid, ThreatMap threat)
+    {
+        this.threat = threat;
+        int nworkers = workers.size() - from;
+        if (candidateCounts.length < Math.max(nworkers, 0))
+        {
+            int size = Math.max(nworkers, candidateCounts.length * 2);
+            candidateCounts = new int[size];
+            assignedPile = new int[size];
+            candidates = new int[size * CANDIDATES];
+            candidateDistances = new int[size * CANDIDATES];
+        }
+        for (int p = 0; p < piles.size(); p++)
+        {
+            workersOnPile[p] = 0;
+        }
+        heap.clear();
+        for (int w = 0; w < nworkers; w++)
+        {
+            Unit u = workers.get(from + w);
+            assignedPile[w] = -1;
+            candidateCounts[w] = grid.nearest(SpatialGrid.RESOURCE, u.getX(), u.getY(), CANDIDATES,
+                    candidates, candidateDistances, w * CANDIDATES);
+            pushNext(w, 0);
+        }
+        while (!heap.isEmpty())
+        {
+            long top = heap.pop();
+            int w = (int) ((top >>> 16) & 0xffff);
+            int c = (int) (top & 0xffff);
+            int pile = candidates[w * CANDIDATES + c];
+            if (workersOnPile[pile] < PILE_CAP)
+            {
+                workersOnPile[pile]++;
+                assignedPile[w] = pile;
+            }
+            else
+            {
+                pushNext(w, c + 1);
+            }
+        }
+    }
+
+    /** Queues a worker's next pile in range, starting from one of its candidates. */
+    private void pushNext(int worker, int candidate)
+    {
+        for (int c = candidate; c < candidateCounts[worker]; c++)
+        {
+            int slot = worker * CANDIDATES + c;
+            int pile = candidates[slot];
+            if (haul[pile] <= harvestRange)
+            {
+                long cost = candidateDistances[slot] + 2L * haul[pile];
+                if (threat != null)
+                {
+                    Unit u = piles.get(pile);
+                    cost += (long) (threat.getDanger(u.getX(), u.getY()) * DANGER_STEPS);
+                }
+                heap.push((cost << 32) | ((long) worker << 16) | c);
+                return;
+            }
+        }
+    }
+
+    /** Gets the pile given to a worker by the last call to assign.
+     * @param worker Index of the worker, counted from the from passed to assign
+     * @return The pile, or null if the worker was not given one
+     */
+    public Unit getPile(int worker)
+    {
+        int pile = assignedPile[worker];
+        return (pile < 0) ? null : piles.get(pile);
+    }
+
+    /** Gets the stockpile a worker should return to, the closest one to its pile.
+     * @param worker Index of the worker, counted from the from passed to assign
+     * @return The stockpile, or null if the worker was not given a pile
+     */
+    public Unit getStockpile(int worker)
+    {
+        int pile = assignedPile[worker];
+        return (pile < 0) ? null : stockpiles.get(stockpileOf[pile]);
+    }
+
+    public int getHarvestRange()
+    {
+        return harvestRange;
+    }
+
+    /** @param harvestRange Furthest a pile can be from a stockpile, in steps, and still be harvested */
+    public void setHarvestRange(int harvestRange)
+    {
+        this.harvestRange = harvestRange;
+    }
+
+    /** @return How many times the round trip costs have been worked out */
+    public int getRebuilds()
+    {
+        return rebuilds;
+    }
+
+    private static long signatureOf(UnitBuffer buffer, long h)
+    {
+        h = h * 31 + buffer.size();
+        for (int i = 0; i < buffer.size(); i++)
+        {
+            h = h * 0x9E3779B97F4A7C15L + buffer.get(i).getID();
+        }
+        return h;
+    }
+
+    /** Hashes the IDs of every unit that can't move and isn't a pile, as those block the walks like walls. */
+    private static long buildingsSignatureOf(PhysicalGameState pgs, long h)
+    {
+        for (Unit u : pgs.getUnits())
+        {
+            if (!u.getType().canMove && !u.getType().isResource)
+            {
+                h = h * 0x9E3779B97F4A7C15L + u.getID();
+            }
+        }
+        return h;
+    }
+
+    /** Breadth first search from a stockpile, piles and other buildings get a distance but are not walked through. */
+    private void walk(Unit stockpile)
+    {
+        Arrays.fill(distance, -1);
+        int from = stockpile.getX() + stockpile.getY() * width;
+        int head = 0;
+        int tail = 0;
+        distance[from] = 0;
+        queue[tail++] = from;
+        while (head < tail)
+        {
+            int pos = queue[head++];
+            if (pos != from && blocked[pos])
+            {
+                continue;
+            }
+            int x = pos % width;
+            int y = pos / width;
+            for (int dir = 0; dir < 4; dir++)
+            {
+                int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                if (distance[next] < 0)
+                {
+                    distance[next] = distance[pos] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+}
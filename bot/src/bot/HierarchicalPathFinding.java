@@ -0,0 +1,959 @@
+package bot;
+
+import ai.abstraction.pathfinding.AStarPathFinding;
+import ai.abstraction.pathfinding.PathFinding;
+
+import java.util.Arrays;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** HPA* style path finding for large maps, a drop in replacement for AStarPathFinding.
+ * The map is cut into square clusters. Wherever two neighbouring clusters share a stretch of open border an
+ * entrance is placed, one node on each side, and the distance between every two nodes of a cluster is found
+ * once with a search inside the cluster. A query then searches this small graph of entrances instead of the
+ * grid: the start and the cells in range of the target are joined to the nodes of their own clusters, the
+ * graph gives the route, and only the first stretch of it, inside one or two clusters, is searched on the grid
+ * to get the next step. The graph is kept between ticks. Walls never change, and when buildings or resources
+ * appear or disappear only the clusters they are in and the borders around them are rebuilt.
+ *
+ * The graph only knows about walls, buildings and resources. Mobile units are left to the grid search, which
+ * goes around them when it is cheap to and needs the first step to be free, as AStarPathFinding does. Paths
+ * are near optimal rather than optimal, usually within a few percent. Maps smaller than MIN_AREA cells are
+ * handed to AStarPathFinding, where a whole grid search is already cheap, so small maps play as before.
+ * @author HoaxShark
+ */
+public class HierarchicalPathFinding extends PathFinding
+{
+    public static final int CLUSTER_SIZE = 16; ///< Cells along each side of a cluster
+    public static final int MIN_AREA = 64 * 64; ///< Maps with fewer cells than this use AStarPathFinding
+    private static final int BUSY_COST = 4; ///< Extra cost of stepping through a mobile unit in the grid search
+    private static final int WIDE_ENTRANCE = 6; ///< Open stretches of border this long get an entrance at each end
+    private static final int START = -1; ///< Parent of nodes reached straight from the start
+    private static final int GOAL = Integer.MAX_VALUE; ///< Id of the goal in the abstract search
+
+    private final PathFinding small = new AStarPathFinding(); ///< Answers for small maps
+    private final GridAStar grid = new GridAStar(); ///< Searches the cells of one stretch of a route
+
+    /// The map as of the last sync
+    private PhysicalGameState map = null; ///< The map the graph was built for
+    private int width = 0;
+    private int height = 0;
+    private int clustersX = 0;
+    private int clustersY = 0;
+    private boolean[] terrainOpen = new boolean[0]; ///< Cells without a wall
+    private boolean[] open = new boolean[0]; ///< Cells without a wall, building or resource
+    private int[] busy = new int[0]; ///< Sync stamp of the last sync that saw a mobile unit in each cell
+    private int[] mark = new int[0]; ///< Sync stamp of the last sync that saw a building or resource in each cell
+    private int[] staticCells = new int[0]; ///< Cells with a building or resource at the last sync
+    private int staticCount = 0;
+    private int[] scratchCells = new int[0];
+    private int syncs = 0;
+    private GameState lastState = null; ///< The state the graph was last synced with
+    private int lastTime = -1; ///< The cycle the graph was last synced on
+
+    /// The graph of entrances
+    private int[][] rightBorders = new int[0][]; ///< Node pairs on the border of each cluster with the one to its right
+    private int[][] downBorders = new int[0][]; ///< Node pairs on the border of each cluster with the one below it
+    private int[][] clusterNodes = new int[0][]; ///< The nodes in each cluster
+    private int[][] clusterDistance = new int[0][]; ///< Steps between each two nodes of a cluster, row major, -1 if none
+    private int[] nodeCell = new int[16];
+    private int[] nodeCluster = new int[16];
+    private int[] nodePartner = new int[16]; ///< The node on the other side of the entrance
+    private int nodeCount = 0; ///< Node ids handed out so far, some may be free
+    private int[] freeNodes = new int[16];
+    private int freeCount = 0;
+    private int[] dirtyStamp = new int[0]; ///< Sync stamp each cluster was last found dirty on
+    private int[] dirtyClusters = new int[0];
+    private int dirtyCount = 0;
+    private int[] rebuiltStamp = new int[0]; ///< Sync stamp each cluster's distances were last rebuilt on
+    private int[] rightStamp = new int[0]; ///< Sync stamp each right border was last rebuilt on
+    private int[] downStamp = new int[0]; ///< Sync stamp each down border was last rebuilt on
+    private int[] borderScratch = new int[4 * CLUSTER_SIZE];
+
+    /// Scratch for queries
+    private int query = 0; ///< Stamps the node arrays below for the current query
+    private int[] nodeG = new int[16];
+    private int[] nodeParent = new int[16];
+    private int[] nodeSeen = new int[16];
+    private int[] nodeClosed = new int[16];
+    private int[] goalCost = new int[16]; ///< Steps from each node to the nearest cell in range, in its cluster
+    private int[] goalSeen = new int[16];
+    private int[] goalClusterSeen = new int[0];
+    private int[] goalCells = new int[16];
+    private final LongHeap heap = new LongHeap();
+    private final int[] bfsDistance = new int[CLUSTER_SIZE * CLUSTER_SIZE]; ///< Steps inside a cluster, by local cell
+    private final int[] bfsQueue = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+    private final int[] single = new int[1]; ///< A single search source
+    private int[] route = new int[16]; ///< Nodes of the last route, start end first
+    private int routeLength = 0;
+    private int[] path = new int[64]; ///< Cells of the last planned path, first step first
+    private int pathLength = 0;
+
+    /// Stats
+    private int rebuilds = 0; ///< Times the whole graph was built
+    private int repairs = 0; ///< Syncs that rebuilt some clusters
+    private int repairedClusters = 0; ///< Clusters rebuilt over all repairs
+
+    @Override
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        if (!isLargeMap(gs))
+        {
+            return small.findPathToPositionInRange(start, targetpos, range, gs, ru);
+        }
+        sync(gs);
+        if (findRoute(start, targetpos, range) <= 0)
+        {
+            return null;
+        }
+        int from = start.getX() + start.getY() * width;
+        int steps = searchLeg(from, 0, targetpos, range, firstSteps(start, gs, ru), BUSY_COST);
+        return steps <= 0 ? null : GridAStar.stepTowards(from, grid.getPath()[0], width);
+    }
+
+    @Override
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (!isLargeMap(gs))
+        {
+            return small.findPath(start, targetpos, gs, ru);
+        }
+        return findPathToPositionInRange(start, targetpos, 0, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (!isLargeMap(gs))
+        {
+            return small.findPathToAdjacentPosition(start, targetpos, gs, ru);
+        }
+        return findPathToPositionInRange(start, targetpos, 1, gs, ru);
+    }
+
+    @Override
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (start.getX() + start.getY() * gs.getPhysicalGameState().getWidth() == targetpos)
+        {
+            return true;
+        }
+        return findPath(start, targetpos, gs, ru) != null;
+    }
+
+    @Override
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        int w = gs.getPhysicalGameState().getWidth();
+        int dx = start.getX() - targetpos % w;
+        int dy = start.getY() - targetpos / w;
+        if (dx * dx + dy * dy <= range * range)
+        {
+            return true;
+        }
+        return findPathToPositionInRange(start, targetpos, range, gs, ru) != null;
+    }
+
+    /** On large maps this is the length of the route through the graph, which ignores mobile units. */
+    @Override
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        if (!isLargeMap(gs))
+        {
+            return small.findDistToPositionInRange(start, targetpos, range, gs, ru);
+        }
+        sync(gs);
+        return findRoute(start, targetpos, range);
+    }
+
+    /** Plans the whole path from a unit to the cells in range of a target, for callers that follow it over
+     * several ticks. The first step avoids the cells in ru and any unit in the way now, the rest of the path
+     * only goes around walls, buildings and resources, and is a little dearer through mobile units near the start.
+     * @param start The unit to move
+     * @param targetpos The target cell as x + y * width
+     * @param range How close to the target counts as arrived, 0 for the target itself
+     * @param gs The GameState
+     * @param ru Cells other units have already claimed this tick, may be null
+     * @return The number of cells in the path, see getPath, 0 if already in range, or -1 if there is no path
+     */
+    public int planPath(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        sync(gs);
+        pathLength = 0;
+        int from = start.getX() + start.getY() * width;
+        int first = firstSteps(start, gs, ru);
+        if (!isLargeMap(gs))
+        {
+            int steps = grid.search(width, height, open, busy, syncs, BUSY_COST, from, first, targetpos, range,
+                    0, 0, width, height);
+            appendLeg(Math.max(steps, 0));
+            return steps;
+        }
+        int cost = findRoute(start, targetpos, range);
+        if (cost <= 0)
+        {
+            return cost;
+        }
+        /// Search each leg of the route on the grid in turn, only the first one cares about units in the way now
+        int leg = 0;
+        while (true)
+        {
+            while (leg < routeLength && nodeCell[route[leg]] == from)
+            {
+                leg++;
+            }
+            int steps = searchLeg(from, leg, targetpos, range, first, pathLength == 0 ? BUSY_COST : 0);
+            if (steps < 0)
+            {
+                pathLength = 0;
+                return -1;
+            }
+            appendLeg(steps);
+            if (steps > 0)
+            {
+                from = path[pathLength - 1];
+            }
+            first = 0xF;
+            if (leg >= routeLength)
+            {
+                return pathLength;
+            }
+            leg++;
+        }
+    }
+
+    /** @return The cells of the last path planned, from the first step to the goal */
+    public int[] getPath()
+    {
+        return path;
+    }
+
+    private void appendLeg(int steps)
+    {
+        if (path.length < pathLength + steps)
+        {
+            path = Arrays.copyOf(path, Math.max(pathLength + steps, path.length * 2));
+        }
+        System.arraycopy(grid.getPath(), 0, path, pathLength, steps);
+        pathLength += steps;
+    }
+
+    /** Searches the grid from a cell to the end of a leg of the current route.
+     * A leg ends at the first node of the route from leg on that is not the cell itself, or at the cells in range
+     * of the target once the route is used up. The search stays inside the clusters of the two ends.
+     * @return Steps taken, or -1 if the leg could not be walked
+     */
+    private int searchLeg(int from, int leg, int targetpos, int range, int firstSteps, int busyCost)
+    {
+        while (leg < routeLength && nodeCell[route[leg]] == from)
+        {
+            leg++;
+        }
+        int to = leg < routeLength ? nodeCell[route[leg]] : targetpos;
+        int fromCluster = clusterOf(from);
+        int toCluster = leg < routeLength ? nodeCluster[route[leg]] : fromCluster;
+        int x0 = Math.min(fromCluster % clustersX, toCluster % clustersX) * CLUSTER_SIZE;
+        int y0 = Math.min(fromCluster / clustersX, toCluster / clustersX) * CLUSTER_SIZE;
+        int x1 = Math.min(width, (Math.max(fromCluster % clustersX, toCluster % clustersX) + 1) * CLUSTER_SIZE);
+        int y1 = Math.min(height, (Math.max(fromCluster / clustersX, toCluster / clustersX) + 1) * CLUSTER_SIZE);
+        return grid.search(width, height, open, busy, syncs, busyCost, from, firstSteps, to,
+                leg < routeLength ? 0 : range, x0, y0, x1, y1);
+    }
+
+    /** @return Bits for the directions a unit can step in right now, free and not claimed in ru */
+    private int firstSteps(Unit start, GameState gs, ResourceUsage ru)
+    {
+        int steps = 0;
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int x = start.getX() + UnitAction.DIRECTION_OFFSET_X[dir];
+            int y = start.getY() + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (x >= 0 && y >= 0 && x < width && y < height && gs.free(x, y)
+                    && !PathCache.isClaimed(ru, x + y * width))
+            {
+                steps |= 1 << dir;
+            }
+        }
+        return steps;
+    }
+
+    /** @return True if a game's map is big enough to be searched through the graph, see MIN_AREA */
+    public static boolean isLargeMap(GameState gs)
+    {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        return pgs.getWidth() * pgs.getHeight() >= MIN_AREA;
+    }
+
+    private int clusterOf(int cell)
+    {
+        return (cell % width) / CLUSTER_SIZE + (cell / width) / CLUSTER_SIZE * clustersX;
+    }
+
+    /** Searches the graph for a route from a unit to the cells in range of a target.
+     * Fills route with the nodes to pass through, none if the target can be reached inside the start's cluster.
+     * @return The length of the route in steps, 0 if the unit is already in range, or -1 if there is none
+     */
+    private int findRoute(Unit start, int targetpos, int range)
+    {
+        routeLength = 0;
+        int from = start.getX() + start.getY() * width;
+        int tx = targetpos % width;
+        int ty = targetpos / width;
+        int sqRange = range * range;
+        if (inRange(from, tx, ty, sqRange))
+        {
+            return 0;
+        }
+        query++;
+        heap.clear();
+        int reach = (int) Math.ceil(range * 1.4143);
+
+        /// The cells a route can end on, and their distance to the nodes of their clusters
+        int goals = 0;
+        for (int y = Math.max(0, ty - range); y <= Math.min(height - 1, ty + range); y++)
+        {
+            for (int x = Math.max(0, tx - range); x <= Math.min(width - 1, tx + range); x++)
+            {
+                int cell = x + y * width;
+                if (open[cell] && inRange(cell, tx, ty, sqRange))
+                {
+                    if (goals == goalCells.length)
+                    {
+                        goalCells = Arrays.copyOf(goalCells, goals * 2);
+                    }
+                    goalCells[goals++] = cell;
+                }
+            }
+        }
+        if (goals == 0)
+        {
+            return -1;
+        }
+        for (int i = 0; i < goals; i++)
+        {
+            int cluster = clusterOf(goalCells[i]);
+            if (goalClusterSeen[cluster] == query)
+            {
+                continue;
+            }
+            goalClusterSeen[cluster] = query;
+            searchCluster(cluster, goalCells, goals, true);
+            for (int node : clusterNodes[cluster])
+            {
+                int d = bfsDistance[localCell(cluster, nodeCell[node])];
+                if (d >= 0)
+                {
+                    goalSeen[node] = query;
+                    goalCost[node] = d;
+                }
+            }
+        }
+
+        /// Join the start to its cluster's nodes, and straight to the goal if it is in the same cluster
+        int startCluster = clusterOf(from);
+        single[0] = from;
+        searchCluster(startCluster, single, 1, false);
+        int best = Integer.MAX_VALUE;
+        int bestParent = START;
+        for (int i = 0; i < goals; i++)
+        {
+            if (clusterOf(goalCells[i]) == startCluster)
+            {
+                int d = bfsDistance[localCell(startCluster, goalCells[i])];
+                if (d >= 0 && d < best)
+                {
+                    best = d;
+                }
+            }
+        }
+        if (best != Integer.MAX_VALUE)
+        {
+            heap.push(((long) best << 32) | GOAL);
+        }
+        for (int node : clusterNodes[startCluster])
+        {
+            int d = bfsDistance[localCell(startCluster, nodeCell[node])];
+            if (d >= 0)
+            {
+                relax(node, d, START, tx, ty, reach);
+            }
+        }
+
+        /// A* over the nodes, with the goal as one more node
+        while (!heap.isEmpty())
+        {
+            long key = heap.pop();
+            int node = (int) key;
+            if (node == GOAL)
+            {
+                break;
+            }
+            if (nodeClosed[node] == query)
+            {
+                continue;
+            }
+            nodeClosed[node] = query;
+            int g = nodeG[node];
+            if (goalSeen[node] == query && g + goalCost[node] < best)
+            {
+                best = g + goalCost[node];
+                bestParent = node;
+                heap.push(((long) best << 32) | GOAL);
+            }
+            relax(nodePartner[node], g + 1, node, tx, ty, reach);
+            int cluster = nodeCluster[node];
+            int[] nodes = clusterNodes[cluster];
+            int[] distance = clusterDistance[cluster];
+            int slot = slotOf(nodes, node);
+            int row = slot * nodes.length;
+            for (int i = 0; i < nodes.length; i++)
+            {
+                /// Nodes can share a cell at a corner, so 0 is a real distance
+                if (i != slot && distance[row + i] >= 0)
+                {
+                    relax(nodes[i], g + distance[row + i], node, tx, ty, reach);
+                }
+            }
+        }
+        if (best == Integer.MAX_VALUE)
+        {
+            return -1;
+        }
+        for (int node = bestParent; node != START; node = nodeParent[node])
+        {
+            routeLength++;
+        }
+        if (route.length < routeLength)
+        {
+            route = new int[Math.max(routeLength, route.length * 2)];
+        }
+        int i = routeLength;
+        for (int node = bestParent; node != START; node = nodeParent[node])
+        {
+            route[--i] = node;
+        }
+        return best;
+    }
+
+    private void relax(int node, int g, int parent, int tx, int ty, int reach)
+    {
+        if (nodeClosed[node] == query || (nodeSeen[node] == query && nodeG[node] <= g))
+        {
+            return;
+        }
+        nodeSeen[node] = query;
+        nodeG[node] = g;
+        nodeParent[node] = parent;
+        int cell = nodeCell[node];
+        int h = Math.max(0, Math.abs(cell % width - tx) + Math.abs(cell / width - ty) - reach);
+        heap.push(((long) (g + h) << 32) | node);
+    }
+
+    private static int slotOf(int[] nodes, int node)
+    {
+        for (int i = 0; i < nodes.length; i++)
+        {
+            if (nodes[i] == node)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean inRange(int cell, int tx, int ty, int sqRange)
+    {
+        int dx = cell % width - tx;
+        int dy = cell / width - ty;
+        return dx * dx + dy * dy <= sqRange;
+    }
+
+    /** @return The index of a cell inside its cluster, for bfsDistance */
+    private int localCell(int cluster, int cell)
+    {
+        int x = cell % width - cluster % clustersX * CLUSTER_SIZE;
+        int y = cell / width - cluster / clustersX * CLUSTER_SIZE;
+        return x + y * CLUSTER_SIZE;
+    }
+
+    /** Breadth first search over the open cells of one cluster, filling bfsDistance.
+     * @param cluster The cluster to search
+     * @param sources Cells to start from
+     * @param count How many of sources to use
+     * @param inClusterOnly If sources outside the cluster should be skipped rather than assumed inside
+     */
+    private void searchCluster(int cluster, int[] sources, int count, boolean inClusterOnly)
+    {
+        int x0 = cluster % clustersX * CLUSTER_SIZE;
+        int y0 = cluster / clustersX * CLUSTER_SIZE;
+        int x1 = Math.min(width, x0 + CLUSTER_SIZE);
+        int y1 = Math.min(height, y0 + CLUSTER_SIZE);
+        Arrays.fill(bfsDistance, -1);
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int cell = sources[i];
+            if (inClusterOnly && clusterOf(cell) != cluster)
+            {
+                continue;
+            }
+            int local = localCell(cluster, cell);
+            if (bfsDistance[local] < 0)
+            {
+                bfsDistance[local] = 0;
+                bfsQueue[tail++] = cell;
+            }
+        }
+        while (head < tail)
+        {
+            int cell = bfsQueue[head++];
+            int d = bfsDistance[localCell(cluster, cell)];
+            int x = cell % width;
+            int y = cell / width;
+            for (int dir = 0; dir < 4; dir++)
+            {
+                int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < x0 || ny < y0 || nx >= x1 || ny >= y1)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                int local = (nx - x0) + (ny - y0) * CLUSTER_SIZE;
+                if (open[next] && bfsDistance[local] < 0)
+                {
+                    bfsDistance[local] = d + 1;
+                    bfsQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /** Brings the graph up to date with a game state.
+     * Cheap when called again for the same state and cycle. Otherwise finds the cells whose building or resource
+     * came or went since the last sync and rebuilds only the clusters they are in, or the whole graph for a new map.
+     * Also notes where the mobile units are, for the grid search.
+     * @param gs The GameState
+     */
+    private void sync(GameState gs)
+    {
+        if (gs == lastState && gs.getTime() == lastTime)
+        {
+            return;
+        }
+        lastState = gs;
+        lastTime = gs.getTime();
+        syncs++;
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        boolean rebuild = pgs != map && !sameTerrain(pgs);
+        map = pgs;
+        if (rebuild)
+        {
+            resize(pgs);
+        }
+
+        /// Mobile units only need noting, buildings and resources are compared with the last sync
+        List<Unit> units = pgs.getUnits();
+        if (scratchCells.length < units.size())
+        {
+            scratchCells = new int[Math.max(units.size(), scratchCells.length * 2)];
+        }
+        int count = 0;
+        for (Unit u : units)
+        {
+            int cell = u.getX() + u.getY() * width;
+            if (u.getType().canMove)
+            {
+                busy[cell] = syncs;
+            }
+            else
+            {
+                mark[cell] = syncs;
+                scratchCells[count++] = cell;
+            }
+        }
+        dirtyCount = 0;
+        for (int i = 0; i < staticCount; i++)
+        {
+            int cell = staticCells[i];
+            if (mark[cell] != syncs)
+            {
+                open[cell] = terrainOpen[cell];
+                markDirty(clusterOf(cell));
+            }
+        }
+        for (int i = 0; i < count; i++)
+        {
+            int cell = scratchCells[i];
+            if (open[cell])
+            {
+                open[cell] = false;
+                markDirty(clusterOf(cell));
+            }
+        }
+        int[] swap = staticCells;
+        staticCells = scratchCells;
+        scratchCells = swap;
+        staticCount = count;
+
+        if (!isLargeMap(gs))
+        {
+            return;
+        }
+        if (rebuild)
+        {
+            buildGraph();
+        }
+        else if (dirtyCount > 0)
+        {
+            repair();
+        }
+    }
+
+    /** @return True if a map has the same size and walls as the one the graph was built for */
+    private boolean sameTerrain(PhysicalGameState pgs)
+    {
+        if (pgs.getWidth() != width || pgs.getHeight() != height)
+        {
+            return false;
+        }
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (terrainOpen[x + y * width] != (pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_NONE))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /** Starts again on a new map, with every building and resource still to be found. */
+    private void resize(PhysicalGameState pgs)
+    {
+        width = pgs.getWidth();
+        height = pgs.getHeight();
+        int cells = width * height;
+        if (terrainOpen.length != cells)
+        {
+            terrainOpen = new boolean[cells];
+            open = new boolean[cells];
+            busy = new int[cells];
+            mark = new int[cells];
+        }
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                terrainOpen[x + y * width] = pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_NONE;
+            }
+        }
+        System.arraycopy(terrainOpen, 0, open, 0, cells);
+        staticCount = 0;
+        clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        int clusters = clustersX * clustersY;
+        rightBorders = new int[clusters][0];
+        downBorders = new int[clusters][0];
+        clusterNodes = new int[clusters][0];
+        clusterDistance = new int[clusters][0];
+        dirtyStamp = new int[clusters];
+        dirtyClusters = new int[clusters];
+        rebuiltStamp = new int[clusters];
+        rightStamp = new int[clusters];
+        downStamp = new int[clusters];
+        goalClusterSeen = new int[clusters];
+        nodeCount = 0;
+        freeCount = 0;
+    }
+
+    private void markDirty(int cluster)
+    {
+        if (dirtyStamp[cluster] != syncs)
+        {
+            dirtyStamp[cluster] = syncs;
+            dirtyClusters[dirtyCount++] = cluster;
+        }
+    }
+
+    private void buildGraph()
+    {
+        int clusters = clustersX * clustersY;
+        for (int c = 0; c < clusters; c++)
+        {
+            buildBorder(c, true);
+            buildBorder(c, false);
+        }
+        for (int c = 0; c < clusters; c++)
+        {
+            buildCluster(c);
+        }
+        rebuilds++;
+    }
+
+    /** Rebuilds the borders around each dirty cluster, then the distances of every cluster whose nodes moved. */
+    private void repair()
+    {
+        for (int i = 0; i < dirtyCount; i++)
+        {
+            int c = dirtyClusters[i];
+            int cx = c % clustersX;
+            int cy = c / clustersX;
+            if (rightStamp[c] != syncs)
+            {
+                buildBorder(c, true);
+            }
+            if (cx > 0 && rightStamp[c - 1] != syncs)
+            {
+                buildBorder(c - 1, true);
+            }
+            if (downStamp[c] != syncs)
+            {
+                buildBorder(c, false);
+            }
+            if (cy > 0 && downStamp[c - clustersX] != syncs)
+            {
+                buildBorder(c - clustersX, false);
+            }
+        }
+        for (int i = 0; i < dirtyCount; i++)
+        {
+            int c = dirtyClusters[i];
+            int cx = c % clustersX;
+            int cy = c / clustersX;
+            rebuildCluster(c);
+            if (cx > 0)
+            {
+                rebuildCluster(c - 1);
+            }
+            if (cx < clustersX - 1)
+            {
+                rebuildCluster(c + 1);
+            }
+            if (cy > 0)
+            {
+                rebuildCluster(c - clustersX);
+            }
+            if (cy < clustersY - 1)
+            {
+                rebuildCluster(c + clustersX);
+            }
+        }
+        repairs++;
+    }
+
+    private void rebuildCluster(int c)
+    {
+        if (rebuiltStamp[c] != syncs)
+        {
+            rebuiltStamp[c] = syncs;
+            buildCluster(c);
+            repairedClusters++;
+        }
+    }
+
+    /** Places the entrances on the border between a cluster and the one to its right or below it.
+     * Each open stretch of border gets a pair of nodes in its middle, or a pair at each end if it is wide.
+     * @param c The cluster on the left or top
+     * @param right True for the border with the cluster to the right, false for the one below
+     */
+    private void buildBorder(int c, boolean right)
+    {
+        int[] old = right ? rightBorders[c] : downBorders[c];
+        for (int node : old)
+        {
+            freeNode(node);
+        }
+        if (right)
+        {
+            rightStamp[c] = syncs;
+        }
+        else
+        {
+            downStamp[c] = syncs;
+        }
+        int cx = c % clustersX;
+        int cy = c / clustersX;
+        if ((right && cx == clustersX - 1) || (!right && cy == clustersY - 1))
+        {
+            setBorder(c, right, new int[0]);
+            return;
+        }
+        /// Walk along the border, a is the cell on c's side and b the one across
+        int along = right ? Math.min(height, (cy + 1) * CLUSTER_SIZE) - cy * CLUSTER_SIZE
+                : Math.min(width, (cx + 1) * CLUSTER_SIZE) - cx * CLUSTER_SIZE;
+        int first = right ? (cx * CLUSTER_SIZE + CLUSTER_SIZE - 1) + cy * CLUSTER_SIZE * width
+                : cx * CLUSTER_SIZE + (cy * CLUSTER_SIZE + CLUSTER_SIZE - 1) * width;
+        int stride = right ? width : 1;
+        int across = right ? 1 : width;
+        int other = right ? c + 1 : c + clustersX;
+        int pairs = 0;
+        int runStart = -1;
+        for (int i = 0; i <= along; i++)
+        {
+            int a = first + i * stride;
+            boolean passable = i < along && open[a] && open[a + across];
+            if (passable && runStart < 0)
+            {
+                runStart = i;
+            }
+            else if (!passable && runStart >= 0)
+            {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= WIDE_ENTRANCE)
+                {
+                    pairs = addEntrance(c, other, first + runStart * stride, across, pairs);
+                    pairs = addEntrance(c, other, first + runEnd * stride, across, pairs);
+                }
+                else
+                {
+                    pairs = addEntrance(c, other, first + (runStart + runEnd) / 2 * stride, across, pairs);
+                }
+                runStart = -1;
+            }
+        }
+        setBorder(c, right, Arrays.copyOf(borderScratch, pairs * 2));
+    }
+
+    private int addEntrance(int c, int other, int a, int across, int pairs)
+    {
+        int na = newNode(a, c);
+        int nb = newNode(a + across, other);
+        nodePartner[na] = nb;
+        nodePartner[nb] = na;
+        borderScratch[pairs * 2] = na;
+        borderScratch[pairs * 2 + 1] = nb;
+        return pairs + 1;
+    }
+
+    private void setBorder(int c, boolean right, int[] nodes)
+    {
+        if (right)
+        {
+            rightBorders[c] = nodes;
+        }
+        else
+        {
+            downBorders[c] = nodes;
+        }
+    }
+
+    /** Gathers a cluster's nodes from its four borders and finds the steps between each two of them. */
+    private void buildCluster(int c)
+    {
+        int cx = c % clustersX;
+        int cy = c / clustersX;
+        int count = rightBorders[c].length / 2 + downBorders[c].length / 2
+                + (cx > 0 ? rightBorders[c - 1].length / 2 : 0) + (cy > 0 ? downBorders[c - clustersX].length / 2 : 0);
+        int[] nodes = new int[count];
+        int n = 0;
+        n = gather(rightBorders[c], 0, nodes, n);
+        n = gather(downBorders[c], 0, nodes, n);
+        if (cx > 0)
+        {
+            n = gather(rightBorders[c - 1], 1, nodes, n);
+        }
+        if (cy > 0)
+        {
+            gather(downBorders[c - clustersX], 1, nodes, n);
+        }
+        int[] distance = new int[count * count];
+        for (int i = 0; i < count; i++)
+        {
+            single[0] = nodeCell[nodes[i]];
+            searchCluster(c, single, 1, false);
+            for (int j = 0; j < count; j++)
+            {
+                distance[i * count + j] = bfsDistance[localCell(c, nodeCell[nodes[j]])];
+            }
+        }
+        clusterNodes[c] = nodes;
+        clusterDistance[c] = distance;
+    }
+
+    private static int gather(int[] border, int side, int[] nodes, int n)
+    {
+        for (int i = side; i < border.length; i += 2)
+        {
+            nodes[n++] = border[i];
+        }
+        return n;
+    }
+
+    private int newNode(int cell, int cluster)
+    {
+        int node;
+        if (freeCount > 0)
+        {
+            node = freeNodes[--freeCount];
+        }
+        else
+        {
+            node = nodeCount++;
+            if (node == nodeCell.length)
+            {
+                int size = node * 2;
+                nodeCell = Arrays.copyOf(nodeCell, size);
+                nodeCluster = Arrays.copyOf(nodeCluster, size);
+                nodePartner = Arrays.copyOf(nodePartner, size);
+                nodeG = Arrays.copyOf(nodeG, size);
+                nodeParent = Arrays.copyOf(nodeParent, size);
+                nodeSeen = Arrays.copyOf(nodeSeen, size);
+                nodeClosed = Arrays.copyOf(nodeClosed, size);
+                goalCost = Arrays.copyOf(goalCost, size);
+                goalSeen = Arrays.copyOf(goalSeen, size);
+            }
+        }
+        nodeCell[node] = cell;
+        nodeCluster[node] = cluster;
+        return node;
+    }
+
+    private void freeNode(int node)
+    {
+        if (freeCount == freeNodes.length)
+        {
+            freeNodes = Arrays.copyOf(freeNodes, freeCount * 2);
+        }
+        freeNodes[freeCount++] = node;
+        /// A stale query stamp on a reused id must not count for the new node
+        nodeSeen[node] = 0;
+        nodeClosed[node] = 0;
+        goalSeen[node] = 0;
+    }
+
+    /** @return Entrance nodes in the graph */
+    public int getNodes()
+    {
+        return nodeCount - freeCount;
+    }
+
+    public int getRebuilds()
+    {
+        return rebuilds;
+    }
+
+    public int getRepairs()
+    {
+        return repairs;
+    }
+
+    public int getRepairedClusters()
+    {
+        return repairedClusters;
+    }
+
+    /** @return Grid searches run, for both legs of routes and whole paths */
+    public int getGridSearches()
+    {
+        return grid.getSearches();
+    }
+}
@@ -0,0 +1,80 @@
+package bot;
+
+import java.util.Arrays;
+
+/** A binary min-heap of longs.
+ * Callers pack their priority into the high bits and whatever they need back into the low bits, so a queue
+ * of pairs never boxes or allocates once the array has grown.
+ * @author HoaxShark
+ */
+public class LongHeap
+{
+    private long[] heap = new long[16];
+    private int size = 0;
+
+    public void push(long key)
+    {
+        if (size == heap.length)
+        {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        int i = size++;
+        while (i > 0)
+        {
+            int parent = (i - 1) >> 1;
+            if (heap[parent] <= key)
+            {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = key;
+    }
+
+    /** Removes and returns the smallest key, the heap must not be empty. */
+    public long pop()
+    {
+        long top = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= size)
+            {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child])
+            {
+                child++;
+            }
+            if (last <= heap[child])
+            {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        if (size > 0)
+        {
+            heap[i] = last;
+        }
+        return top;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+}
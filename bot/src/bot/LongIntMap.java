@@ -0,0 +1,163 @@
+package bot;
+
+import java.util.Arrays;
+
+/** An open addressing hash map from long keys to int values.
+ * Used to look units up by ID without boxing. Keys must not be Long.MIN_VALUE, which marks an empty slot,
+ * and unit IDs never are.
+ * @author HoaxShark
+ */
+public class LongIntMap
+{
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask; ///< Table length minus one, the length is always a power of two
+    private int size = 0;
+
+    public LongIntMap()
+    {
+        this(16);
+    }
+
+    /** @param capacity How many entries to make room for before the table has to grow */
+    public LongIntMap(int capacity)
+    {
+        int length = 16;
+        while (length < capacity * 2)
+        {
+            length <<= 1;
+        }
+        allocate(length);
+    }
+
+    /** Gets the value stored for a key.
+     * @param key The key to look up
+     * @param missing Value to return when the key is not in the map
+     * @return The stored value, or missing
+     */
+    public int get(long key, int missing)
+    {
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return missing;
+    }
+
+    public boolean containsKey(long key)
+    {
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Stores a value for a key, replacing any value already there. */
+    public void put(long key, int value)
+    {
+        if ((size + 1) * 2 > keys.length)
+        {
+            grow();
+        }
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    /** Removes a key, shifting later entries of its probe run back so lookups never need tombstones.
+     * @param key The key to remove
+     * @return True if the key was in the map
+     */
+    public boolean remove(long key)
+    {
+        int i = slot(key);
+        while (keys[i] != key)
+        {
+            if (keys[i] == EMPTY)
+            {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY)
+        {
+            int home = slot(keys[j]);
+            /// Move the entry into the hole if the hole lies between its home slot and where it is now
+            if (((j - home) & mask) >= ((j - hole) & mask))
+            {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        size--;
+        return true;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    private int slot(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int length)
+    {
+        keys = new long[length];
+        values = new int[length];
+        Arrays.fill(keys, EMPTY);
+        mask = length - 1;
+    }
+
+    private void grow()
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(keys.length * 2);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != EMPTY)
+            {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,852 @@
+package bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** Static analysis of a map, worked out once and then reused by every game played on it.
+ * Covers the things that only depend on the terrain and the starting resource piles and bases: where our
+ * barracks and new bases can go, how the resource piles group into clusters, the chokepoints between walls,
+ * the cells battle units are stacked in, and the walking distance between each pair of those key points.
+ * Results are kept in memory for the rest of the run and written to a small binary file named after the
+ * map's hash, so later runs on the same map load them instead of working them out again.
+ * The cache folder is the workersforlife.mapcache system property, or a folder in java.io.tmpdir if unset;
+ * set the property to an empty string to turn the disk cache off.
+ * An instance never changes once built, so one can be shared between bots and threads.
+ * @author HoaxShark
+ */
+public class MapAnalysis
+{
+    public static final int PARKING_COLUMNS = 2; ///< Number of columns units are stacked in, counted in from the map edge
+    private static final int CELL_WALL = 1; ///< Cell flag for a wall
+    private static final int CELL_RESOURCE = 2; ///< Cell flag for a starting resource pile
+    private static final int CELL_BASE = 4; ///< Cell flag for a starting base
+    private static final int CLUSTER_RANGE = 3; ///< Piles this close to each other belong to the same cluster
+    private static final int CHOKE_WIDTH = 3; ///< Widest gap between two walls that counts as a chokepoint
+
+    private static final int MAGIC = 0x57464C4D; ///< "WFLM", first int of every cache file
+    private static final int VERSION = 1; ///< Bump whenever the analysis or the file layout changes
+    private static final ConcurrentHashMap<Long, MapAnalysis> loaded = new ConcurrentHashMap<>(); ///< Every analysis used this run, by hash
+
+    private final int width;
+    private final int height;
+    private final long hash; ///< Hash of the terrain and starting piles and bases this was built from
+    private final byte[] cells; ///< CELL_ flags of every cell
+
+    private final int[] bases; ///< Cells of the starting bases
+    private final int[] barracksSites; ///< Barracks site for each starting base, -1 if none was found
+    private final int[] clusterStart; ///< Index into clusterPiles of each cluster's first pile, plus one past the end
+    private final int[] clusterPiles; ///< Pile cells grouped by cluster
+    private final int[] clusterCentres; ///< The pile nearest the middle of each cluster
+    private final int[] baseSites; ///< Base site for each cluster, -1 if none was found
+    private final int[] chokepoints; ///< One cell for each chokepoint
+    private final int[][] parking; ///< Stacking cells for each side and column, see parkingIndex
+    private final int[] keyPoints; ///< Bases, cluster centres, base and barracks sites, and chokepoints
+    private final int[] keyDistances; ///< Walking distance between every pair of key points, -1 if not connected
+
+    /** Gets the analysis of a map, from memory, then from the disk cache, and only works it out if neither has it.
+     * @param pgs The map, read for its terrain and its resource piles and bases
+     * @return The analysis of the map
+     */
+    public static MapAnalysis of(PhysicalGameState pgs)
+    {
+        long hash = hashOf(pgs);
+        MapAnalysis analysis = loaded.get(hash);
+        if (analysis != null)
+        {
+            return analysis;
+        }
+        File file = cacheFile(hash);
+        if (file != null && file.isFile())
+        {
+            analysis = read(file, hash);
+        }
+        if (analysis == null)
+        {
+            analysis = new MapAnalysis(pgs, hash);
+            if (file != null)
+            {
+                analysis.write(file);
+            }
+        }
+        MapAnalysis raced = loaded.putIfAbsent(hash, analysis);
+        return (raced != null) ? raced : analysis;
+    }
+
+    /** Hashes everything the analysis depends on: the size of the map, its terrain and where the resource
+     * piles and bases are. Piles run out during a game, so a map only hashes the same as the start of the
+     * game while they are all still there.
+     * @param pgs The map
+     * @return A 64 bit FNV-1a hash
+     */
+    public static long hashOf(PhysicalGameState pgs)
+    {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, pgs.getWidth());
+        h = mix(h, pgs.getHeight());
+        for (int y = 0; y < pgs.getHeight(); y++)
+        {
+            for (int x = 0; x < pgs.getWidth(); x++)
+            {
+                h = mix(h, pgs.getTerrain(x, y));
+            }
+        }
+        for (Unit u : pgs.getUnits())
+        {
+            if (u.getType().isResource || u.getType().isStockpile)
+            {
+                h = mix(h, u.getType().isResource ? 1 : 2);
+                h = mix(h, u.getX() + u.getY() * pgs.getWidth());
+            }
+        }
+        return h;
+    }
+
+    private static long mix(long h, int value)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            h ^= (value >>> (i * 8)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Works out the analysis of a map.
+     * @param pgs The map
+     * @param hash Its hash, from hashOf
+     */
+    private MapAnalysis(PhysicalGameState pgs, long hash)
+    {
+        width = pgs.getWidth();
+        height = pgs.getHeight();
+        this.hash = hash;
+        cells = new byte[width * height];
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if (pgs.getTerrain(x, y) == PhysicalGameState.TERRAIN_WALL)
+                {
+                    cells[x + y * width] = CELL_WALL;
+                }
+            }
+        }
+        List<Integer> baseList = new ArrayList<>();
+        for (Unit u : pgs.getUnits())
+        {
+            int cell = u.getX() + u.getY() * width;
+            if (u.getType().isResource)
+            {
+                cells[cell] |= CELL_RESOURCE;
+            }
+            else if (u.getType().isStockpile)
+            {
+                cells[cell] |= CELL_BASE;
+                baseList.add(cell);
+            }
+        }
+        bases = toArray(baseList);
+
+        barracksSites = new int[bases.length];
+        for (int i = 0; i < bases.length; i++)
+        {
+            barracksSites[i] = findBarracksSite(bases[i] % width, bases[i] / width);
+        }
+
+        /// Group the piles into clusters, scanning cells in order so the result never depends on unit order
+        int[] cluster = new int[width * height];
+        Arrays.fill(cluster, -1);
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> piles = new ArrayList<>();
+        int[] stack = new int[width * height];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            if ((cells[cell] & CELL_RESOURCE) == 0 || cluster[cell] >= 0)
+            {
+                continue;
+            }
+            int id = starts.size();
+            starts.add(piles.size());
+            int top = 0;
+            stack[top++] = cell;
+            cluster[cell] = id;
+            while (top > 0)
+            {
+                int pile = stack[--top];
+                piles.add(pile);
+                int px = pile % width;
+                int py = pile / width;
+                for (int y = Math.max(0, py - CLUSTER_RANGE); y <= Math.min(height - 1, py + CLUSTER_RANGE); y++)
+                {
+                    for (int x = Math.max(0, px - CLUSTER_RANGE); x <= Math.min(width - 1, px + CLUSTER_RANGE); x++)
+                    {
+                        int other = x + y * width;
+                        if ((cells[other] & CELL_RESOURCE) != 0 && cluster[other] < 0
+                                && Math.abs(x - px) + Math.abs(y - py) <= CLUSTER_RANGE)
+                        {
+                            cluster[other] = id;
+                            stack[top++] = other;
+                        }
+                    }
+                }
+            }
+        }
+        starts.add(piles.size());
+        clusterStart = toArray(starts);
+        clusterPiles = toArray(piles);
+        int nclusters = clusterStart.length - 1;
+        clusterCentres = new int[nclusters];
+        baseSites = new int[nclusters];
+        for (int c = 0; c < nclusters; c++)
+        {
+            clusterCentres[c] = findClusterCentre(c);
+            baseSites[c] = findBaseSite(c);
+        }
+
+        chokepoints = findChokepoints();
+
+        parking = new int[2 * PARKING_COLUMNS][];
+        for (int side = 0; side < 2; side++)
+        {
+            for (int column = 0; column < PARKING_COLUMNS; column++)
+            {
+                parking[parkingIndex(side == 0, column)] = findParkingCells(side == 0, column);
+            }
+        }
+
+        List<Integer> keys = new ArrayList<>();
+        addAll(keys, bases);
+        addAll(keys, clusterCentres);
+        addAll(keys, baseSites);
+        addAll(keys, barracksSites);
+        addAll(keys, chokepoints);
+        keyPoints = toArray(keys);
+        keyDistances = new int[keyPoints.length * keyPoints.length];
+        int[] distance = new int[width * height];
+        int[] queue = new int[width * height];
+        for (int i = 0; i < keyPoints.length; i++)
+        {
+            walk(keyPoints[i], distance, queue);
+            for (int j = 0; j < keyPoints.length; j++)
+            {
+                keyDistances[i * keyPoints.length + j] = distance[keyPoints[j]];
+            }
+        }
+    }
+
+    /** Rebuilds an analysis read back from a cache file. */
+    private MapAnalysis(int width, int height, long hash, byte[] cells, int[] bases, int[] barracksSites,
+            int[] clusterStart, int[] clusterPiles, int[] clusterCentres, int[] baseSites, int[] chokepoints,
+            int[][] parking, int[] keyPoints, int[] keyDistances)
+    {
+        this.width = width;
+        this.height = height;
+        this.hash = hash;
+        this.cells = cells;
+        this.bases = bases;
+        this.barracksSites = barracksSites;
+        this.clusterStart = clusterStart;
+        this.clusterPiles = clusterPiles;
+        this.clusterCentres = clusterCentres;
+        this.baseSites = baseSites;
+        this.chokepoints = chokepoints;
+        this.parking = parking;
+        this.keyPoints = keyPoints;
+        this.keyDistances = keyDistances;
+    }
+
+    /*================Queries==============*/
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public long getHash()
+    {
+        return hash;
+    }
+
+    /** Checks which side of the map a base is on.
+     * @param baseX X position of the base
+     * @return True if the base is on the left half of the map
+     */
+    public boolean isOnTheLeft(int baseX)
+    {
+        return baseX - (width / 2) < 0;
+    }
+
+    /** Gets where to build a barracks for a base.
+     * The usual spot is two right and two up from the base on the right side of the map, and two left and four
+     * down on the left side. If that spot is off the map, a wall, taken by a starting pile or base, or right next
+     * to one, the closest spot that isn't and that the base's workers can walk to is used instead.
+     * Sites for the starting bases come from the analysis, other bases are searched on each call.
+     * @param baseX X position of the base
+     * @param baseY Y position of the base
+     * @return The site as x + y * width, or -1 if there is nowhere to build
+     */
+    public int getBarracksSite(int baseX, int baseY)
+    {
+        int cell = baseX + baseY * width;
+        for (int i = 0; i < bases.length; i++)
+        {
+            if (bases[i] == cell)
+            {
+                return barracksSites[i];
+            }
+        }
+        return findBarracksSite(baseX, baseY);
+    }
+
+    /** Gets the base site closest to a position, for replacing a lost base.
+     * @param x X position to measure from
+     * @param y Y position to measure from
+     * @return The site as x + y * width, or -1 if the map has no base sites
+     */
+    public int getClosestBaseSite(int x, int y)
+    {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int site : baseSites)
+        {
+            if (site < 0)
+            {
+                continue;
+            }
+            int d = Math.abs(site % width - x) + Math.abs(site / width - y);
+            if (d < bestDistance)
+            {
+                best = site;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /** Gets the cells units are stacked in, in the order they should be tried.
+     * On the left they stack upwards from the bottom edge, on the right downwards from the top edge.
+     * Cells that are walls or taken by a starting pile or base are left out.
+     * @param onTheLeft If our base is on the left side of the map
+     * @param column The stacking column, counted in from the map edge
+     * @return The cells as x + y * width, do not modify
+     */
+    public int[] getParkingCells(boolean onTheLeft, int column)
+    {
+        return parking[parkingIndex(onTheLeft, column)];
+    }
+
+    /** @return The number of resource clusters */
+    public int getClusterCount()
+    {
+        return clusterCentres.length;
+    }
+
+    /** @return The pile nearest the middle of a cluster, as x + y * width */
+    public int getClusterCentre(int cluster)
+    {
+        return clusterCentres[cluster];
+    }
+
+    /** @return The number of starting piles in a cluster */
+    public int getClusterSize(int cluster)
+    {
+        return clusterStart[cluster + 1] - clusterStart[cluster];
+    }
+
+    /** Gets the cluster a starting pile belongs to.
+     * @param cell The pile's cell as x + y * width
+     * @return The cluster, or -1 if no starting pile was there
+     */
+    public int getClusterOf(int cell)
+    {
+        for (int c = 0; c < clusterCentres.length; c++)
+        {
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++)
+            {
+                if (clusterPiles[i] == cell)
+                {
+                    return c;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /** @return The cells of the chokepoints, one per chokepoint, do not modify */
+    public int[] getChokepoints()
+    {
+        return chokepoints;
+    }
+
+    /** @return The cells of every key point, do not modify */
+    public int[] getKeyPoints()
+    {
+        return keyPoints;
+    }
+
+    /** Gets the walking distance between two key points, going around walls and starting piles and bases.
+     * @param from A key point cell
+     * @param to A key point cell
+     * @return The number of steps, or -1 if either cell is not a key point or there is no way through
+     */
+    public int getDistance(int from, int to)
+    {
+        int i = indexOfKey(from);
+        int j = indexOfKey(to);
+        if (i < 0 || j < 0)
+        {
+            return -1;
+        }
+        return keyDistances[i * keyPoints.length + j];
+    }
+
+    private int indexOfKey(int cell)
+    {
+        for (int i = 0; i < keyPoints.length; i++)
+        {
+            if (keyPoints[i] == cell)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*================Analysis==============*/
+
+    /** Checks a cell is empty at the start of the game. */
+    private boolean isOpen(int x, int y)
+    {
+        return x >= 0 && y >= 0 && x < width && y < height && cells[x + y * width] == 0;
+    }
+
+    /** Checks a cell can be built on without blocking a pile or base. */
+    private boolean isBuildable(int x, int y)
+    {
+        if (!isOpen(x, y))
+        {
+            return false;
+        }
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int nx = x + UnitAction.DIRECTION_OFFSET_X[dir];
+            int ny = y + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (nx >= 0 && ny >= 0 && nx < width && ny < height
+                    && (cells[nx + ny * width] & (CELL_RESOURCE | CELL_BASE)) != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Finds the buildable cell closest to a base's usual barracks spot that its workers can walk to. */
+    private int findBarracksSite(int baseX, int baseY)
+    {
+        int preferredX = isOnTheLeft(baseX) ? baseX - 2 : baseX + 2;
+        int preferredY = isOnTheLeft(baseX) ? baseY + 4 : baseY - 2;
+        if (baseX < 0 || baseY < 0 || baseX >= width || baseY >= height)
+        {
+            return -1;
+        }
+        int[] distance = new int[width * height];
+        walk(baseX + baseY * width, distance, new int[width * height]);
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            int x = cell % width;
+            int y = cell / width;
+            if (distance[cell] > 0 && isBuildable(x, y))
+            {
+                int d = Math.abs(x - preferredX) + Math.abs(y - preferredY);
+                if (d < bestDistance)
+                {
+                    best = cell;
+                    bestDistance = d;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Finds the pile of a cluster nearest its middle. */
+    private int findClusterCentre(int c)
+    {
+        int sumX = 0;
+        int sumY = 0;
+        for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++)
+        {
+            sumX += clusterPiles[i] % width;
+            sumY += clusterPiles[i] / width;
+        }
+        int count = clusterStart[c + 1] - clusterStart[c];
+        int best = clusterPiles[clusterStart[c]];
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++)
+        {
+            int d = Math.abs(clusterPiles[i] % width * count - sumX) + Math.abs(clusterPiles[i] / width * count - sumY);
+            if (d < bestDistance)
+            {
+                best = clusterPiles[i];
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    /** Finds the buildable cell closest to all the piles of a cluster that leaves a cell free next to each of them. */
+    private int findBaseSite(int c)
+    {
+        int minX = width;
+        int minY = height;
+        int maxX = 0;
+        int maxY = 0;
+        for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++)
+        {
+            minX = Math.min(minX, clusterPiles[i] % width);
+            minY = Math.min(minY, clusterPiles[i] / width);
+            maxX = Math.max(maxX, clusterPiles[i] % width);
+            maxY = Math.max(maxY, clusterPiles[i] / width);
+        }
+        int best = -1;
+        int bestCost = Integer.MAX_VALUE;
+        for (int y = Math.max(0, minY - 3); y <= Math.min(height - 1, maxY + 3); y++)
+        {
+            for (int x = Math.max(0, minX - 3); x <= Math.min(width - 1, maxX + 3); x++)
+            {
+                if (!isBuildable(x, y))
+                {
+                    continue;
+                }
+                int cost = 0;
+                for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++)
+                {
+                    cost += Math.abs(clusterPiles[i] % width - x) + Math.abs(clusterPiles[i] / width - y);
+                }
+                if (cost < bestCost)
+                {
+                    best = x + y * width;
+                    bestCost = cost;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Finds gaps of at most CHOKE_WIDTH cells between two walls, keeping the narrowest cell of each gap.
+     * The map edge does not count as a wall, so open maps have no chokepoints.
+     */
+    private int[] findChokepoints()
+    {
+        int[] gap = new int[width * height]; ///< Width of the narrowest gap through each cell, 0 if not a chokepoint
+        for (int y = 0; y < height; y++)
+        {
+            for (int x = 0; x < width; x++)
+            {
+                if ((cells[x + y * width] & CELL_WALL) == 0)
+                {
+                    int across = Math.min(gapWidth(x, y, 1, 0), gapWidth(x, y, 0, 1));
+                    gap[x + y * width] = (across <= CHOKE_WIDTH) ? across : 0;
+                }
+            }
+        }
+        /// Each group of touching chokepoint cells is one chokepoint
+        List<Integer> found = new ArrayList<>();
+        int[] stack = new int[width * height];
+        boolean[] done = new boolean[width * height];
+        for (int cell = 0; cell < cells.length; cell++)
+        {
+            if (gap[cell] == 0 || done[cell])
+            {
+                continue;
+            }
+            int narrowest = cell;
+            int top = 0;
+            stack[top++] = cell;
+            done[cell] = true;
+            while (top > 0)
+            {
+                int next = stack[--top];
+                if (gap[next] < gap[narrowest] || (gap[next] == gap[narrowest] && next < narrowest))
+                {
+                    narrowest = next;
+                }
+                for (int dir = 0; dir < 4; dir++)
+                {
+                    int nx = next % width + UnitAction.DIRECTION_OFFSET_X[dir];
+                    int ny = next / width + UnitAction.DIRECTION_OFFSET_Y[dir];
+                    if (nx >= 0 && ny >= 0 && nx < width && ny < height && gap[nx + ny * width] != 0 && !done[nx + ny * width])
+                    {
+                        done[nx + ny * width] = true;
+                        stack[top++] = nx + ny * width;
+                    }
+                }
+            }
+            found.add(narrowest);
+        }
+        return toArray(found);
+    }
+
+    /** Measures the open run through a cell along one axis, MAX_VALUE if either end is the map edge. */
+    private int gapWidth(int x, int y, int dx, int dy)
+    {
+        int run = 1;
+        for (int sign = -1; sign <= 1; sign += 2)
+        {
+            int nx = x + dx * sign;
+            int ny = y + dy * sign;
+            while (true)
+            {
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                {
+                    return Integer.MAX_VALUE;
+                }
+                if ((cells[nx + ny * width] & CELL_WALL) != 0)
+                {
+                    break;
+                }
+                run++;
+                if (run > CHOKE_WIDTH)
+                {
+                    return Integer.MAX_VALUE;
+                }
+                nx += dx * sign;
+                ny += dy * sign;
+            }
+        }
+        return run;
+    }
+
+    private int[] findParkingCells(boolean onTheLeft, int column)
+    {
+        List<Integer> found = new ArrayList<>();
+        for (int n = 0; n < height; n++)
+        {
+            int x = onTheLeft ? column : width - 1 - column;
+            int y = onTheLeft ? height - 1 - n : n;
+            if (isOpen(x, y))
+            {
+                found.add(x + y * width);
+            }
+        }
+        return toArray(found);
+    }
+
+    private static int parkingIndex(boolean onTheLeft, int column)
+    {
+        return (onTheLeft ? 0 : PARKING_COLUMNS) + column;
+    }
+
+    /** Breadth first search from one cell through the empty cells.
+     * Starting piles and bases are given a distance when reached but not walked through, so key points that sit
+     * on them are still measured.
+     * @param from The start cell
+     * @param distance Filled in with steps from the start cell, -1 where it can't be reached
+     * @param queue Scratch space, at least one entry per cell
+     */
+    private void walk(int from, int[] distance, int[] queue)
+    {
+        Arrays.fill(distance, -1);
+        int head = 0;
+        int tail = 0;
+        distance[from] = 0;
+        queue[tail++] = from;
+        while (head < tail)
+        {
+            int pos = queue[head++];
+            if (pos != from && cells[pos] != 0)
+            {
+                continue;
+            }
+            for (int dir = 0; dir < 4; dir++)
+            {
+                int nx = pos % width + UnitAction.DIRECTION_OFFSET_X[dir];
+                int ny = pos / width + UnitAction.DIRECTION_OFFSET_Y[dir];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+                {
+                    continue;
+                }
+                int next = nx + ny * width;
+                if (distance[next] < 0 && (cells[next] & CELL_WALL) == 0)
+                {
+                    distance[next] = distance[pos] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    private static void addAll(List<Integer> list, int[] values)
+    {
+        for (int v : values)
+        {
+            if (v >= 0)
+            {
+                list.add(v);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /*================Disk cache==============*/
+
+    /** @return The cache file for a hash, or null if the disk cache is off */
+    private static File cacheFile(long hash)
+    {
+        String folder = System.getProperty("workersforlife.mapcache");
+        if (folder == null)
+        {
+            folder = new File(System.getProperty("java.io.tmpdir"), "workersforlife").getPath();
+        }
+        if (folder.isEmpty())
+        {
+            return null;
+        }
+        return new File(folder, String.format("%016x.map", hash));
+    }
+
+    /** Writes the analysis to a cache file.
+     * Written to a temporary file first and then moved into place, so games running in parallel never read a
+     * half written file. Failing to write only means the next run works the map out again.
+     */
+    private void write(File file)
+    {
+        File tmp = null;
+        try
+        {
+            File folder = file.getParentFile();
+            folder.mkdirs();
+            tmp = File.createTempFile("map", ".tmp", folder);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(hash);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.write(cells);
+                writeArray(out, bases);
+                writeArray(out, barracksSites);
+                writeArray(out, clusterStart);
+                writeArray(out, clusterPiles);
+                writeArray(out, clusterCentres);
+                writeArray(out, baseSites);
+                writeArray(out, chokepoints);
+                for (int[] column : parking)
+                {
+                    writeArray(out, column);
+                }
+                writeArray(out, keyPoints);
+                writeArray(out, keyDistances);
+            }
+            try
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException e)
+        {
+            if (tmp != null)
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Reads an analysis from a cache file.
+     * @return The analysis, or null if the file is unreadable, from another version, or for another map
+     */
+    private static MapAnalysis read(File file, long hash)
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != hash)
+            {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            byte[] cells = new byte[width * height];
+            in.readFully(cells);
+            int[] bases = readArray(in);
+            int[] barracksSites = readArray(in);
+            int[] clusterStart = readArray(in);
+            int[] clusterPiles = readArray(in);
+            int[] clusterCentres = readArray(in);
+            int[] baseSites = readArray(in);
+            int[] chokepoints = readArray(in);
+            int[][] parking = new int[2 * PARKING_COLUMNS][];
+            for (int i = 0; i < parking.length; i++)
+            {
+                parking[i] = readArray(in);
+            }
+            int[] keyPoints = readArray(in);
+            int[] keyDistances = readArray(in);
+            return new MapAnalysis(width, height, hash, cells, bases, barracksSites, clusterStart, clusterPiles,
+                    clusterCentres, baseSites, chokepoints, parking, keyPoints, keyDistances);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+
+    private static void writeArray(DataOutputStream out, int[] array) throws IOException
+    {
+        out.writeInt(array.length);
+        for (int v : array)
+        {
+            out.writeInt(v);
+        }
+    }
+
+    private static int[] readArray(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0 || length > (1 << 24))
+        {
+            throw new IOException("Bad array length " + length);
+        }
+        int[] array = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            array[i] = in.readInt();
+        }
+        return array;
+    }
+}
@@ -0,0 +1,212 @@
+package bot;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Tuned parameter values for each map, as written by the ParameterTuner.
+ * The file is a properties file with one line per map and parameter, keyed by the map's hash from
+ * MapAnalysis.hashOf, for example 00c0ffee00c0ffee.MaxWorkers=6. Maps without an entry play with the bot's
+ * own parameters.
+ * The file the bot reads is the workersforlife.config system property, or workersforlife.properties in the
+ * working directory if unset; set the property to an empty string to turn tuned values off.
+ * A file is read once per run and kept in memory until it changes on disk.
+ * @author HoaxShark
+ */
+public class MapConfig
+{
+    public static final String DEFAULT_FILE = "workersforlife.properties"; ///< Read when the system property is unset
+    public static final MapConfig EMPTY = new MapConfig(); ///< No tuned values for any map
+    private static final ConcurrentHashMap<String, MapConfig> loaded = new ConcurrentHashMap<>(); ///< Every file read this run, by path
+
+    private final Map<Long, Map<String, String>> maps = new LinkedHashMap<>(); ///< Parameter values for each map hash
+    private final Map<Long, String> names = new LinkedHashMap<>(); ///< Map file names, written as comments
+    private long lastModified = 0; ///< Modification time of the file this was read from
+
+    /** Gets the config the bot should use, from the workersforlife.config system property.
+     * @return The config, empty if the property is empty or the file is missing or unreadable
+     */
+    public static MapConfig current()
+    {
+        String path = System.getProperty("workersforlife.config");
+        if (path == null)
+        {
+            path = DEFAULT_FILE;
+        }
+        return forFile(path);
+    }
+
+    /** Gets the config in a file, reading it only the first time or if it has changed since.
+     * @param path The file, an empty string for no file
+     * @return The config, empty if the file is missing or unreadable
+     */
+    public static MapConfig forFile(String path)
+    {
+        if (path.isEmpty())
+        {
+            return EMPTY;
+        }
+        File file = new File(path);
+        if (!file.isFile())
+        {
+            return EMPTY;
+        }
+        MapConfig config = loaded.get(path);
+        if (config != null && config.lastModified == file.lastModified())
+        {
+            return config;
+        }
+        try
+        {
+            config = read(file);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            return EMPTY;
+        }
+        loaded.put(path, config);
+        return config;
+    }
+
+    /** Reads a config file.
+     * Lines that are not a map hash followed by a parameter name are skipped.
+     * @param file The file
+     * @return The config in it
+     */
+    public static MapConfig read(File file) throws IOException
+    {
+        MapConfig config = new MapConfig();
+        config.lastModified = file.lastModified();
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            properties.load(in);
+        }
+        for (String key : new TreeSet<>(properties.stringPropertyNames()))
+        {
+            int dot = key.indexOf('.');
+            if (dot <= 0 || dot == key.length() - 1)
+            {
+                continue;
+            }
+            long hash;
+            try
+            {
+                hash = Long.parseUnsignedLong(key.substring(0, dot), 16);
+            }
+            catch (NumberFormatException e)
+            {
+                continue;
+            }
+            config.set(hash, key.substring(dot + 1), properties.getProperty(key));
+        }
+        /// Keep the map names from the comments so writing the file back does not lose them
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.startsWith("# ") && line.indexOf(' ', 2) > 2)
+                {
+                    int space = line.indexOf(' ', 2);
+                    try
+                    {
+                        config.names.put(Long.parseUnsignedLong(line.substring(2, space), 16), line.substring(space + 1));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        /// An ordinary comment
+                    }
+                }
+            }
+        }
+        return config;
+    }
+
+    /** @param hash A map hash from MapAnalysis.hashOf
+     * @return The tuned parameter values for that map by name, empty if there are none
+     */
+    public Map<String, String> get(long hash)
+    {
+        Map<String, String> values = maps.get(hash);
+        return (values == null) ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(values);
+    }
+
+    /** Sets a tuned value, replacing any earlier one.
+     * @param hash A map hash from MapAnalysis.hashOf
+     * @param name The parameter name, as in WorkersForLife.getParameters
+     * @param value The value as text
+     */
+    public void set(long hash, String name, String value)
+    {
+        if (this == EMPTY)
+        {
+            throw new UnsupportedOperationException("The empty config can't be changed");
+        }
+        maps.computeIfAbsent(hash, h -> new TreeMap<>()).put(name, value);
+    }
+
+    /** @param hash A map hash from MapAnalysis.hashOf
+     * @param name The map's file name, written as a comment above its values
+     */
+    public void setName(long hash, String name)
+    {
+        names.put(hash, name);
+    }
+
+    /** Writes the config to a file.
+     * Written to a temporary file first and then moved into place, so a bot starting at the same time never reads
+     * a half written file.
+     * @param file The file to write
+     */
+    public void write(File file) throws IOException
+    {
+        File folder = file.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile("config", ".tmp", folder);
+        try
+        {
+            try (Writer out = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8))
+            {
+                out.write("# WorkersForLife tuned parameters, one block per map hash\n");
+                for (Map.Entry<Long, Map<String, String>> map : maps.entrySet())
+                {
+                    String hash = String.format("%016x", map.getKey());
+                    String name = names.get(map.getKey());
+                    out.write("\n");
+                    if (name != null)
+                    {
+                        out.write("# " + hash + " " + name + "\n");
+                    }
+                    for (Map.Entry<String, String> value : map.getValue().entrySet())
+                    {
+                        out.write(hash + "." + value.getKey() + "=" + value.getValue() + "\n");
+                    }
+                }
+            }
+            try
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package bot;
+
+import ai.abstraction.pathfinding.PathFinding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.ResourceUsage;
+import rts.UnitAction;
+import rts.units.Unit;
+
+/** Keeps each unit's path between ticks so a unit marching to the same goal does not search again every step.
+ * AbstractionLayerAI asks for a path each time a unit is idle, which on a long march means one search per cell
+ * walked. The first time a unit asks for a goal the whole path is planned and stored, keyed by the unit. After
+ * that the path is moved along as the unit walks it, and reused as long as the next cell is free and no building
+ * or resource has appeared in the few cells after it. Only a blocked path, a unit knocked off its path or a new
+ * goal plans again. Paths not asked for in a while are dropped.
+ *
+ * Small maps, where HierarchicalPathFinding hands over to AStarPathFinding, pass straight through.
+ * @author HoaxShark
+ */
+public class PathCache extends PathFinding
+{
+    public static final int LOOKAHEAD = 4; ///< Cells of a path checked for new blockers before it is reused
+    private static final int FORGET_AFTER = 100; ///< Cycles a path is kept without being asked for
+
+    private final HierarchicalPathFinding planner; ///< Plans the paths and answers everything else
+    private final LongIntMap slots = new LongIntMap(); ///< Index in paths of each unit's path, by unit ID
+    private final List<Path> paths = new ArrayList<Path>();
+    private int count = 0; ///< Paths in use, the rest of the list are spares
+
+    private int width = 0;
+    private int[] fixed = new int[0]; ///< Sync stamp of the last sync that saw a building or resource in each cell
+    private int syncs = 0;
+    private GameState lastState = null; ///< The state last synced with
+    private int lastTime = -1; ///< The cycle last synced on
+    private int lastPurge = 0; ///< The cycle unused paths were last dropped on
+
+    private long queries = 0; ///< Paths asked for on large maps
+    private long hits = 0; ///< Queries answered from a stored path, each one a search saved
+    private long plans = 0; ///< Queries that planned a path
+    private long blocked = 0; ///< Plans made because a stored path for the same goal was blocked or left
+    private long ticks = 0; ///< Cycles the cache was used on
+
+    public PathCache(HierarchicalPathFinding planner)
+    {
+        this.planner = planner;
+    }
+
+    /** A unit's stored path to one goal. */
+    private static final class Path
+    {
+        long unit;
+        int target; ///< Cell the path leads to or into range of
+        int range;
+        int start; ///< Cell the unit was in when the path was planned
+        int[] cells = new int[16]; ///< The path, first step first
+        int length = 0;
+        int next = 0; ///< Index of the next cell to step into
+        int lastUsed = 0; ///< Cycle the path was last asked for
+    }
+
+    @Override
+    public UnitAction findPathToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        if (!HierarchicalPathFinding.isLargeMap(gs))
+        {
+            return planner.findPathToPositionInRange(start, targetpos, range, gs, ru);
+        }
+        sync(gs);
+        queries++;
+        int cell = start.getX() + start.getY() * width;
+        int slot = slots.get(start.getID(), -1);
+        Path path = slot < 0 ? null : paths.get(slot);
+        if (path != null && path.target == targetpos && path.range == range)
+        {
+            if (follow(path, cell) && isClear(path, gs, ru))
+            {
+                hits++;
+                path.lastUsed = gs.getTime();
+                return GridAStar.stepTowards(cell, path.cells[path.next], width);
+            }
+            blocked++;
+        }
+
+        plans++;
+        int length = planner.planPath(start, targetpos, range, gs, ru);
+        if (length <= 0)
+        {
+            forget(start.getID());
+            return null;
+        }
+        if (path == null)
+        {
+            path = add(start.getID());
+        }
+        if (path.cells.length < length)
+        {
+            path.cells = new int[Math.max(length, path.cells.length * 2)];
+        }
+        System.arraycopy(planner.getPath(), 0, path.cells, 0, length);
+        path.length = length;
+        path.next = 0;
+        path.start = cell;
+        path.target = targetpos;
+        path.range = range;
+        path.lastUsed = gs.getTime();
+        return GridAStar.stepTowards(cell, path.cells[0], width);
+    }
+
+    @Override
+    public UnitAction findPath(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (!HierarchicalPathFinding.isLargeMap(gs))
+        {
+            return planner.findPath(start, targetpos, gs, ru);
+        }
+        return findPathToPositionInRange(start, targetpos, 0, gs, ru);
+    }
+
+    @Override
+    public UnitAction findPathToAdjacentPosition(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        if (!HierarchicalPathFinding.isLargeMap(gs))
+        {
+            return planner.findPathToAdjacentPosition(start, targetpos, gs, ru);
+        }
+        return findPathToPositionInRange(start, targetpos, 1, gs, ru);
+    }
+
+    @Override
+    public boolean pathExists(Unit start, int targetpos, GameState gs, ResourceUsage ru)
+    {
+        return planner.pathExists(start, targetpos, gs, ru);
+    }
+
+    @Override
+    public boolean pathToPositionInRangeExists(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        return planner.pathToPositionInRangeExists(start, targetpos, range, gs, ru);
+    }
+
+    @Override
+    public int findDistToPositionInRange(Unit start, int targetpos, int range, GameState gs, ResourceUsage ru)
+    {
+        return planner.findDistToPositionInRange(start, targetpos, range, gs, ru);
+    }
+
+    /** Moves a path along to where the unit is now.
+     * The unit is either still where it was last sent from, or a few cells further along the path.
+     * @return False if the unit is somewhere else or at the end of the path, so it has to plan again
+     */
+    private boolean follow(Path path, int cell)
+    {
+        int at = path.next == 0 ? path.start : path.cells[path.next - 1];
+        if (cell == at)
+        {
+            return path.next < path.length;
+        }
+        int end = Math.min(path.length, path.next + LOOKAHEAD);
+        for (int i = path.next; i < end; i++)
+        {
+            if (path.cells[i] == cell)
+            {
+                path.next = i + 1;
+                return path.next < path.length;
+            }
+        }
+        return false;
+    }
+
+    /** Checks if a cell is claimed by another unit this tick.
+     * Compares the claimed cells unboxed, as looking an int up in the list boxes it, allocating for any cell past 127.
+     * @param ru Cells already claimed this tick, can be null
+     * @param cell The cell as x + y * width
+     */
+    static boolean isClaimed(ResourceUsage ru, int cell)
+    {
+        if (ru == null)
+        {
+            return false;
+        }
+        List<Integer> used = ru.getPositionsUsed();
+        for (int i = 0; i < used.size(); i++)
+        {
+            if (used.get(i) == cell)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Checks the next cells of a path for something new in the way.
+     * The next cell has to be free now and not claimed by another unit this tick, the few after it only need to
+     * be free of buildings and resources, as mobile units will usually have moved on.
+     */
+    private boolean isClear(Path path, GameState gs, ResourceUsage ru)
+    {
+        int next = path.cells[path.next];
+        if (!gs.free(next % width, next / width) || isClaimed(ru, next))
+        {
+            return false;
+        }
+        int end = Math.min(path.length, path.next + LOOKAHEAD);
+        for (int i = path.next + 1; i < end; i++)
+        {
+            if (fixed[path.cells[i]] == syncs)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Notes where the buildings and resources are for this cycle, and drops paths nobody has asked for lately. */
+    private void sync(GameState gs)
+    {
+        if (gs == lastState && gs.getTime() == lastTime)
+        {
+            return;
+        }
+        if (gs.getTime() != lastTime)
+        {
+            ticks++;
+        }
+        lastState = gs;
+        lastTime = gs.getTime();
+        syncs++;
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        width = pgs.getWidth();
+        if (fixed.length != width * pgs.getHeight())
+        {
+            fixed = new int[width * pgs.getHeight()];
+        }
+        for (Unit u : pgs.getUnits())
+        {
+            if (!u.getType().canMove)
+            {
+                fixed[u.getX() + u.getY() * width] = syncs;
+            }
+        }
+        if (gs.getTime() - lastPurge >= FORGET_AFTER || gs.getTime() < lastPurge)
+        {
+            lastPurge = gs.getTime();
+            for (int i = count - 1; i >= 0; i--)
+            {
+                Path path = paths.get(i);
+                if (gs.getTime() - path.lastUsed >= FORGET_AFTER || gs.getTime() < path.lastUsed)
+                {
+                    forget(path.unit);
+                }
+            }
+        }
+    }
+
+    /** Drops every stored path, for a bot that is about to play from a different state. */
+    public void clear()
+    {
+        slots.clear();
+        count = 0;
+        lastState = null;
+        lastTime = -1;
+        lastPurge = 0;
+    }
+
+    private Path add(long unit)
+    {
+        if (count == paths.size())
+        {
+            paths.add(new Path());
+        }
+        Path path = paths.get(count);
+        path.unit = unit;
+        slots.put(unit, count);
+        count++;
+        return path;
+    }
+
+    /** Drops a unit's path, moving the last path into its slot. */
+    private void forget(long unit)
+    {
+        int slot = slots.get(unit, -1);
+        if (slot < 0)
+        {
+            return;
+        }
+        slots.remove(unit);
+        count--;
+        if (slot != count)
+        {
+            Path last = paths.get(count);
+            paths.set(count, paths.get(slot));
+            paths.set(slot, last);
+            slots.put(last.unit, slot);
+        }
+    }
+
+    public long getQueries()
+    {
+        return queries;
+    }
+
+    /** @return Queries answered from a stored path, which is also the number of searches saved */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getPlans()
+    {
+        return plans;
+    }
+
+    /** @return Plans made because a stored path for the same goal was blocked or the unit had left it */
+    public long getBlocked()
+    {
+        return blocked;
+    }
+
+    /** @return Fraction of queries answered from a stored path */
+    public double getHitRate()
+    {
+        return queries == 0 ? 0 : (double) hits / queries;
+    }
+
+    /** @return Paths planned per cycle the cache was used on, the searches that were not avoided */
+    public double getPlansPerTick()
+    {
+        return ticks == 0 ? 0 : (double) plans / ticks;
+    }
+
+    @Override
+    public String toString()
+    {
+        return queries + " path queries, " + String.format("%.1f", getHitRate() * 100) + "% reused (" + hits
+                + " replans avoided), " + plans + " plans of which " + blocked + " for a blocked path, "
+                + String.format("%.2f", getPlansPerTick()) + " plans per tick";
+    }
+}
@@ -0,0 +1,25 @@
+package bot;
+
+/** Variants of the bot's own behaviours, used as playout scripts by the lookahead search.
+ * Each one nudges a few of the choices WorkersForLife makes every tick; DEFAULT is the bot as it normally plays.
+ * @author HoaxShark
+ */
+public enum PlayoutScript
+{
+    DEFAULT(0, 0, -1), ///< The normal behaviours
+    RUSH(-100, 0, -1), ///< Every worker fights, nobody harvests
+    ECONOMY(1, 3, -1), ///< One more harvester and a bigger worker cap
+    RANGED(0, 0, 0), ///< The barracks only trains ranged units
+    LIGHT(0, 0, 1); ///< The barracks only trains light units
+
+    final int extraFreeWorkers; ///< Added to the number of free workers wanted
+    final int extraMaxWorkers; ///< Added to the most workers the base will train
+    final int barracksUnit; ///< -1 to alternate ranged and light, 0 for only ranged, 1 for only light
+
+    PlayoutScript(int extraFreeWorkers, int extraMaxWorkers, int barracksUnit)
+    {
+        this.extraFreeWorkers = extraFreeWorkers;
+        this.extraMaxWorkers = extraMaxWorkers;
+        this.barracksUnit = barracksUnit;
+    }
+}
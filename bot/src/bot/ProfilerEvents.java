@@ -0,0 +1,91 @@
+package bot;
+
+import java.util.Arrays;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** The JDK Flight Recorder events BotProfiler sends.
+ * Only ever loaded by name from BotProfiler, so a JVM without jdk.jfr never touches these classes and the build
+ * leaves this file out when jdk.jfr is missing; the profiler still works without it. Any running recording picks
+ * the events up; turn workersforlife.Behavior off in its .jfc settings to leave them out.
+ *
+ * Each timed section is one event, begun when the section starts and committed when it ends, so its start time
+ * and duration are the section's. Sections nest, so the open events are kept on a stack. Nothing is allocated
+ * unless a recording has the event enabled.
+ * @author HoaxShark
+ */
+final class ProfilerEvents implements BotProfiler.Events
+{
+    private static final EventType TYPE = EventType.getEventType(BehaviorEvent.class); ///< Checked before allocating
+
+    private BehaviorEvent[] open = new BehaviorEvent[16]; ///< Events of the sections started and not yet ended, null when not recorded
+    private int depth = 0; ///< Sections started and not yet ended
+
+    /** Loaded by name from BotProfiler. */
+    ProfilerEvents()
+    {
+    }
+
+    @Override
+    public void begin()
+    {
+        if (depth == open.length)
+        {
+            open = Arrays.copyOf(open, depth * 2);
+        }
+        BehaviorEvent event = null;
+        if (TYPE.isEnabled())
+        {
+            event = new BehaviorEvent();
+            event.begin();
+        }
+        open[depth++] = event;
+    }
+
+    @Override
+    public void end(String section, int cycle)
+    {
+        if (depth == 0)
+        {
+            return;
+        }
+        BehaviorEvent event = open[--depth];
+        open[depth] = null;
+        if (event == null)
+        {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.section = section;
+            event.cycle = cycle;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void reset()
+    {
+        Arrays.fill(open, 0, depth, null);
+        depth = 0;
+    }
+
+    @Name("workersforlife.Behavior")
+    @Label("WorkersForLife Behavior")
+    @Category("WorkersForLife")
+    @Description("One timed call of a part of the bot's tick")
+    static final class BehaviorEvent extends Event
+    {
+        @Label("Section")
+        String section;
+
+        @Label("Cycle")
+        int cycle;
+    }
+}
@@ -0,0 +1,201 @@
+package bot;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import ai.evaluation.EvaluationFunction;
+import ai.evaluation.SimpleSqrtEvaluationFunction3;
+import rts.GameState;
+
+/** Picks a playout script by simulating a short way ahead with each of them.
+ * A rollout clones the game state and plays it forward for a number of cycles, with our side run by a copy of
+ * the bot using one PlayoutScript and the other side by a copy using the default script, then scores the end
+ * state. Rollouts go round the scripts in turn on every thread of a ForkJoinPool until the time budget runs out,
+ * and the script with the best mean score wins. A rollout still running when the budget ends is thrown away.
+ * Each task keeps its own pair of playout bots across rollouts and searches, readied again before every rollout,
+ * so a rollout only pays for cloning the state and playing it. The pairs are made again when the map changes.
+ * Counts how many rollouts finished and how long was spent searching, so throughput can be reported.
+ * @author HoaxShark
+ */
+public class RolloutSearch
+{
+    private static final PlayoutScript[] SCRIPTS = PlayoutScript.values();
+
+    private final ForkJoinPool pool;
+    private final EvaluationFunction evaluation = new SimpleSqrtEvaluationFunction3();
+
+    private long searches = 0; ///< Calls to pick
+    private long rollouts = 0; ///< Rollouts that finished inside the budget
+    private long rolloutCycles = 0; ///< Game cycles simulated by those rollouts
+    private long searchNanos = 0; ///< Time spent in pick
+
+    private WorkersForLife[] players = new WorkersForLife[0]; ///< Our side and theirs for each task, at 2 * task and 2 * task + 1
+    private WorkersForLife playersOf = null; ///< The bot players were copied from
+    private MapAnalysis playersMap = null; ///< The map players were copied on, its tuned parameters may differ
+
+    /** Creates a search running on the common ForkJoinPool. */
+    public RolloutSearch()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /** @param pool The pool rollouts run on, one rollout loop is started per thread */
+    public RolloutSearch(ForkJoinPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /** Simulates each script from a state and picks the best.
+     * @param bot The bot to copy for the rollouts
+     * @param player The player the bot plays as
+     * @param gs The GameState to search from, only read
+     * @param budgetMillis How long to search for
+     * @param horizon How many cycles each rollout plays
+     * @param current The script to keep if no rollout finishes in time
+     * @return The script with the best mean score
+     */
+    public PlayoutScript pick(WorkersForLife bot, int player, GameState gs, long budgetMillis, int horizon, PlayoutScript current)
+    {
+        long start = System.nanoTime();
+        long deadline = start + budgetMillis * 1000000L;
+        DoubleAdder[] scores = new DoubleAdder[SCRIPTS.length];
+        LongAdder[] counts = new LongAdder[SCRIPTS.length];
+        for (int i = 0; i < SCRIPTS.length; i++)
+        {
+            scores[i] = new DoubleAdder();
+            counts[i] = new LongAdder();
+        }
+        LongAdder cycles = new LongAdder();
+        AtomicInteger next = new AtomicInteger();
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[pool.getParallelism()];
+        makePlayers(bot, tasks.length);
+        for (int t = 0; t < tasks.length; t++)
+        {
+            WorkersForLife us = players[2 * t];
+            WorkersForLife them = players[2 * t + 1];
+            tasks[t] = pool.submit(() -> {
+                while (System.nanoTime() < deadline)
+                {
+                    int script = next.getAndIncrement() % SCRIPTS.length;
+                    GameState g = gs.clone();
+                    int startTime = g.getTime();
+                    us.startPlayout(bot, SCRIPTS[script], true);
+                    them.startPlayout(bot, PlayoutScript.DEFAULT, false);
+                    if (playout(us, them, player, g, horizon, deadline))
+                    {
+                        scores[script].add(evaluation.evaluate(player, 1 - player, g));
+                        counts[script].increment();
+                        cycles.add(g.getTime() - startTime);
+                    }
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks)
+        {
+            task.join();
+        }
+
+        PlayoutScript best = current;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < SCRIPTS.length; i++)
+        {
+            long n = counts[i].sum();
+            rollouts += n;
+            if (n > 0 && scores[i].sum() / n > bestScore)
+            {
+                bestScore = scores[i].sum() / n;
+                best = SCRIPTS[i];
+            }
+        }
+        rolloutCycles += cycles.sum();
+        searchNanos += System.nanoTime() - start;
+        searches++;
+        return best;
+    }
+
+    /** Makes the playout bots for each task, unless the ones from the last search still fit.
+     * @param bot The bot to copy
+     * @param ntasks Tasks the search runs
+     */
+    private void makePlayers(WorkersForLife bot, int ntasks)
+    {
+        if (players.length == 2 * ntasks && playersOf == bot && playersMap == bot.getAnalysis())
+        {
+            return;
+        }
+        players = new WorkersForLife[2 * ntasks];
+        for (int i = 0; i < players.length; i++)
+        {
+            players[i] = bot.playoutCopy(PlayoutScript.DEFAULT);
+        }
+        playersOf = bot;
+        playersMap = bot.getAnalysis();
+    }
+
+    /** Plays a state forward in place.
+     * @param us Plays our side, readied for this rollout
+     * @param them Plays the other side, readied for this rollout
+     * @return True if the rollout reached the horizon or the end of the game before the deadline
+     */
+    private static boolean playout(WorkersForLife us, WorkersForLife them, int player, GameState g, int horizon, long deadline)
+    {
+        int end = g.getTime() + horizon;
+        boolean gameover = false;
+        while (!gameover && g.getTime() < end)
+        {
+            if (System.nanoTime() >= deadline)
+            {
+                return false;
+            }
+            g.issueSafe(us.getAction(player, g));
+            g.issueSafe(them.getAction(1 - player, g));
+            gameover = g.cycle();
+        }
+        return true;
+    }
+
+    public long getSearches()
+    {
+        return searches;
+    }
+
+    public long getRollouts()
+    {
+        return rollouts;
+    }
+
+    public long getRolloutCycles()
+    {
+        return rolloutCycles;
+    }
+
+    public long getSearchNanos()
+    {
+        return searchNanos;
+    }
+
+    /** @return Rollouts finished per second of search */
+    public double getRolloutsPerSecond()
+    {
+        return searchNanos == 0 ? 0 : rollouts * 1e9 / searchNanos;
+    }
+
+    /** @return Threads rollouts run on */
+    public int getParallelism()
+    {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "searches " + searches + ", rollouts " + rollouts
+                + String.format(", %.1f rollouts/s, %.0f cycles/s", getRolloutsPerSecond(),
+                        searchNanos == 0 ? 0 : rolloutCycles * 1e9 / searchNanos)
+                + " on " + getParallelism() + " threads";
+    }
+}
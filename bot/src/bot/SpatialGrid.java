@@ -0,0 +1,249 @@
+package bot;
+
+import java.util.Arrays;
+
+import rts.units.Unit;
+
+/** A uniform bucket grid over the map for nearest-unit queries.
+ * Rebuilt once per tick from the UnitIndex, it keeps one layer per kind of unit we search for
+ * (enemy units, enemy bases, our stockpiles and resource piles). A query walks outwards from the
+ * bucket under the given cell in square rings and stops as soon as no unvisited bucket can hold
+ * anything closer than the best unit found, so it only touches the buckets around the answer.
+ * Distances are Manhattan, and ties go to the unit that comes first in the UnitIndex buffer, which is
+ * the same answer a linear scan with a strict "closer than" check gives.
+ * @author HoaxShark
+ */
+public class SpatialGrid
+{
+    public static final int ENEMY = 0; ///< Enemy units that are not bases
+    public static final int ENEMY_BASE = 1; ///< Enemy bases
+    public static final int STOCKPILE = 2; ///< Our units that resources can be returned to
+    public static final int RESOURCE = 3; ///< Resource piles
+    private static final int LAYERS = 4;
+
+    private static final int CELL_SIZE = 4; ///< Width and height of a bucket in map cells
+
+    private int cols = 0; ///< Number of bucket columns
+    private int rows = 0; ///< Number of bucket rows
+
+    private final Layer[] layers = new Layer[LAYERS];
+
+    public SpatialGrid()
+    {
+        for (int i = 0; i < LAYERS; i++)
+        {
+            layers[i] = new Layer();
+        }
+    }
+
+    /** Rebuilds every layer from this tick's UnitIndex.
+     * @param units This tick's UnitIndex
+     * @param width Width of the map
+     * @param height Height of the map
+     */
+    public void build(UnitIndex units, int width, int height)
+    {
+        cols = (width + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        layers[ENEMY].build(units.getEnemyCombatants(), cols, rows);
+        layers[ENEMY_BASE].build(units.getEnemyBases(), cols, rows);
+        layers[STOCKPILE].build(units.getStockpiles(), cols, rows);
+        layers[RESOURCE].build(units.getResources(), cols, rows);
+    }
+
+    /** Finds the closest unit of a layer to a cell.
+     * @param layer One of ENEMY, ENEMY_BASE, STOCKPILE or RESOURCE
+     * @param x X position to search from
+     * @param y Y position to search from
+     * @return The closest unit, the earliest in unit order on a tie, or null if the layer is empty
+     */
+    public Unit closest(int layer, int x, int y)
+    {
+        Layer l = layers[layer];
+        if (l.count == 0)
+        {
+            return null;
+        }
+        int cx = Math.min(Math.max(x / CELL_SIZE, 0), cols - 1);
+        int cy = Math.min(Math.max(y / CELL_SIZE, 0), rows - 1);
+        int maxRing = Math.max(Math.max(cx, cols - 1 - cx), Math.max(cy, rows - 1 - cy));
+        int bestDistance = Integer.MAX_VALUE;
+        int bestItem = Integer.MAX_VALUE;
+        for (int r = 0; r <= maxRing; r++)
+        {
+            /// Every cell in ring r is at least this far away, stop once that can't beat or tie the best
+            if (r > 0 && (r - 1) * CELL_SIZE + 1 > bestDistance)
+            {
+                break;
+            }
+            for (int by = cy - r; by <= cy + r; by++)
+            {
+                if (by < 0 || by >= rows)
+                {
+                    continue;
+                }
+                /// The top and bottom rows of the ring are walked fully, the others only at their two ends
+                int step = (by == cy - r || by == cy + r) ? 1 : Math.max(2 * r, 1);
+                for (int bx = cx - r; bx <= cx + r; bx += step)
+                {
+                    if (bx < 0 || bx >= cols)
+                    {
+                        continue;
+                    }
+                    int bucket = bx + by * cols;
+                    for (int i = l.start[bucket]; i < l.start[bucket + 1]; i++)
+                    {
+                        int d = Math.abs(l.itemX[i] - x) + Math.abs(l.itemY[i] - y);
+                        int item = l.items[i];
+                        if (d < bestDistance || (d == bestDistance && item < bestItem))
+                        {
+                            bestDistance = d;
+                            bestItem = item;
+                        }
+                    }
+                }
+            }
+        }
+        return l.source.get(bestItem);
+    }
+
+    /** Finds the k closest units of a layer to a cell.
+     * Works like closest() but keeps the best k found so far, and only stops once no unvisited bucket can
+     * hold anything closer than the k-th of them.
+     * @param layer One of ENEMY, ENEMY_BASE, STOCKPILE or RESOURCE
+     * @param x X position to search from
+     * @param y Y position to search from
+     * @param k How many units to find, the out arrays need room for k entries from offset
+     * @param outItems Filled in with the index of each unit in the layer's UnitIndex buffer, closest first
+     * @param outDistances Filled in with the distance to each unit
+     * @param offset Where in the out arrays to start writing
+     * @return How many units were found, less than k if the layer has fewer units
+     */
+    public int nearest(int layer, int x, int y, int k, int[] outItems, int[] outDistances, int offset)
+    {
+        Layer l = layers[layer];
+        if (l.count == 0 || k <= 0)
+        {
+            return 0;
+        }
+        int cx = Math.min(Math.max(x / CELL_SIZE, 0), cols - 1);
+        int cy = Math.min(Math.max(y / CELL_SIZE, 0), rows - 1);
+        int maxRing = Math.max(Math.max(cx, cols - 1 - cx), Math.max(cy, rows - 1 - cy));
+        int found = 0;
+        for (int r = 0; r <= maxRing; r++)
+        {
+            if (r > 0 && found == k && (r - 1) * CELL_SIZE + 1 > outDistances[offset + k - 1])
+            {
+                break;
+            }
+            for (int by = cy - r; by <= cy + r; by++)
+            {
+                if (by < 0 || by >= rows)
+                {
+                    continue;
+                }
+                int step = (by == cy - r || by == cy + r) ? 1 : Math.max(2 * r, 1);
+                for (int bx = cx - r; bx <= cx + r; bx += step)
+                {
+                    if (bx < 0 || bx >= cols)
+                    {
+                        continue;
+                    }
+                    int bucket = bx + by * cols;
+                    for (int i = l.start[bucket]; i < l.start[bucket + 1]; i++)
+                    {
+                        int d = Math.abs(l.itemX[i] - x) + Math.abs(l.itemY[i] - y);
+                        int item = l.items[i];
+                        /// Insertion sort into the best k, ordered by distance then unit order
+                        int at = found;
+                        while (at > 0 && (d < outDistances[offset + at - 1] || (d == outDistances[offset + at - 1] && item < outItems[offset + at - 1])))
+                        {
+                            at--;
+                        }
+                        if (at >= k)
+                        {
+                            continue;
+                        }
+                        int last = Math.min(found, k - 1);
+                        for (int j = last; j > at; j--)
+                        {
+                            outItems[offset + j] = outItems[offset + j - 1];
+                            outDistances[offset + j] = outDistances[offset + j - 1];
+                        }
+                        outItems[offset + at] = item;
+                        outDistances[offset + at] = d;
+                        if (found < k)
+                        {
+                            found++;
+                        }
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /** One kind of unit, stored bucket by bucket.
+     * Items are laid out contiguously per bucket (start[b] to start[b+1]) and keep their unit order inside a bucket.
+     */
+    private static class Layer
+    {
+        UnitBuffer source; ///< The UnitIndex buffer this layer was built from
+        int count = 0;
+        int[] start = new int[1]; ///< Offset of each bucket's first item, with one extra entry at the end
+        int[] items = new int[0]; ///< Index of each item in the source buffer
+        int[] itemX = new int[0];
+        int[] itemY = new int[0];
+
+        void build(UnitBuffer units, int cols, int rows)
+        {
+            source = units;
+            count = units.size();
+            int buckets = cols * rows;
+            if (start.length < buckets + 1)
+            {
+                start = new int[buckets + 1];
+            }
+            if (items.length < count)
+            {
+                int size = Math.max(count, items.length * 2);
+                items = new int[size];
+                itemX = new int[size];
+                itemY = new int[size];
+            }
+            /// Count the units in each bucket
+            Arrays.fill(start, 0, buckets + 1, 0);
+            for (int i = 0; i < count; i++)
+            {
+                Unit u = units.get(i);
+                start[bucketOf(u, cols, rows) + 1]++;
+            }
+            for (int b = 0; b < buckets; b++)
+            {
+                start[b + 1] += start[b];
+            }
+            /// Fill each bucket from its end walking the units backwards, so every bucket keeps unit order
+            for (int i = count - 1; i >= 0; i--)
+            {
+                Unit u = units.get(i);
+                int slot = --start[bucketOf(u, cols, rows) + 1];
+                items[slot] = i;
+                itemX[slot] = u.getX();
+                itemY[slot] = u.getY();
+            }
+            /// start[b + 1] now points at the beginning of bucket b, shift everything down one place
+            for (int b = 0; b < buckets; b++)
+            {
+                start[b] = start[b + 1];
+            }
+            start[buckets] = count;
+        }
+
+        private static int bucketOf(Unit u, int cols, int rows)
+        {
+            int bx = Math.min(u.getX() / CELL_SIZE, cols - 1);
+            int by = Math.min(u.getY() / CELL_SIZE, rows - 1);
+            return bx + by * cols;
+        }
+    }
+}
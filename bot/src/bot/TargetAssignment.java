@@ -0,0 +1,174 @@
+package bot;
+
+import rts.units.Unit;
+
+/** Picks a target for every one of our attackers at once, instead of each unit taking the enemy closest to it.
+ * Each attacker looks at its few closest enemies. All (attacker, enemy) pairs go through one priority queue
+ * ordered by how far the attacker has to walk before it is in range, then by the enemy's hit points. Pairs are
+ * taken in that order, and an enemy stops taking attackers once enough damage is heading its way to kill it,
+ * so nearby units focus the weakest enemy in reach and the rest spread onto the next one rather than
+ * overkilling. An attacker whose closest enemies are all covered goes for its closest one anyway.
+ * Given a ThreatMap, the damage an enemy's friends can land on its cell counts as extra steps, so attackers pick
+ * off enemies their friends can't cover before walking into the middle of a group. The enemy's own damage is left
+ * out, as every enemy covers its own cell and it would only make strong units look better covered.
+ * Targets from the last tick are kept, as long as the target is still alive and not much further away than
+ * the attacker's closest enemy, so units don't swap targets back and forth.
+ * Everything is done in preallocated arrays, about O(n log n) in the number of attackers per tick.
+ * @author HoaxShark
+ */
+public class TargetAssignment
+{
+    private static final int CANDIDATES = 4; ///< Closest enemies each attacker considers
+    private static final int STICKY_SLACK = 2; ///< How much further than the closest enemy a kept target may be
+    private static final int DANGER_STEPS = 2; ///< Extra steps an enemy costs for each point of damage its friends can land on it
+
+    private final LongIntMap enemyOf = new LongIntMap(); ///< Attacker ID to its target's index in the enemy buffer
+    private final LongIntMap enemyIndex = new LongIntMap(); ///< Enemy ID to its index in the enemy buffer
+    private UnitBuffer enemies = null; ///< The enemy buffer targets were picked from
+
+    private int[] committed = new int[16]; ///< Damage already heading to each enemy
+    private int[] candidates = new int[16 * CANDIDATES]; ///< Closest enemies of each attacker
+    private int[] candidateDistances = new int[16 * CANDIDATES];
+    private int[] candidateCounts = new int[16];
+    private final LongHeap heap = new LongHeap(); ///< (attacker, enemy) pairs still to look at
+    private ThreatMap threat = null; ///< Danger around each enemy for the current assign, null to ignore it
+
+    /** Forgets the last assignment, targetOf answers null until the next call to assign. */
+    public void clear()
+    {
+        enemyOf.clear();
+        enemies = null;
+    }
+
+    /** Gives every attacker a target.
+     * @param attackers The units to give targets to
+     * @param enemies The enemies that can be targeted, the ENEMY layer of grid
+     * @param grid This tick's SpatialGrid
+     * @param roster Our units' targets from earlier ticks, updated with the new ones
+     * @param threat This tick's ThreatMap, or null to ignore how well enemies are covered
+     */
+    public void assign(UnitBuffer attackers, UnitBuffer enemies, SpatialGrid grid, UnitRoster roster, ThreatMap threat)
+    {
+        clear();
+        this.threat = threat;
+        if (attackers.isEmpty() || enemies.isEmpty())
+        {
+            return;
+        }
+        this.enemies = enemies;
+        int nattackers = attackers.size();
+        int nenemies = enemies.size();
+        if (committed.length < nenemies)
+        {
+            committed = new int[Math.max(nenemies, committed.length * 2)];
+        }
+        if (candidateCounts.length < nattackers)
+        {
+            int size = Math.max(nattackers, candidateCounts.length * 2);
+            candidateCounts = new int[size];
+            candidates = new int[size * CANDIDATES];
+            candidateDistances = new int[size * CANDIDATES];
+        }
+        enemyIndex.clear();
+        for (int e = 0; e < nenemies; e++)
+        {
+            committed[e] = 0;
+            enemyIndex.put(enemies.get(e).getID(), e);
+        }
+
+        heap.clear();
+        for (int a = 0; a < nattackers; a++)
+        {
+            Unit u = attackers.get(a);
+            int base = a * CANDIDATES;
+            int count = grid.nearest(SpatialGrid.ENEMY, u.getX(), u.getY(), CANDIDATES, candidates, candidateDistances, base);
+            candidateCounts[a] = count;
+            if (count == 0)
+            {
+                continue;
+            }
+            /// Keep last tick's target if it is alive and still about as close as anything else
+            int kept = enemyIndex.get(roster.getTarget(u), -1);
+            if (kept >= 0)
+            {
+                Unit target = enemies.get(kept);
+                int d = Math.abs(target.getX() - u.getX()) + Math.abs(target.getY() - u.getY());
+                if (walk(u, d) <= walk(u, candidateDistances[base]) + STICKY_SLACK)
+                {
+                    give(u, kept);
+                    continue;
+                }
+            }
+            heap.push(key(u, a, 0));
+        }
+
+        while (!heap.isEmpty())
+        {
+            long top = heap.pop();
+            int a = (int) ((top >>> 16) & 0xffff);
+            int c = (int) (top & 0xffff);
+            Unit u = attackers.get(a);
+            int target = candidates[a * CANDIDATES + c];
+            if (committed[target] < enemies.get(target).getHitPoints())
+            {
+                give(u, target);
+            }
+            else if (c + 1 < candidateCounts[a])
+            {
+                heap.push(key(u, a, c + 1));
+            }
+            else
+            {
+                /// Everything close is already covered, pile onto the closest
+                give(u, candidates[a * CANDIDATES]);
+            }
+        }
+
+        for (int a = 0; a < nattackers; a++)
+        {
+            Unit u = attackers.get(a);
+            int target = enemyOf.get(u.getID(), -1);
+            if (target >= 0)
+            {
+                roster.setTarget(u, enemies.get(target).getID());
+            }
+        }
+    }
+
+    /** Gets the target picked for a unit on the last call to assign.
+     * @param attacker Our unit
+     * @return Its target, or null if it was not given one
+     */
+    public Unit targetOf(Unit attacker)
+    {
+        if (enemies == null)
+        {
+            return null;
+        }
+        int target = enemyOf.get(attacker.getID(), -1);
+        return (target < 0) ? null : enemies.get(target);
+    }
+
+    private void give(Unit attacker, int target)
+    {
+        enemyOf.put(attacker.getID(), target);
+        committed[target] += (attacker.getMinAttackDamage() + attacker.getMaxAttackDamage() + 1) / 2;
+    }
+
+    /** Steps a unit has to take before a target this far away is in range. */
+    private static int walk(Unit u, int distance)
+    {
+        return Math.max(0, distance - u.getAttackRange());
+    }
+
+    /** Packs a pair into a heap key: steps to get in range plus danger, then the target's hit points, then attacker and candidate. */
+    private long key(Unit u, int attacker, int candidate)
+    {
+        int slot = attacker * CANDIDATES + candidate;
+        Unit enemy = enemies.get(candidates[slot]);
+        long danger = (threat == null) ? 0 : (long) (threat.getDangerFromOthers(enemy) * DANGER_STEPS);
+        long steps = Math.min(walk(u, candidateDistances[slot]) + danger, 0x7fff);
+        long hp = Math.min(enemy.getHitPoints(), 0xffff);
+        return (steps << 48) | (hp << 32) | ((long) attacker << 16) | candidate;
+    }
+}
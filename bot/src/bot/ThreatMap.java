@@ -0,0 +1,257 @@
+package bot;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/** How much enemy damage can land on each cell of the map, kept up to date as enemies move.
+ * Every enemy that can attack splats its mean damage, from its UnitType, onto the cells within its attack range,
+ * and half of it onto the ring one step further out that it can hit after a single move. The map keeps a record
+ * of where each enemy splatted last, so a tick only takes the splats of enemies that moved, died or appeared
+ * back off and puts the new ones on; enemies standing still cost one look up. Splat values are multiples of a
+ * quarter, which a float holds exactly, so adding and taking them away over a whole game never drifts.
+ *
+ * Danger at a cell is an array look up, so it can be asked as often as needed, from any thread, once the tick's
+ * update is done.
+ * @author HoaxShark
+ */
+public class ThreatMap
+{
+    private int width = 0;
+    private int height = 0;
+    private float[] danger = new float[0]; ///< Enemy damage that can land on each cell, by x + y * width
+    private int[][] stencils = new int[0][]; ///< Cells of each attack range's splat, as packed dx, dy and weight
+
+    private final LongIntMap slots = new LongIntMap(); ///< Index of each enemy's record, by unit ID
+    private long[] ids = new long[16]; ///< Enemy each record is for
+    private int[] cells = new int[16]; ///< Cell each enemy splatted from
+    private UnitType[] types = new UnitType[16]; ///< Type each enemy splatted as
+    private int[] seen = new int[16]; ///< Update stamp of the last update that saw each enemy
+    private int count = 0; ///< Records in use
+    private int stamp = 0;
+
+    private GameState lastState = null; ///< The state last updated from
+    private int lastTime = -1; ///< The cycle last updated on
+    private long splats = 0; ///< Splats put on or taken off so far
+
+    /** Brings the map up to date with the enemies of this tick.
+     * Only enemies whose cell or type changed since the last update, and ones that are gone, are splatted again.
+     * @param gs The GameState
+     * @param enemies Every enemy unit that is not a base, the ones that can't attack are skipped
+     */
+    public void update(GameState gs, UnitBuffer enemies)
+    {
+        if (gs == lastState && gs.getTime() == lastTime)
+        {
+            return;
+        }
+        lastState = gs;
+        lastTime = gs.getTime();
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        if (pgs.getWidth() != width || pgs.getHeight() != height)
+        {
+            width = pgs.getWidth();
+            height = pgs.getHeight();
+            danger = new float[width * height];
+            slots.clear();
+            count = 0;
+        }
+        stamp++;
+        for (int i = 0; i < enemies.size(); i++)
+        {
+            Unit u = enemies.get(i);
+            UnitType type = u.getType();
+            if (!type.canAttack)
+            {
+                continue;
+            }
+            int cell = u.getX() + u.getY() * width;
+            int slot = slots.get(u.getID(), -1);
+            if (slot < 0)
+            {
+                slot = add(u.getID());
+            }
+            else if (cells[slot] != cell || types[slot] != type)
+            {
+                splat(cells[slot], types[slot], -1);
+            }
+            else
+            {
+                seen[slot] = stamp;
+                continue;
+            }
+            cells[slot] = cell;
+            types[slot] = type;
+            seen[slot] = stamp;
+            splat(cell, type, 1);
+        }
+        /// Anything not seen this tick has died, take its splat away
+        for (int slot = count - 1; slot >= 0; slot--)
+        {
+            if (seen[slot] != stamp)
+            {
+                splat(cells[slot], types[slot], -1);
+                remove(slot);
+            }
+        }
+    }
+
+    /** Adds or takes away one enemy's splat. */
+    private void splat(int cell, UnitType type, int sign)
+    {
+        splats++;
+        int[] stencil = stencil(type.attackRange);
+        /// The mean damage is a whole number of halves, so the half weight ring is a whole number of quarters
+        float full = sign * (type.minDamage + type.maxDamage) * 0.5f;
+        int x = cell % width;
+        int y = cell / width;
+        for (int packed : stencil)
+        {
+            int nx = x + (byte) (packed >> 16);
+            int ny = y + (byte) (packed >> 8);
+            if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+            {
+                continue;
+            }
+            danger[nx + ny * width] += ((packed & 0xff) == 2) ? full : full * 0.5f;
+        }
+    }
+
+    /** Gets the splat for an attack range: weight 2 for cells in range, 1 for the ring a move further out.
+     * Range uses the same squared distance as the path finding.
+     */
+    private int[] stencil(int range)
+    {
+        if (range >= stencils.length)
+        {
+            int[][] grown = new int[range + 1][];
+            System.arraycopy(stencils, 0, grown, 0, stencils.length);
+            stencils = grown;
+        }
+        if (stencils[range] == null)
+        {
+            int reach = range + 1;
+            int n = 0;
+            int[] offsets = new int[(2 * reach + 1) * (2 * reach + 1)];
+            for (int dy = -reach; dy <= reach; dy++)
+            {
+                for (int dx = -reach; dx <= reach; dx++)
+                {
+                    int weight = 0;
+                    if (dx * dx + dy * dy <= range * range)
+                    {
+                        weight = 2;
+                    }
+                    else if (inRangeAfterMove(dx, dy, range))
+                    {
+                        weight = 1;
+                    }
+                    if (weight > 0)
+                    {
+                        offsets[n++] = ((dx & 0xff) << 16) | ((dy & 0xff) << 8) | weight;
+                    }
+                }
+            }
+            int[] stencil = new int[n];
+            System.arraycopy(offsets, 0, stencil, 0, n);
+            stencils[range] = stencil;
+        }
+        return stencils[range];
+    }
+
+    /** @return If one move from an offset brings it within range */
+    private static boolean inRangeAfterMove(int dx, int dy, int range)
+    {
+        for (int dir = 0; dir < 4; dir++)
+        {
+            int mx = dx + UnitAction.DIRECTION_OFFSET_X[dir];
+            int my = dy + UnitAction.DIRECTION_OFFSET_Y[dir];
+            if (mx * mx + my * my <= range * range)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int add(long id)
+    {
+        if (count == ids.length)
+        {
+            int size = count * 2;
+            long[] grownIds = new long[size];
+            System.arraycopy(ids, 0, grownIds, 0, count);
+            ids = grownIds;
+            int[] grownCells = new int[size];
+            System.arraycopy(cells, 0, grownCells, 0, count);
+            cells = grownCells;
+            UnitType[] grownTypes = new UnitType[size];
+            System.arraycopy(types, 0, grownTypes, 0, count);
+            types = grownTypes;
+            int[] grownSeen = new int[size];
+            System.arraycopy(seen, 0, grownSeen, 0, count);
+            seen = grownSeen;
+        }
+        ids[count] = id;
+        slots.put(id, count);
+        return count++;
+    }
+
+    /** Drops a record, moving the last record into its slot. */
+    private void remove(int slot)
+    {
+        slots.remove(ids[slot]);
+        count--;
+        if (slot != count)
+        {
+            ids[slot] = ids[count];
+            cells[slot] = cells[count];
+            types[slot] = types[count];
+            seen[slot] = seen[count];
+            slots.put(ids[slot], slot);
+        }
+        types[count] = null;
+    }
+
+    /*================Queries==============*/
+
+    /** @return Enemy damage that can land on a cell this tick or after one enemy move, 0 if it is safe */
+    public float getDanger(int cell)
+    {
+        return (cell < danger.length) ? danger[cell] : 0;
+    }
+
+    /** @return Enemy damage that can land on a cell this tick or after one enemy move, 0 if it is safe */
+    public float getDanger(int x, int y)
+    {
+        return getDanger(x + y * width);
+    }
+
+    /** @return Damage the other enemies can land on an enemy's cell, leaving out the enemy's own splat */
+    public float getDangerFromOthers(Unit enemy)
+    {
+        int cell = enemy.getX() + enemy.getY() * width;
+        float total = getDanger(cell);
+        int slot = slots.get(enemy.getID(), -1);
+        if (slot >= 0 && cells[slot] == cell)
+        {
+            /// A unit's own cell is always in range of it, so its splat there has full weight
+            total -= (types[slot].minDamage + types[slot].maxDamage) * 0.5f;
+        }
+        return total;
+    }
+
+    /** @return Enemies on the map as of the last update */
+    public int getEnemies()
+    {
+        return count;
+    }
+
+    /** @return Splats put on or taken off so far, twice the moves plus the arrivals and deaths */
+    public long getSplats()
+    {
+        return splats;
+    }
+}
@@ -0,0 +1,79 @@
+package bot;
+
+import rts.units.Unit;
+
+/** A reusable, growable array of units.
+ * Used for every per-tick unit list so the decision path doesn't allocate once the buffers have grown to
+ * the size of the game: clear() keeps the backing array, and nothing here boxes or creates iterators.
+ * @author HoaxShark
+ */
+public class UnitBuffer
+{
+    private Unit[] items;
+    private int size = 0;
+
+    public UnitBuffer()
+    {
+        this(16);
+    }
+
+    /** @param capacity How many units to make room for up front */
+    public UnitBuffer(int capacity)
+    {
+        items = new Unit[Math.max(capacity, 1)];
+    }
+
+    public void add(Unit u)
+    {
+        if (size == items.length)
+        {
+            Unit[] bigger = new Unit[items.length * 2];
+            System.arraycopy(items, 0, bigger, 0, size);
+            items = bigger;
+        }
+        items[size++] = u;
+    }
+
+    /** Adds the units of another buffer from an index onwards.
+     * @param other The buffer to copy from
+     * @param from Index of the first unit to copy
+     */
+    public void addFrom(UnitBuffer other, int from)
+    {
+        for (int i = from; i < other.size; i++)
+        {
+            add(other.items[i]);
+        }
+    }
+
+    public Unit get(int i)
+    {
+        return items[i];
+    }
+
+    /** @return The last unit added, or null if the buffer is empty */
+    public Unit last()
+    {
+        return size == 0 ? null : items[size - 1];
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /** Empties the buffer, dropping the references but keeping the backing array. */
+    public void clear()
+    {
+        for (int i = 0; i < size; i++)
+        {
+            items[i] = null;
+        }
+        size = 0;
+    }
+}
@@ -0,0 +1,184 @@
+package bot;
+
+import rts.PhysicalGameState;
+import rts.units.Unit;
+import rts.units.UnitType;
+
+/** A per-tick index of the units on the map.
+ * Built in a single pass over the PhysicalGameState at the start of each tick, it buckets units by owner
+ * and by UnitType so the behaviours can read the lists they need without scanning the map again.
+ * Buffers keep the order the units appear in the PhysicalGameState, so anything that picks "the first" or
+ * "the last" unit gives the same answer as a scan of pgs.getUnits() would.
+ * @author HoaxShark
+ */
+public class UnitIndex
+{
+    private final UnitType baseType;
+    private final UnitType rangedType;
+    private final UnitType lightType;
+    private final UnitType barracksType;
+
+    private final UnitBuffer workers = new UnitBuffer(); ///< Our units that can harvest
+    private final UnitBuffer ranged = new UnitBuffer(); ///< Our ranged units
+    private final UnitBuffer light = new UnitBuffer(); ///< Our light units
+    private final UnitBuffer bases = new UnitBuffer(); ///< Our bases
+    private final UnitBuffer barracks = new UnitBuffer(); ///< Our barracks
+    private final UnitBuffer stockpiles = new UnitBuffer(); ///< Our units that resources can be returned to
+    private final UnitBuffer resources = new UnitBuffer(); ///< Resource piles on the map
+    private final UnitBuffer enemyCombatants = new UnitBuffer(); ///< Enemy units that are not bases
+    private final UnitBuffer enemyBases = new UnitBuffer(); ///< Enemy bases
+
+    private Unit base = null; ///< Our base, the last stockpile or base found
+    private Unit ourBarracks = null; ///< Our barracks, the last one found
+    private int player = -1; ///< The player this index was built for
+
+    public UnitIndex(UnitType baseType, UnitType rangedType, UnitType lightType, UnitType barracksType)
+    {
+        this.baseType = baseType;
+        this.rangedType = rangedType;
+        this.lightType = lightType;
+        this.barracksType = barracksType;
+    }
+
+    /** Rebuilds the index for this tick.
+     * Clears every bucket and fills them again from one pass over pgs.getUnits().
+     * @param player The player we are playing as
+     * @param pgs The PhysicalGameState
+     */
+    public void build(int player, PhysicalGameState pgs)
+    {
+        clear();
+        this.player = player;
+        /// pgs.getUnits() may be a linked list, so walk it with its iterator rather than by index
+        for (Unit u : pgs.getUnits())
+        {
+            UnitType type = u.getType();
+            int owner = u.getPlayer();
+            /// Resource piles belong to nobody
+            if (type.isResource)
+            {
+                resources.add(u);
+            }
+            if (owner == player)
+            {
+                if (type.canHarvest)
+                {
+                    workers.add(u);
+                }
+                if (type.isStockpile)
+                {
+                    stockpiles.add(u);
+                    base = u;
+                }
+                if (type == rangedType)
+                {
+                    ranged.add(u);
+                }
+                if (type == lightType)
+                {
+                    light.add(u);
+                }
+                if (type == barracksType)
+                {
+                    barracks.add(u);
+                    ourBarracks = u;
+                }
+                if (type == baseType)
+                {
+                    bases.add(u);
+                    base = u;
+                }
+            }
+            else if (owner >= 0)
+            {
+                if (type == baseType)
+                {
+                    enemyBases.add(u);
+                }
+                else
+                {
+                    enemyCombatants.add(u);
+                }
+            }
+        }
+    }
+
+    /** Empties every bucket, keeping the buffers so they can be reused next tick. */
+    public void clear()
+    {
+        workers.clear();
+        ranged.clear();
+        light.clear();
+        bases.clear();
+        barracks.clear();
+        stockpiles.clear();
+        resources.clear();
+        enemyCombatants.clear();
+        enemyBases.clear();
+        base = null;
+        ourBarracks = null;
+        player = -1;
+    }
+
+    public int getPlayer()
+    {
+        return player;
+    }
+
+    public UnitBuffer getWorkers()
+    {
+        return workers;
+    }
+
+    public UnitBuffer getRanged()
+    {
+        return ranged;
+    }
+
+    public UnitBuffer getLight()
+    {
+        return light;
+    }
+
+    public UnitBuffer getBases()
+    {
+        return bases;
+    }
+
+    public UnitBuffer getBarracks()
+    {
+        return barracks;
+    }
+
+    public UnitBuffer getStockpiles()
+    {
+        return stockpiles;
+    }
+
+    public UnitBuffer getResources()
+    {
+        return resources;
+    }
+
+    public UnitBuffer getEnemyCombatants()
+    {
+        return enemyCombatants;
+    }
+
+    public UnitBuffer getEnemyBases()
+    {
+        return enemyBases;
+    }
+
+    /** @return Our base, the last of our stockpiles or bases in unit order, or null if we have none */
+    public Unit getBase()
+    {
+        return base;
+    }
+
+    /** @return Our barracks, the last one in unit order, or null if we have none */
+    public Unit getOurBarracks()
+    {
+        return ourBarracks;
+    }
+}
@@ -0,0 +1,202 @@
+package bot;
+
+import java.util.Arrays;
+
+import rts.units.Unit;
+
+/** Our units as they carry over from tick to tick.
+ * Each of our mobile units gets a slot, found by unit ID through a LongIntMap, that keeps its role and the ID of
+ * the unit it was last told to attack. update() walks this tick's units and records what changed since the last
+ * tick: units that spawned, units that moved, and units that are gone. A unit that changes owner is no longer
+ * in our buffers, so it drops out the same way a dead one does.
+ * Roles are only changed by whoever owns the roster, so a unit keeps its job until something decides otherwise.
+ * @author HoaxShark
+ */
+public class UnitRoster
+{
+    public static final int ROLE_NONE = 0; ///< Not given a role yet
+    public static final int ROLE_FREE_WORKER = 1; ///< Worker used for harvesting and building
+    public static final int ROLE_BATTLE_WORKER = 2; ///< Worker sent to fight
+    public static final int ROLE_STACKED_WORKER = 3; ///< Battle worker kept out of the way
+    public static final int ROLE_ACTIVE_RANGED = 4; ///< Ranged unit fighting
+    public static final int ROLE_STACKED_RANGED = 5; ///< Ranged unit moved out of the way of the barracks
+    public static final int ROLE_ARMY = 6; ///< Any other battle unit
+
+    public static final long NO_TARGET = -1;
+
+    private final LongIntMap slotOf = new LongIntMap(); ///< Unit ID to slot
+    private long[] ids = new long[16];
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private int[] roles = new int[16];
+    private long[] targets = new long[16]; ///< ID of the unit each unit was last sent to attack
+    private int[] seen = new int[16]; ///< Update stamp each slot was last seen on, 0 for an empty slot
+    private int[] freeSlots = new int[16]; ///< Stack of empty slots below slotCount
+    private int freeCount = 0;
+    private int slotCount = 0; ///< Slots handed out so far, used or empty
+
+    private int stamp = 0; ///< Counts calls to update
+    private int spawned = 0; ///< Units that joined on the last update
+    private int moved = 0; ///< Units whose position changed on the last update
+    private int removed = 0; ///< Units that died or changed owner on the last update
+
+    /** Brings the roster up to date with this tick's units.
+     * @param units This tick's UnitIndex, our workers, ranged and light units are tracked
+     */
+    public void update(UnitIndex units)
+    {
+        stamp++;
+        spawned = 0;
+        moved = 0;
+        removed = 0;
+        int present = track(units.getWorkers()) + track(units.getRanged()) + track(units.getLight());
+        /// Only sweep for missing units when something is actually missing
+        if (present < slotOf.size())
+        {
+            for (int slot = 0; slot < slotCount; slot++)
+            {
+                if (seen[slot] != 0 && seen[slot] != stamp)
+                {
+                    release(slot);
+                }
+            }
+        }
+    }
+
+    /** Records a buffer of units and returns how many it held. */
+    private int track(UnitBuffer buffer)
+    {
+        for (int i = 0; i < buffer.size(); i++)
+        {
+            Unit u = buffer.get(i);
+            int slot = slotOf.get(u.getID(), -1);
+            if (slot < 0)
+            {
+                slot = claim(u);
+                spawned++;
+            }
+            else if (xs[slot] != u.getX() || ys[slot] != u.getY())
+            {
+                xs[slot] = u.getX();
+                ys[slot] = u.getY();
+                moved++;
+            }
+            seen[slot] = stamp;
+        }
+        return buffer.size();
+    }
+
+    private int claim(Unit u)
+    {
+        int slot;
+        if (freeCount > 0)
+        {
+            slot = freeSlots[--freeCount];
+        }
+        else
+        {
+            if (slotCount == ids.length)
+            {
+                int length = ids.length * 2;
+                ids = Arrays.copyOf(ids, length);
+                xs = Arrays.copyOf(xs, length);
+                ys = Arrays.copyOf(ys, length);
+                roles = Arrays.copyOf(roles, length);
+                targets = Arrays.copyOf(targets, length);
+                seen = Arrays.copyOf(seen, length);
+                freeSlots = Arrays.copyOf(freeSlots, length);
+            }
+            slot = slotCount++;
+        }
+        ids[slot] = u.getID();
+        xs[slot] = u.getX();
+        ys[slot] = u.getY();
+        roles[slot] = ROLE_NONE;
+        targets[slot] = NO_TARGET;
+        slotOf.put(u.getID(), slot);
+        return slot;
+    }
+
+    private void release(int slot)
+    {
+        slotOf.remove(ids[slot]);
+        seen[slot] = 0;
+        roles[slot] = ROLE_NONE;
+        targets[slot] = NO_TARGET;
+        freeSlots[freeCount++] = slot;
+        removed++;
+    }
+
+    /** @return The role of a unit, ROLE_NONE if it is not in the roster */
+    public int getRole(Unit u)
+    {
+        int slot = slotOf.get(u.getID(), -1);
+        return slot < 0 ? ROLE_NONE : roles[slot];
+    }
+
+    /** Sets the role of a unit, ignored if the unit is not in the roster. */
+    public void setRole(Unit u, int role)
+    {
+        int slot = slotOf.get(u.getID(), -1);
+        if (slot >= 0)
+        {
+            roles[slot] = role;
+        }
+    }
+
+    /** @return The ID of the unit this unit was last sent to attack, or NO_TARGET */
+    public long getTarget(Unit u)
+    {
+        int slot = slotOf.get(u.getID(), -1);
+        return slot < 0 ? NO_TARGET : targets[slot];
+    }
+
+    /** Remembers the unit this unit was sent to attack, ignored if the unit is not in the roster. */
+    public void setTarget(Unit u, long targetID)
+    {
+        int slot = slotOf.get(u.getID(), -1);
+        if (slot >= 0)
+        {
+            targets[slot] = targetID;
+        }
+    }
+
+    /** @return True if the last update saw units join or leave */
+    public boolean membershipChanged()
+    {
+        return spawned > 0 || removed > 0;
+    }
+
+    public int getSpawned()
+    {
+        return spawned;
+    }
+
+    public int getMoved()
+    {
+        return moved;
+    }
+
+    public int getRemoved()
+    {
+        return removed;
+    }
+
+    public int size()
+    {
+        return slotOf.size();
+    }
+
+    /** Forgets every unit, for the start of a new game. */
+    public void clear()
+    {
+        slotOf.clear();
+        Arrays.fill(seen, 0);
+        freeCount = 0;
+        slotCount = 0;
+        stamp = 0;
+        spawned = 0;
+        moved = 0;
+        removed = 0;
+    }
+}
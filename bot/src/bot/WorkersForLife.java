@@ -1,13 +1,11 @@
 package bot;
 
 import ai.abstraction.AbstractionLayerAI;
-import ai.abstraction.pathfinding.AStarPathFinding;
 import ai.core.AI;
 import ai.core.ParameterSpecification;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,12 +27,76 @@ public class WorkersForLife extends AbstractionLayerAI
     private UnitType lightType;
     private UnitType barracksType;
 
+    private UnitIndex units; ///< Every unit on the map bucketed by owner and type, rebuilt each tick
+    private SpatialGrid grid = new SpatialGrid(); ///< Bucket grid for closest unit look ups, rebuilt each tick
+    private DistanceFieldCache parkingField = new DistanceFieldCache(); ///< Reachability of the stacking cells, rebuilt when occupancy changes
+    private int[] parkingCells = new int[0]; ///< Buffer for the stacking cells handed to parkingField
+    private static final int STACK_COLUMNS = MapAnalysis.PARKING_COLUMNS; ///< Number of columns units are stacked in, workers use 0 and ranged 1
+    private MapAnalysis analysis = null; ///< Static analysis of the current map, loaded on the first tick of a game
+    private GameState lastState = null; ///< The state of the last tick, to tell when a new game starts
+    private int lastTime = -1; ///< The cycle of the last tick
+    private int barracksSiteBase = -1; ///< Cell of the base barracksSite was found for
+    private int barracksSite = -1; ///< Where to build the barracks for barracksSiteBase, -1 if nowhere
+    private FlowField enemyField = new FlowField(); ///< Flow towards enemy units, built each tick in flow field mode
+    private FlowField enemyBaseField = new FlowField(); ///< Flow towards enemy bases, built each tick in flow field mode
+    private PathCache pathCache = null; ///< Our units' paths, kept across ticks so marches are not searched every step
+    
+    private UnitBuffer freeWorkers = new UnitBuffer(); ///< Workers that can be used for harvesting and building
+    private UnitBuffer battleWorkers = new UnitBuffer(); ///< Workers that can be send to fight
+    private List<Integer> reservedPositions = new ArrayList<Integer>(); ///< List of reserved building positions
+    private ClosestEnemy closestBaseAndEnemy = new ClosestEnemy(); ///< Result holder for getClosestEnemy
+    private UnitRoster roster = new UnitRoster(); ///< Our units' roles and targets, kept across ticks
+    private int lastWantFree = -1; ///< Number of free workers wanted when worker roles were last handed out
+    private TargetAssignment targets = new TargetAssignment(); ///< Targets picked for all our battle units at once each tick
+    private UnitBuffer attackers = new UnitBuffer(); ///< Battle units that will attack this tick, in the order their behaviours run
+    private BattleDecisions decisions = new BattleDecisions(); ///< Targets of large armies, picked on the ForkJoinPool
+    private BattleDecisions.Picker picker = (u, scratch) -> pickTarget(u, units, scratch, BotProfiler.OFF); ///< Picks for decisions
+    private HarvestScheduler harvester = new HarvestScheduler(); ///< Shares free workers out between the resource piles
+    private ThreatMap threat = new ThreatMap(); ///< Enemy damage that can land on each cell, updated each tick when threat aware
+    
+    private boolean flowFieldMovement = false; ///< If battle units pick targets and move using flow fields instead of per unit searches
+    private boolean focusFire = false; ///< If battle units share out targets by hit points instead of each taking the closest enemy
+    private boolean threatAware = false; ///< If harvesting, stacking and focus fire steer clear of enemy damage
+    
+    private boolean lookahead = false; ///< If a playout script is picked by simulating ahead with each of them
+    private int lookaheadBudget = 50; ///< Milliseconds each lookahead search may take
+    private int lookaheadHorizon = 100; ///< Cycles each rollout plays
+    private int lookaheadInterval = 10; ///< Cycles between lookahead searches
+    private int parallelThreshold = 128; ///< Battle units at which their targets are picked on the ForkJoinPool
+    private PlayoutScript script = PlayoutScript.DEFAULT; ///< The variant of the behaviours being played
+    private RolloutSearch search = null; ///< Made on the first search
+    private int lastSearch = -1; ///< Cycle of the last lookahead search, -1 if none this game
+    
+    private int maxWorkers = 5; ///< Workers the base keeps training up to, before the script's extra ones
+    private int barracksResources = 6; ///< Resources we need before building a barracks
+    private int barracksWorkers = 4; ///< Workers we need before building a barracks
+    private int workerReserve = 4; ///< Resources we need before training a worker once we have a barracks
+    private int largeMapArea = 64; ///< Maps with more cells than this keep an extra free worker
+    private int stackThreshold = 3; ///< Once this many workers are battle workers all but one less than this are stacked
+    private boolean buildOrder = false; ///< If harvesters, barracks timing and army order come from a BuildOrder plan
+    private int armyRanged = 4; ///< Ranged units in the army the build order plans for
+    private int armyLight = 4; ///< Light units in the army the build order plans for
+    private BuildOrder plan = null; ///< This game's plan, looked up on the first tick with our base, null if not planning
+    private int armyTrained = 0; ///< Army units trained under plan
+    private MapConfig mapConfig = null; ///< Tuned parameters for each map, read when the first map is analysed and again after reset
+    private Map<String, String> untuned = new HashMap<String, String>(); ///< Values the current map's tuned parameters replaced
+    private BotProfiler profiler = new BotProfiler(); ///< Times each behaviour when the workersforlife.profile property is set
+    
     private int rangedOrLight = 1; /**< Is used to decide between the barracks making a ranged or light unit, 
     									when set to 0 or 1 respectively. Is an int so it can expanded upon for other unit types if desired */
     
     public WorkersForLife(UnitTypeTable utt) 
     {
-        super(new AStarPathFinding());
+        this(utt, new HierarchicalPathFinding());
+    }
+    
+    /** One path finder serves AbstractionLayerAI and the path cache, so no second one is built and thrown away.
+     * @param utt The UnitTypeTable of the game
+     * @param planner Plans our units' paths
+     */
+    private WorkersForLife(UnitTypeTable utt, HierarchicalPathFinding planner)
+    {
+        super(planner);
         this.utt = utt;
         /// Set up unit types
         workerType = utt.getUnitType("Worker");
@@ -42,8 +104,10 @@ public class WorkersForLife extends AbstractionLayerAI
         rangedType = utt.getUnitType("Ranged");
         lightType = utt.getUnitType("Light");
         barracksType = utt.getUnitType("Barracks");
+        units = new UnitIndex(baseType, rangedType, lightType, barracksType);
         /// Set up path finding so we can call its functions
-        pf = new AStarPathFinding();
+        pathCache = new PathCache(planner);
+        pf = new FlowFieldPathFinding(pathCache, enemyField, enemyBaseField);
     }
     
 
@@ -55,14 +119,116 @@ public class WorkersForLife extends AbstractionLayerAI
         rangedType = utt.getUnitType("Ranged");
         lightType = utt.getUnitType("Light");
         barracksType = utt.getUnitType("Barracks");
-        pf = new AStarPathFinding();
+        units = new UnitIndex(baseType, rangedType, lightType, barracksType);
+        pathCache = new PathCache(new HierarchicalPathFinding());
+        pf = new FlowFieldPathFinding(pathCache, enemyField, enemyBaseField);
+        /// Roles from the last game mean nothing in the next one
+        roster.clear();
+        lastWantFree = -1;
+        /// The next game may be on another map
+        analysis = null;
+        lastState = null;
+        lastTime = -1;
+        barracksSiteBase = -1;
+        script = PlayoutScript.DEFAULT;
+        lastSearch = -1;
+        plan = null;
+        armyTrained = 0;
+        /// Pick up a config the tuner may have written since the last game
+        mapConfig = null;
+        profiler.clear();
     }
 
-    
+    /** Resets the bot for a game played with a different UnitTypeTable.
+     * @param utt The UnitTypeTable of the next game
+     */
     @Override
-    public AI clone() 
+    public void reset(UnitTypeTable utt)
+    {
+        this.utt = utt;
+        reset();
+    }
+
+
+    @Override
+    public AI clone()
+    {
+        WorkersForLife clone = new WorkersForLife(utt);
+        clone.setFlowFieldMovement(flowFieldMovement);
+        clone.setFocusFire(focusFire);
+        clone.setThreatAware(threatAware);
+        clone.setLookahead(lookahead);
+        clone.setLookaheadBudget(lookaheadBudget);
+        clone.setLookaheadHorizon(lookaheadHorizon);
+        clone.setLookaheadInterval(lookaheadInterval);
+        clone.setParallelThreshold(parallelThreshold);
+        clone.setMaxWorkers(maxWorkers);
+        clone.setBarracksResources(barracksResources);
+        clone.setBarracksWorkers(barracksWorkers);
+        clone.setWorkerReserve(workerReserve);
+        clone.setHarvestRange(getHarvestRange());
+        clone.setLargeMapArea(largeMapArea);
+        clone.setStackThreshold(stackThreshold);
+        clone.setBuildOrder(buildOrder);
+        clone.setArmyRanged(armyRanged);
+        clone.setArmyLight(armyLight);
+        clone.analysis = analysis;
+        clone.mapConfig = mapConfig;
+        return clone;
+    }
+    
+    /** Makes a copy of the bot to run one side of a rollout.
+     * The copy plays a fixed script and never searches itself.
+     * @param script The script the copy plays
+     * @return The copy
+     */
+    WorkersForLife playoutCopy(PlayoutScript script)
+    {
+        WorkersForLife copy = (WorkersForLife) clone();
+        copy.setLookahead(false);
+        /// Rollouts already keep every thread of the pool busy
+        copy.setParallelThreshold(Integer.MAX_VALUE);
+        copy.profiler = BotProfiler.OFF;
+        copy.startPlayout(this, script, true);
+        return copy;
+    }
+    
+    /** Readies a playout copy for its next rollout, so one copy can play many rollouts without being built again.
+     * Drops what the copy remembers of its last rollout and takes the bot's state as of now.
+     * @param bot The bot the copy was made from
+     * @param script The script the copy plays
+     * @param ours If the copy plays the bot's side, otherwise it plays the opponent
+     */
+    void startPlayout(WorkersForLife bot, PlayoutScript script, boolean ours)
     {
-        return new WorkersForLife(utt);
+        /// Actions and paths were for the units of the last rollout's state
+        super.reset();
+        pathCache.clear();
+        roster.clear();
+        lastWantFree = -1;
+        analysis = bot.analysis;
+        barracksSiteBase = -1;
+        this.script = script;
+        if (ours)
+        {
+        	rangedOrLight = bot.rangedOrLight;
+        	/// Keep the game's plan, planning again from the rollout's state would give a different one
+        	plan = bot.plan;
+        	armyTrained = bot.armyTrained;
+        }
+        else
+        {
+        	/// The opponent has its own base and production, its first tick looks up its own plan
+        	rangedOrLight = 1;
+        	plan = null;
+        	armyTrained = 0;
+        }
+    }
+    
+    /** @return The analysis of the current map, null before the first tick */
+    MapAnalysis getAnalysis()
+    {
+        return analysis;
     }
    
     /** Called each tick this is the main body of the AI.
@@ -70,81 +236,81 @@ public class WorkersForLife extends AbstractionLayerAI
      */
     @Override
     public PlayerAction getAction(int player, GameState gs) 
+    {
+        profiler.beginTick(gs.getTime());
+        long tickStart = profiler.start();
+        decide(player, gs);
+        long start = profiler.start();
+        PlayerAction actions = translateActions(player, gs);
+        profiler.end(BotProfiler.TRANSLATE, start);
+        profiler.end(BotProfiler.TICK, tickStart);
+        return actions;
+    }
+    
+    /** The decision stage of a tick: everything getAction does before the actions are translated.
+     * Leaves each unit's action queued in AbstractionLayerAI, called by getAction and by the benchmarks.
+     * @param player The player we are playing as
+     * @param gs The GameState
+     */
+    void decide(int player, GameState gs)
     {
         PhysicalGameState pgs = gs.getPhysicalGameState();
         Player p = gs.getPlayer(player);
-        Unit base = null; ///< Our base, we will only ever have one currently
-        Unit barracks = null; ///< Our barracks, we will only ever have one currently
-        int nworkers = 0; ///< How many workers we have
-               
-        /// Create lists to hold our units
-        List<Unit> workers = new LinkedList<Unit>();
-        List<Unit> ranged = new LinkedList<Unit>();
-        List<Unit> light = new LinkedList<Unit>();
         
-        /// Populate our lists and variables of units
-        for (Unit u : pgs.getUnits()) 
+        /// Every so often look ahead to pick the script to play until the next search
+        if (lookahead && (lastSearch < 0 || gs.getTime() - lastSearch >= lookaheadInterval))
         {
-        	/// Our workers
-            if (u.getType().canHarvest && u.getPlayer() == player) 
-            {
-                workers.add(u);
-                nworkers++;
-            }
-        	/// Our base unit
-        	if (u.getType().isStockpile && u.getPlayer() == p.getID()) 
-            {
-        		base = u;
-            }
-        	/// Our ranged units
-            if (u.getType() == rangedType && u.getPlayer() == player) 
-            {
-                ranged.add(u);
-            }
-            /// Our light units
-            if (u.getType() == lightType && u.getPlayer() == player) 
-            {
-                light.add(u);
-            }
-            /// Our barracks
-            if (u.getType() == barracksType && u.getPlayer() == player)
-            {
-            	barracks = u;
-            }
-            /// Our bases
-            if (u.getType() == baseType && u.getPlayer() == player)
-            {
-            	base = u;
-            }
+        	long start = profiler.start();
+        	if (search == null)
+        	{
+        		search = new RolloutSearch();
+        	}
+        	script = search.pick(this, player, gs, lookaheadBudget, lookaheadHorizon, script);
+        	lastSearch = gs.getTime();
+        	profiler.end(BotProfiler.LOOKAHEAD, start);
         }
         
+        /// Index every unit on the map once, all behaviours read from this
+        long start = profiler.start();
+        beginTick(player, gs);
+        profiler.end(BotProfiler.BEGIN_TICK, start);
+        Unit base = units.getBase(); ///< Our base, we will only ever have one currently
+        Unit barracks = units.getOurBarracks(); ///< Our barracks, we will only ever have one currently
+        int nworkers = units.getWorkers().size(); ///< How many workers we have
+        
         /// Apply behaviour to workers
-        workersBehavior(workers, p, pgs, gs, base);
+        start = profiler.start();
+        workersBehavior(units, p, pgs, gs, base);
+        profiler.end(BotProfiler.WORKERS, start);
         
         /// Cycle through all ranged units and apply behaviour
-        for (Unit u : ranged) 
+        UnitBuffer ranged = units.getRanged();
+        for (int i = 0; i < ranged.size(); i++) 
         {
-        	battleUnitBehavior(u, p, pgs);
+        	Unit u = ranged.get(i);
+        	battleUnitBehavior(u, p, units);
+        	roster.setRole(u, UnitRoster.ROLE_ACTIVE_RANGED);
         	/// If this unit is getting stuck next to the barracks, it will be stacked up
-        	if (barracks != null && base != null)
+        	if (isStackedRanged(u, barracks, base))
         	{
-	        	if (getDistance(barracks, u) == 1)
-	        	{
-	        		stackUnits(u, gs, 1, base, 5);
-	        	}
+        		stackUnits(u, gs, 1, base, 5);
+        		roster.setRole(u, UnitRoster.ROLE_STACKED_RANGED);
         	}
         }
         
         /// Cycle through all light units and apply behaviour
-        for (Unit u : light) 
+        UnitBuffer light = units.getLight();
+        for (int i = 0; i < light.size(); i++) 
         {
-        	battleUnitBehavior(u, p, pgs);
+        	Unit u = light.get(i);
+        	battleUnitBehavior(u, p, units);
+        	roster.setRole(u, UnitRoster.ROLE_ARMY);
         }
         
     	/// If our base is not building something then apply base behaviour
         if (base != null && gs.getActionAssignment(base) == null) 
         {
-        	baseBehavior(base, barracks, p, nworkers, 5);
+        	baseBehavior(base, barracks, p, nworkers, maxWorkers + script.extraMaxWorkers);
         }
         
         /// If our barracks is not building something then apply base behaviour
@@ -152,8 +318,108 @@ public class WorkersForLife extends AbstractionLayerAI
         {
             barracksBehaviour(barracks, p);
         }
-                              
-        return translateActions(player, gs);
+    }
+    
+    /** Builds the per-tick state every behaviour reads from.
+     * Called at the start of getAction, and by the benchmarks before timing a single behaviour.
+     * @param player The player we are playing as
+     * @param gs The GameState
+     */
+    void beginTick(int player, GameState gs)
+    {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        loadAnalysis(gs);
+        units.build(player, pgs);
+        /// Plan production once we know where our base is, usually this is a look up in the cache
+        if (buildOrder && plan == null)
+        {
+        	plan = planBuildOrder(player, gs);
+        }
+        roster.update(units);
+        targets.clear();
+        decisions.clear();
+        harvester.update(gs, units);
+        grid.build(units, pgs.getWidth(), pgs.getHeight());
+        if (threatAware)
+        {
+        	threat.update(gs, units.getEnemyCombatants());
+        }
+        /// One search from all the enemies replaces a path search per battle unit
+        if (flowFieldMovement)
+        {
+        	enemyField.build(gs, units.getEnemyCombatants());
+        	enemyBaseField.build(gs, units.getEnemyBases());
+        }
+    }
+    
+    /** Analyses the map once per game, usually this is a look up in the cache.
+     * A new game may be on another map of the same size without a reset, so on the first tick of a game the map's
+     * terrain and piles are hashed and checked against the analysis too.
+     * @param gs The GameState
+     */
+    private void loadAnalysis(GameState gs)
+    {
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        /// Back to cycle 0, or a fresh state at cycle 0, is a new game
+        boolean newGame = gs.getTime() == 0 && (gs != lastState || lastTime != 0);
+        lastState = gs;
+        lastTime = gs.getTime();
+        if (analysis == null || analysis.getWidth() != pgs.getWidth() || analysis.getHeight() != pgs.getHeight()
+        		|| (newGame && MapAnalysis.hashOf(pgs) != analysis.getHash()))
+        {
+        	analysis = MapAnalysis.of(pgs);
+        	barracksSiteBase = -1;
+        	applyMapConfig(analysis.getHash());
+        	plan = null;
+        }
+    }
+    
+    /** Gets the build order for a player from the units indexed for them.
+     * @param player The player to plan for
+     * @param gs The GameState
+     * @return The plan, null if the player has no base or the unit types can't be planned for
+     */
+    private BuildOrder planBuildOrder(int player, GameState gs)
+    {
+        Unit base = units.getBase();
+        if (base == null)
+        {
+        	return null;
+        }
+        return BuildOrder.of(analysis, utt, base.getX() + base.getY() * analysis.getWidth(), units.getWorkers().size(),
+        		gs.getPlayer(player).getResources(), maxWorkers + script.extraMaxWorkers, workerReserve, armyRanged, armyLight);
+    }
+    
+    /** Plans the build order for both sides before the game starts, so the first tick only has to look it up.
+     * @param gs The GameState at the start of the game
+     * @param milliseconds Time allowed, planning takes well under a second
+     */
+    @Override
+    public void preGameAnalysis(GameState gs, long milliseconds) throws Exception
+    {
+        if (!buildOrder)
+        {
+        	return;
+        }
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        loadAnalysis(gs);
+        for (int player = 0; player < pgs.getPlayers().size(); player++)
+        {
+        	units.build(player, pgs);
+        	planBuildOrder(player, gs);
+        }
+    }
+    
+    /** @return The UnitIndex built for the current tick */
+    UnitIndex getUnitIndex()
+    {
+        return units;
+    }
+    
+    /** @return Our units' roles and targets as of the current tick */
+    UnitRoster getRoster()
+    {
+        return roster;
     }
     
     /*================Behaviours==============*/
@@ -165,6 +431,19 @@ public class WorkersForLife extends AbstractionLayerAI
      * @param p Our player
      */
     public void barracksBehaviour(Unit barracks, Player p) {
+    	/// Scripts can fix which unit is trained, otherwise the build order picks if there is one
+    	if (script.barracksUnit >= 0)
+    	{
+    		rangedOrLight = script.barracksUnit;
+    	}
+    	else if (buildOrder && plan != null)
+    	{
+    		rangedOrLight = plan.getArmyUnit(armyTrained);
+    		if (p.getResources() >= (rangedOrLight == BuildOrder.RANGED ? rangedType : lightType).cost)
+    		{
+    			armyTrained++;
+    		}
+    	}
     	/// If enough resources train ranged unit
         if(p.getResources() >= rangedType.cost && rangedOrLight == 0)
         {
@@ -185,7 +464,7 @@ public class WorkersForLife extends AbstractionLayerAI
     
     /** Behaviour for base.
      * Builds new workers if we have the resources and are not over the maxWorkers
-     * If we have a barracks we need to have a higher resource count before building a worker so the barracks always
+     * If we have a barracks we need to have workerReserve resources before building a worker so the barracks always
      * has access to enough resources.
      * @param base Our base
      * @param p Our player
@@ -194,7 +473,7 @@ public class WorkersForLife extends AbstractionLayerAI
      */
     public void baseBehavior(Unit base, Unit barracks, Player p, int ourWorkers, int maxWorkers) {   
     	/// If we have a barracks make sure there is enough resources to build in it
-    	if (barracks != null && p.getResources() >= 4 && ourWorkers <= maxWorkers)
+    	if (barracks != null && p.getResources() >= workerReserve && ourWorkers <= maxWorkers)
     	{
     		train(base, workerType);
     	}
@@ -206,264 +485,430 @@ public class WorkersForLife extends AbstractionLayerAI
     }
     
     /** Behaviour for workers.
-     * Takes the list of workers and delegates them to either free or battle workers depending on the current state of the game
-     * Then applies behaviours to those individual lists. Here we deal with harvesting, and building barracks or bases.
-     * @param workers List of all our workers
+     * Splits our workers into free and battle workers depending on the current state of the game, then applies
+     * behaviours to those individual lists. Here we deal with harvesting, and building barracks or bases.
+     * Roles are kept in the roster between ticks and only handed out again when workers spawn or die, or when
+     * the number of free workers we want changes, so a worker keeps its job instead of swapping with another.
+     * @param units This tick's UnitIndex
      * @param p Our player
      * @param pgs The PhysicalGameState
      * @param gs The GameState
      * @param base Our base
      */
-    public void workersBehavior(List<Unit> workers, Player p, PhysicalGameState pgs, GameState gs, Unit base) {
-        int nbases = 0; /**< Number of bases we have, currently will only ever be 0 or 1 but has been designed
+    public void workersBehavior(UnitIndex units, Player p, PhysicalGameState pgs, GameState gs, Unit base) {
+        UnitBuffer workers = units.getWorkers(); ///< All our workers, in unit order
+        int nbases = units.getBases().size(); /**< Number of bases we have, currently will only ever be 0 or 1 but has been designed
         					with the idea of expansion in mind. */
-        int nbarracks = 0; /**< Number of barracks we have, currently will only ever be 0 or 1 but has been designed
+        int nbarracks = units.getBarracks().size(); /**< Number of barracks we have, currently will only ever be 0 or 1 but has been designed
 								with the idea of expansion in mind. */
         int nworkers = workers.size(); ///< Number of workers we have
-        int nresources = 0;	///< Number of resource piles on the map
+        int nresources = units.getResources().size();	///< Number of resource piles on the map
         int workerOffset = 0; ///< Allocates more free workers set to higher for bigger maps
+        int nextFree = 0; ///< Index of the next free worker that has not been given a job yet
         
-        List<Unit> freeWorkers = new LinkedList<Unit>(); ///< Workers that can be used for harvesting and building
-        List<Unit> battleWorkers = new LinkedList<Unit>(); ///< Workers that can be send to fight
+        freeWorkers.clear();
+        battleWorkers.clear();
+        reservedPositions.clear();
         
-        /// If the worker list is empty return
-        if (workers.isEmpty()) 
+        /// If playing on a bigger map have more free workers
+        if ((pgs.getWidth() * pgs.getHeight()) > largeMapArea)
         {
-            return;
+        	workerOffset = 1;
         }
         
-        /// Check number of worker and bases the player has and the resources piles on the map
-        for (Unit u2 : pgs.getUnits()) 
+        /// Keep workers for each base free, or none if no resources are left to be gathered so all go to battle
+        int harvesters = (buildOrder && plan != null && nbases > 0) ? plan.getHarvesters() : nbases + workerOffset;
+        int wantFree = (nresources != 0) ? Math.max(0, Math.min(harvesters + script.extraFreeWorkers, nworkers)) : 0;
+        if (roster.membershipChanged() || wantFree != lastWantFree)
         {
-        	/// Our bases
-            if (u2.getType() == baseType
-                    && u2.getPlayer() == p.getID()) 
-            {
-                nbases++;
-            }
-            /// Our barracks
-            if (u2.getType() == barracksType
-                    && u2.getPlayer() == p.getID()) 
-            {
-                nbarracks++;
-            }
-            /// Resource piles on the map
-            if (u2.getType().isResource) 
-            {
-            	nresources++;
-            }
+        	assignWorkerRoles(workers, wantFree);
+        	lastWantFree = wantFree;
         }
         
-        /// If playing on a bigger map have more free workers
-        if ((pgs.getWidth() * pgs.getHeight()) > 64)
+        /// Split the workers by their roles, keeping unit order
+        for (int i = 0; i < nworkers; i++)
         {
-        	workerOffset = 1;
+        	Unit u = workers.get(i);
+        	if (roster.getRole(u) == UnitRoster.ROLE_FREE_WORKER)
+        	{
+        		freeWorkers.add(u);
+        	}
+        	else
+        	{
+        		battleWorkers.add(u);
+        	}
         }
         
-        /// If no resources left to be gathered send all workers to battle
-        if (nresources <= 0)
-        {
-        	for (int n = 0; n < workers.size(); n++) 
-            {
-            	if (!workers.isEmpty())
-            	{
-            		battleWorkers.add(workers.get(0));
-                    workers.remove(0);
-            	}
-            }
-        }
+        /// Now every battle unit is known, share out the targets and pick each unit's target
+        collectAttackers(units, base);
+        assignTargets(units);
+        long start = profiler.start();
+        decisions.decide(attackers, picker, parallelThreshold);
+        profiler.end(BotProfiler.DECIDE, start);
         
-        /// Applies workers for each base to free workers
-        if (workers.size() >= (nbases) && nresources !=0)
+        /// If the worker list is empty return
+        if (workers.isEmpty()) 
         {
-            for (int n = 0; n < (nbases + workerOffset); n++) 
-            {
-            	if (!workers.isEmpty())
-            	{
-                    freeWorkers.add(workers.get(0));
-                    workers.remove(0);
-            	}
-            }
-            /// All other workers to battle
-            battleWorkers.addAll(workers);
-        } 
+            return;
+        }
 
-        List<Integer> reservedPositions = new LinkedList<Integer>(); ///< List of reserved building positions
         /// Consider building a barracks
-        if (nbarracks == 0 && !freeWorkers.isEmpty())
+        if (nbarracks == 0 && nextFree < freeWorkers.size())
         {
         	/// Build a barracks if we have enough resources
-            if (p.getResources() >= 6 && nworkers >= 4) {
-            	Unit u = freeWorkers.remove(0);
+            boolean planned = buildOrder && plan != null;
+            if (p.getResources() >= (planned ? barracksType.cost : barracksResources)
+            		&& nworkers >= (planned ? plan.getBarracksWorkers() : barracksWorkers)) {
+            	Unit u = freeWorkers.get(nextFree++);
             	/// Do a null check on the base 
             	if (base != null)
             	{
-            		/// Check which side of the map we are on
-            		boolean leftSide = areWeOnTheLeft(pgs, base);
-            		/// Build a barracks in the set locations depending on our side of the map
-                	if (!leftSide)
-                	{
-                        buildIfNotAlreadyBuilding(u, barracksType, (base.getX()+2), (base.getY()-2) , reservedPositions, p, pgs);
-                	}
-                	if (leftSide)
+            		/// Build a barracks at the site the map analysis picked for our base
+            		int site = getBarracksSite(base);
+                	if (site >= 0)
                 	{
-                        buildIfNotAlreadyBuilding(u, barracksType, (base.getX()-2), (base.getY()+4) , reservedPositions, p, pgs);
+                        buildIfNotAlreadyBuilding(u, barracksType, site % pgs.getWidth(), site / pgs.getWidth(), reservedPositions, p, pgs);
                 	}
             	}
             }
         }
         
         /// If our base dies try to replace it
-        if (nbases == 0 && !freeWorkers.isEmpty()) 
+        if (nbases == 0 && nextFree < freeWorkers.size()) 
         {
             /// Build a base
             if (p.getResources() >= baseType.cost) 
             {
-                Unit u = freeWorkers.remove(0);
-                buildIfNotAlreadyBuilding(u, baseType, u.getX(), u.getY(), reservedPositions, p, pgs);
+                Unit u = freeWorkers.get(nextFree++);
+                /// Build next to the closest resource cluster, or where the worker stands if the map has none
+                int site = analysis.getClosestBaseSite(u.getX(), u.getY());
+                if (site >= 0)
+                {
+                    buildIfNotAlreadyBuilding(u, baseType, site % pgs.getWidth(), site / pgs.getWidth(), reservedPositions, p, pgs);
+                }
+                else
+                {
+                    buildIfNotAlreadyBuilding(u, baseType, u.getX(), u.getY(), reservedPositions, p, pgs);
+                }
             }
         }
         
-        /// Send battle workers to battle
-        for (Unit u : battleWorkers) 
+        /// Send battle workers to battle, stacking the ones we don't need out of the way
+        for (int i = 0; i < battleWorkers.size(); i++) 
+        {
+        	Unit u = battleWorkers.get(i);
+        	battleUnitBehavior(u, p, units);
+        	if (base != null && roster.getRole(u) == UnitRoster.ROLE_STACKED_WORKER)
+        	{
+        		stackUnits(u, gs, 0, base, 5);
+        	}
+        }
+
+        /// Harvest with all the free workers, do this last.
+        if (nresources != 0) 
         {
-        	battleUnitBehavior(u, p, pgs);
+	        workerHarvest(freeWorkers, nextFree, units, p);
+        }
+    }
+    
+    /** Hands out worker roles, changing as few workers as possible.
+     * Free workers keep their role while we still want that many; new workers are used first when more are needed
+     * and the last free workers in unit order go to battle when fewer are. Once there are stackThreshold or more
+     * battle workers only one less than that fight and the rest are stacked out of the way, again keeping the ones
+     * already fighting.
+     * @param workers All our workers, in unit order
+     * @param wantFree How many free workers we want
+     */
+    private void assignWorkerRoles(UnitBuffer workers, int wantFree)
+    {
+        int nworkers = workers.size();
+        int nfree = 0; ///< Workers that stay free
+        for (int i = 0; i < nworkers; i++)
+        {
+        	Unit u = workers.get(i);
+        	if (roster.getRole(u) == UnitRoster.ROLE_FREE_WORKER)
+        	{
+        		if (nfree < wantFree)
+        		{
+        			nfree++;
+        		}
+        		else
+        		{
+        			roster.setRole(u, UnitRoster.ROLE_NONE);
+        		}
+        	}
+        }
+        /// Top up the free workers, new workers first then battle workers
+        for (int pass = 0; pass < 2 && nfree < wantFree; pass++)
+        {
+        	for (int i = 0; i < nworkers && nfree < wantFree; i++)
+        	{
+        		Unit u = workers.get(i);
+        		int role = roster.getRole(u);
+        		if ((pass == 0) ? role == UnitRoster.ROLE_NONE : role != UnitRoster.ROLE_FREE_WORKER)
+        		{
+        			roster.setRole(u, UnitRoster.ROLE_FREE_WORKER);
+        			nfree++;
+        		}
+        	}
         }
         
-        /// If we have a certain number of battleWorkers start stacking some out of the way
-        if (battleWorkers.size() >= 3 && base != null)
+        /// Everyone else fights, stackThreshold - 1 at a time once there are stackThreshold or more
+        int nbattle = nworkers - nfree;
+        int wantActive = (nbattle >= stackThreshold) ? stackThreshold - 1 : nbattle;
+        int nactive = 0;
+        for (int i = 0; i < nworkers; i++)
         {
-        	int counter = 0;
-        	for(Unit u : battleWorkers)
+        	Unit u = workers.get(i);
+        	if (roster.getRole(u) == UnitRoster.ROLE_BATTLE_WORKER)
         	{
-        		if (counter >= 2)
+        		if (nactive < wantActive)
+        		{
+        			nactive++;
+        		}
+        		else
         		{
-        			stackUnits(u, gs, 0, base, 5);
+        			roster.setRole(u, UnitRoster.ROLE_STACKED_WORKER);
         		}
-        		counter++;
         	}
         }
-
-        /// Harvest with all the free workers, do this last.
-        if (nresources != 0) 
+        for (int i = 0; i < nworkers; i++)
         {
-	        workerHarvest(freeWorkers, pgs, p);
+        	Unit u = workers.get(i);
+        	int role = roster.getRole(u);
+        	if (role == UnitRoster.ROLE_FREE_WORKER || role == UnitRoster.ROLE_BATTLE_WORKER)
+        	{
+        		continue;
+        	}
+        	if (nactive < wantActive)
+        	{
+        		roster.setRole(u, UnitRoster.ROLE_BATTLE_WORKER);
+        		nactive++;
+        	}
+        	else
+        	{
+        		roster.setRole(u, UnitRoster.ROLE_STACKED_WORKER);
+        	}
         }
     }
     
     /** Battle unit behaviour.
      * Used to send a unit to fight, gets the closest base and enemy unit.
      * Prioritises killing units over bases, always aiming for the closest one.
+     * In flow field mode the closest one is measured by walking distance from the flow fields. With focus fire
+     * the unit takes the target picked for it by assignTargets, if it was given one. For a large army the
+     * target was already picked on the ForkJoinPool by decisions, otherwise it is picked here.
      * @param u Our unit we are commanding
      * @param p Our player
-     * @param pgs The GameState
-     */
-    public void battleUnitBehavior(Unit u, Player p, PhysicalGameState pgs) {
-        /// Get the closest enemy unit and base
-        Map<String, Unit> closestBaseAndEnemy = getClosestEnemy(pgs, u, p);
-        /// Allocate unit and base to variables to avoid additional look ups
-        Unit closestEnemy = closestBaseAndEnemy.get("enemy");
-        Unit baseEnemy = closestBaseAndEnemy.get("base"); 
-        
-        /// Attack if enemy unit exists
-        if (closestEnemy != null) 
+     * @param units This tick's UnitIndex
+     */
+    public void battleUnitBehavior(Unit u, Player p, UnitIndex units) {
+        long start = profiler.start();
+        int slot = decisions.slotOf(u);
+        Unit target = (slot >= 0) ? decisions.getPick(slot) : pickTarget(u, units, closestBaseAndEnemy, profiler);
+        if (target != null)
+        {
+        	attack(u, target);
+        	roster.setTarget(u, target.getID());
+        }
+        else
+        {
+        	roster.setTarget(u, UnitRoster.NO_TARGET);
+        }
+        profiler.end(BotProfiler.BATTLE, start);
+    }
+    
+    /** Picks the target of a battle unit.
+     * Only reads the tick state, so it can run for many units at once on different threads.
+     * @param u Our unit
+     * @param units This tick's UnitIndex
+     * @param result Holder for the closest enemy and base, one per thread
+     * @param timer Profiler for the closest enemy look up, BotProfiler.OFF off the bot's own thread
+     * @return The unit to attack, null if there is nothing to attack
+     */
+    Unit pickTarget(Unit u, UnitIndex units, ClosestEnemy result, BotProfiler timer)
+    {
+        /// In flow field mode attack whatever the fields lead to, the path finding then follows the same field
+        if (flowFieldMovement)
         {
-        	attack(u, closestEnemy);
+        	Unit target = enemyField.targetOf(u);
+        	if (target == null && units.getEnemyCombatants().isEmpty())
+        	{
+        		target = enemyBaseField.targetOf(u);
+        	}
+        	if (target != null)
+        	{
+        		return target;
+        	}
+        	/// The fields can't reach anything, fall back to the closest enemy and a path search
         }
-        /// If no enemy units try to attack bases
-        else if (baseEnemy != null)
+        /// Take the target shared out for this tick
+        Unit assigned = targets.targetOf(u);
+        if (assigned != null)
         {
-        	attack(u, baseEnemy);
+        	return assigned;
         }
+        /// Get the closest enemy unit and base, attacking units before bases
+        long start = timer.start();
+        findClosestEnemy(units, u, result);
+        timer.end(BotProfiler.CLOSEST_ENEMY, start);
+        return (result.enemy != null) ? result.enemy : result.base;
+    }
+    
+    /** Fills attackers with the battle units that will attack this tick.
+     * Stacked workers, and ranged units next to the barracks, are moved out of the way instead of attacking, so
+     * they are left out and focus fire doesn't count damage from them that never arrives.
+     * @param units This tick's UnitIndex
+     * @param base Our base
+     */
+    private void collectAttackers(UnitIndex units, Unit base)
+    {
+        attackers.clear();
+        for (int i = 0; i < battleWorkers.size(); i++)
+        {
+        	Unit u = battleWorkers.get(i);
+        	if (base == null || roster.getRole(u) != UnitRoster.ROLE_STACKED_WORKER)
+        	{
+        		attackers.add(u);
+        	}
+        }
+        Unit barracks = units.getOurBarracks();
+        UnitBuffer ranged = units.getRanged();
+        for (int i = 0; i < ranged.size(); i++)
+        {
+        	Unit u = ranged.get(i);
+        	if (!isStackedRanged(u, barracks, base))
+        	{
+        		attackers.add(u);
+        	}
+        }
+        attackers.addFrom(units.getLight(), 0);
+    }
+    
+    /** Checks if a ranged unit is getting stuck next to the barracks and will be stacked up this tick.
+     * @param u Our ranged unit
+     * @param barracks Our barracks, can be null
+     * @param base Our base, can be null
+     * @return True if the unit will be stacked
+     */
+    private boolean isStackedRanged(Unit u, Unit barracks, Unit base)
+    {
+        return barracks != null && base != null && getDistance(barracks, u) == 1;
+    }
+    
+    /** Shares out enemy units between all our battle units.
+     * Called once a tick after the workers have their roles. Does nothing in flow field mode, where targets come
+     * from the fields, or when focus fire is off, where each unit takes the closest enemy.
+     * @param units This tick's UnitIndex, attackers must already hold the units attacking this tick
+     */
+    private void assignTargets(UnitIndex units)
+    {
+        if (!focusFire || flowFieldMovement)
+        {
+        	return;
+        }
+        targets.assign(attackers, units.getEnemyCombatants(), grid, roster, threatAware ? threat : null);
     }
     
     /** Tells workers in a list to harvest resources.
-     * Gets the closest resource pile and closest base and orders workers to harvest between them.
-     * @param freeWorkers List of workers we want to harvest
-     * @param pgs The PhysicalGameSatet
+     * The HarvestScheduler shares the workers out between the piles near our stockpiles, each worker returning to
+     * the stockpile closest to its pile. Workers left without a pile go and fight instead.
+     * @param freeWorkers Workers we want to harvest
+     * @param from Index of the first worker in freeWorkers that should harvest
+     * @param units This tick's UnitIndex
      * @param p Our player
      */
-    private void workerHarvest(List<Unit> freeWorkers, PhysicalGameState pgs, Player p)
+    private void workerHarvest(UnitBuffer freeWorkers, int from, UnitIndex units, Player p)
     {
-    	for (Unit u : freeWorkers) 
+    	long start = profiler.start();
+    	harvester.assign(freeWorkers, from, grid, threatAware ? threat : null);
+    	for (int i = from; i < freeWorkers.size(); i++) 
         {
-            Unit closestBase = null; ///< The closest base to the worker
-            Unit closestResource = null; ///< The closest resource pile to the worker
-            int closestDistance = 0; ///< Current closest distance
-            /// Get closest base
-            for (Unit u2 : pgs.getUnits()) 
-            {
-                if (u2.getType().isStockpile && u2.getPlayer() == p.getID()) 
-                {
-                    int d = getDistance(u,u2);
-                    if (closestBase == null || d < closestDistance) 
-                    {
-                        closestBase = u2;
-                        closestDistance = d;
-                    }
-                }
-            }
-            /// Reset closestDistance
-            closestDistance = 0;
-            /// Get closest resource
-            for (Unit u2 : pgs.getUnits()) 
-            {
-                if (u2.getType().isResource) 
-                {
-                    int d = getDistance(u,u2);
-                    if (closestResource == null || d < closestDistance) 
-                    {
-                        closestResource = u2;
-                        closestDistance = d;
-                    }
-                }
-            }
-            /// If we have a base and resource then harvest, so long as the resource isn't too far away
-            if (closestResource != null && closestBase != null && closestDistance <= 4) 
+    		Unit u = freeWorkers.get(i);
+    		Unit pile = harvester.getPile(i - from);
+            /// Harvest if the scheduler found this worker a pile
+            if (pile != null) 
             {
-            	harvest(u, closestResource, closestBase);
+            	harvest(u, pile, harvester.getStockpile(i - from));
             }
-            else if (closestDistance >= 8)
+            else
             {
-            	battleUnitBehavior(u,p,pgs);
+            	battleUnitBehavior(u,p,units);
             }
         }
+    	profiler.end(BotProfiler.HARVEST, start);
     }
     
     /*===================Utility===============*/
     
-    /** Gets the closest enemy unit and enemy base.
-     * Finds the closest enemy to the given unit, looks for units and bases and returns both the closest
-     * unit and base in a Map format
-     * @param pgs The PhysicalGameState
-     * @param u The unit to check from
-     * @param p Our player
-     * @return Returns a Map with [key:unit] keys are "enemy" or "base"
+    /** Gets where to build a barracks for a base.
+     * Starting bases come straight from the map analysis, the search for any other base is only run once.
+     * @param base Our base
+     * @return The site as x + y * width, or -1 if there is nowhere to build
      */
-    private Map<String, Unit> getClosestEnemy(PhysicalGameState pgs, Unit u, Player p)
+    private int getBarracksSite(Unit base)
     {
-    	Map<String, Unit> closestBaseAndEnemy = new HashMap<String, Unit>(); ///< Map to hold the enemy and base
-        int closestDistance = 10; ///< The current closest distance
-        /// Populate the closestBaseAndEnemy Map
-        for (Unit u2 : pgs.getUnits()) 
+        int cell = base.getX() + base.getY() * analysis.getWidth();
+        if (cell != barracksSiteBase)
         {
-            if (u2.getPlayer() >= 0 && u2.getPlayer() != p.getID()) 
-            {
-                int d = getDistance(u,u2);
-                /// If the unit is a base
-                if (u2.getType() == baseType)
-                {
-                	closestBaseAndEnemy.put("base",u2);
-                }
-                /// If the unit is another type of enemy
-                else if (closestBaseAndEnemy.get("enemy") == null || d < closestDistance) 
-                {
-                	closestBaseAndEnemy.put("enemy",u2);
-                    closestDistance = d;
-                }
-            }
+        	barracksSite = analysis.getBarracksSite(base.getX(), base.getY());
+        	barracksSiteBase = cell;
         }
-        return closestBaseAndEnemy;
+        return barracksSite;
+    }
+    
+    /** Switches to the tuned parameters for a map.
+     * Anything the last map's tuned values replaced is put back first, so a map without an entry in the config
+     * plays with the bot's own parameters. Names this version of the bot doesn't have are skipped.
+     * @param hash The map's hash from MapAnalysis.hashOf
+     */
+    private void applyMapConfig(long hash)
+    {
+        if (mapConfig == null)
+        {
+        	mapConfig = MapConfig.current();
+        }
+        for (Map.Entry<String, String> e : untuned.entrySet())
+        {
+        	setParameter(e.getKey(), e.getValue());
+        }
+        untuned.clear();
+        for (Map.Entry<String, String> e : mapConfig.get(hash).entrySet())
+        {
+        	try
+        	{
+        		String before = getParameter(e.getKey());
+        		setParameter(e.getKey(), e.getValue());
+        		untuned.put(e.getKey(), before);
+        	}
+        	catch (IllegalArgumentException ex)
+        	{
+        		/// Unknown name or a bad value, keep our own
+        	}
+        }
+    }
+    
+    /** Gets the closest enemy unit and enemy base.
+     * Finds the closest enemy to the given unit, looks for units and bases and fills in both the closest
+     * unit and base
+     * @param units This tick's UnitIndex
+     * @param u The unit to check from
+     * @param result Filled in with the closest enemy and the enemy base, either can be null
+     */
+    void getClosestEnemy(UnitIndex units, Unit u, ClosestEnemy result)
+    {
+        long start = profiler.start();
+        findClosestEnemy(units, u, result);
+        profiler.end(BotProfiler.CLOSEST_ENEMY, start);
+    }
+    
+    /** getClosestEnemy without the profiling, safe to call from any thread. */
+    private void findClosestEnemy(UnitIndex units, Unit u, ClosestEnemy result)
+    {
+        /// The last enemy base in unit order
+        result.base = units.getEnemyBases().last();
+        /// Closest of the other enemy units
+        result.enemy = grid.closest(SpatialGrid.ENEMY, u.getX(), u.getY());
     }
     
     /** Check what side of the map we are on.
@@ -505,38 +950,397 @@ public class WorkersForLife extends AbstractionLayerAI
      * Used when we have units not doing anything to get them out the way of the base or barracks.
      * Checks if we are on the left or right then stacks the units below of above the base respectively.
      * Checks that there is a path that the unit can use to get to that location, this avoids units trying to go
-     * to already used locations for stacking.
+     * to already used locations for stacking. Paths are checked against the shared DistanceFieldCache rather than
+     * running a path finding search for every try. The cells come from the map analysis, which leaves out walls
+     * and resource piles. When threat aware, cells enemies can hit are skipped.
      * @param u The unit we want to stack
      * @param gs The GameState
      * @param offset This offset moves the Y value of stacking position so units can be stacked in different columns
      * @param base Our base
-     * @param loops The numbers of tries to stack a unit, each tries moves the x value by one to find a free space
+     * @param loops The numbers of tries to stack a unit, each try moves one further along the column to find a free space
      */
-    private void stackUnits(Unit u, GameState gs, int offset, Unit base, int loops) {
+    void stackUnits(Unit u, GameState gs, int offset, Unit base, int loops) {
+        long start = profiler.start();
         PhysicalGameState pgs = gs.getPhysicalGameState();
         /// Check what side of the map we are on
     	boolean onTheLeft = areWeOnTheLeft(pgs, base);
+    	/// Make sure the reachability field matches this tick
+    	updateParkingField(gs, onTheLeft, loops);
     	/// Try to stack unit on the correct side if a path exists
-    	for (int n = 0; n < loops; n++)  {
-        	if (onTheLeft) {
-        		boolean checkPath = pf.pathExists(u, ((0 + offset)+(pgs.getHeight()-n)*pgs.getWidth()), gs, null);
-        		if (checkPath) {
-        			move(u, (0+offset), (pgs.getHeight()-n));
-        			break;
-        		}
+    	int[] cells = analysis.getParkingCells(onTheLeft, offset);
+    	int n = 0;
+    	int unsafe = 0; ///< Cells skipped without a reachability check
+    	for (; n < loops && n < cells.length; n++)  {
+    		int pos = cells[n];
+    		/// When threat aware, don't park where enemies can hit
+    		if (threatAware && threat.getDanger(pos) > 0) {
+    			unsafe++;
+    			continue;
+    		}
+    		if (parkingField.isReachable(u, pos)) {
+    			move(u, pos % pgs.getWidth(), pos / pgs.getWidth());
+    			n++;
+    			break;
+    		}
+    	}
+    	profiler.countReachabilityChecks(n - unsafe);
+    	profiler.end(BotProfiler.STACK, start);
+    }
+    
+    /** Seeds the DistanceFieldCache with every stacking cell for our side and brings it up to date.
+     * Both stacking columns are always seeded so switching between them does not force a rebuild.
+     * @param gs The GameState
+     * @param onTheLeft If our base is on the left side of the map
+     * @param loops The numbers of tries stackUnits makes
+     */
+    private void updateParkingField(GameState gs, boolean onTheLeft, int loops) {
+    	if (parkingCells.length < STACK_COLUMNS * loops) {
+    		parkingCells = new int[STACK_COLUMNS * loops];
+    	}
+    	int count = 0;
+    	for (int offset = 0; offset < STACK_COLUMNS; offset++) {
+    		int[] cells = analysis.getParkingCells(onTheLeft, offset);
+    		for (int n = 0; n < loops && n < cells.length; n++) {
+    			parkingCells[count++] = cells[n];
+    		}
+    	}
+    	parkingField.setParkingCells(parkingCells, count);
+    	parkingField.refresh(gs);
+    }
+    
+    @Override
+    public List<ParameterSpecification> getParameters() {
+        List<ParameterSpecification> parameters = new ArrayList<>();
+        parameters.add(new ParameterSpecification("FlowFieldMovement", boolean.class, false));
+        parameters.add(new ParameterSpecification("FocusFire", boolean.class, false));
+        parameters.add(new ParameterSpecification("ThreatAware", boolean.class, false));
+        parameters.add(new ParameterSpecification("Lookahead", boolean.class, false));
+        parameters.add(new ParameterSpecification("LookaheadBudget", int.class, 50));
+        parameters.add(new ParameterSpecification("LookaheadHorizon", int.class, 100));
+        parameters.add(new ParameterSpecification("LookaheadInterval", int.class, 10));
+        parameters.add(new ParameterSpecification("ParallelThreshold", int.class, 128));
+        parameters.add(intParameter("MaxWorkers", 5, 1, 15));
+        parameters.add(intParameter("BarracksResources", 6, 5, 15));
+        parameters.add(intParameter("BarracksWorkers", 4, 1, 10));
+        parameters.add(intParameter("WorkerReserve", 4, 1, 10));
+        parameters.add(intParameter("HarvestRange", 8, 1, 20));
+        parameters.add(intParameter("LargeMapArea", 64, 0, 1024));
+        parameters.add(intParameter("StackThreshold", 3, 2, 10));
+        parameters.add(new ParameterSpecification("BuildOrder", boolean.class, false));
+        parameters.add(new ParameterSpecification("ArmyRanged", int.class, 4));
+        parameters.add(new ParameterSpecification("ArmyLight", int.class, 4));
+        return parameters;
+    }
+    
+    /** Makes an int parameter with the range the ParameterTuner searches.
+     * @param name The parameter name, with a get and set method of the same name
+     * @param value The default value
+     * @param min The smallest value worth trying
+     * @param max The largest value worth trying
+     * @return The parameter
+     */
+    private static ParameterSpecification intParameter(String name, int value, int min, int max)
+    {
+        ParameterSpecification parameter = new ParameterSpecification(name, int.class, value);
+        parameter.setRange(min, max);
+        return parameter;
+    }
+    
+    /** Sets a parameter by name through its set method, as the microRTS front ends do.
+     * @param name A name from getParameters
+     * @param value The value as text, a number for int parameters and true or false for boolean ones
+     * @throws IllegalArgumentException If there is no such parameter or the value doesn't parse
+     */
+    public void setParameter(String name, String value)
+    {
+        for (ParameterSpecification parameter : getParameters())
+        {
+        	if (!parameter.name.equals(name))
+        	{
+        		continue;
+        	}
+        	Object parsed;
+        	if (parameter.type == int.class)
+        	{
+        		parsed = Integer.parseInt(value.trim());
+        	}
+        	else if (parameter.type == boolean.class && (value.trim().equals("true") || value.trim().equals("false")))
+        	{
+        		parsed = Boolean.valueOf(value.trim());
+        	}
+        	else
+        	{
+        		throw new IllegalArgumentException("Bad value " + value + " for parameter " + name);
+        	}
+        	try
+        	{
+        		WorkersForLife.class.getMethod("set" + name, parameter.type).invoke(this, parsed);
+        	}
+        	catch (ReflectiveOperationException e)
+        	{
+        		throw new IllegalStateException("Can't set parameter " + name, e);
         	}
-        	else {
-        		boolean checkPath = pf.pathExists(u, ((pgs.getWidth()-1-offset)+(0+n)*pgs.getWidth()), gs, null);
-        		if (checkPath) {
-        			move(u, ((pgs.getWidth()-1)-offset), 0+n);
-        			break;
+        	return;
+        }
+        throw new IllegalArgumentException("Unknown parameter " + name);
+    }
+    
+    /** Gets a parameter by name through its get method.
+     * @param name A name from getParameters
+     * @return The value as text, in the form setParameter takes
+     * @throws IllegalArgumentException If there is no such parameter
+     */
+    public String getParameter(String name)
+    {
+        for (ParameterSpecification parameter : getParameters())
+        {
+        	if (parameter.name.equals(name))
+        	{
+        		try
+        		{
+        			return String.valueOf(WorkersForLife.class.getMethod("get" + name).invoke(this));
+        		}
+        		catch (ReflectiveOperationException e)
+        		{
+        			throw new IllegalStateException("Can't get parameter " + name, e);
         		}
         	}
-    	}
+        }
+        throw new IllegalArgumentException("Unknown parameter " + name);
+    }
+    
+    public boolean getFlowFieldMovement() {
+        return flowFieldMovement;
+    }
+    
+    /** Switches flow field mode on or off.
+     * When on, each tick builds one flow field from all enemy units and one from enemy bases, and battle units
+     * read their target and next step from them. A per unit path search is only used when the fields can't reach a target.
+     * @param flowFieldMovement True to use flow fields
+     */
+    public void setFlowFieldMovement(boolean flowFieldMovement) {
+        this.flowFieldMovement = flowFieldMovement;
+    }
+    
+    public boolean getFocusFire() {
+        return focusFire;
+    }
+    
+    /** Switches focus fire on or off.
+     * When on, targets are shared out between all our battle units once a tick so nearby units gang up on the
+     * weakest enemy in reach without overkilling it. When off, each unit attacks the closest enemy.
+     * Off by default until its win rate is measured: compare TournamentRunner -opponents WorkerRush run with
+     * -param FocusFire=true and with -param FocusFire=false, and switch the default on if it wins more.
+     * @param focusFire True to share out targets
+     */
+    public void setFocusFire(boolean focusFire) {
+        this.focusFire = focusFire;
+    }
+    
+    public boolean getThreatAware() {
+        return threatAware;
+    }
+    
+    /** Switches the threat map on or off.
+     * When on, each tick brings a ThreatMap up to date from the enemies that moved, and harvesting prefers piles
+     * enemies can't reach, units are not stacked in cells enemies can hit, and focus fire goes for enemies their
+     * friends don't cover first.
+     * @param threatAware True to use the threat map
+     */
+    public void setThreatAware(boolean threatAware) {
+        this.threatAware = threatAware;
+    }
+    
+    /** @return The threat map, only up to date when threat aware */
+    public ThreatMap getThreatMap() {
+        return threat;
+    }
+    
+    public boolean getLookahead() {
+        return lookahead;
+    }
+    
+    /** Switches the lookahead search on or off.
+     * When on, every few cycles the bot clones the game state and plays each PlayoutScript a short way ahead
+     * against its own default script on all cores, then plays the script that scored best until the next search.
+     * @param lookahead True to search
+     */
+    public void setLookahead(boolean lookahead) {
+        this.lookahead = lookahead;
+    }
+    
+    public int getLookaheadBudget() {
+        return lookaheadBudget;
+    }
+    
+    /** @param lookaheadBudget Milliseconds each lookahead search may take */
+    public void setLookaheadBudget(int lookaheadBudget) {
+        this.lookaheadBudget = lookaheadBudget;
+    }
+    
+    public int getLookaheadHorizon() {
+        return lookaheadHorizon;
+    }
+    
+    /** @param lookaheadHorizon Cycles each rollout plays */
+    public void setLookaheadHorizon(int lookaheadHorizon) {
+        this.lookaheadHorizon = lookaheadHorizon;
+    }
+    
+    public int getLookaheadInterval() {
+        return lookaheadInterval;
+    }
+    
+    /** @param lookaheadInterval Cycles between lookahead searches */
+    public void setLookaheadInterval(int lookaheadInterval) {
+        this.lookaheadInterval = lookaheadInterval;
+    }
+    
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+    
+    /** Sets how many battle units it takes before their targets are picked on the ForkJoinPool.
+     * With fewer, each unit's target is picked as its behaviour runs. Both give the same actions.
+     * @param parallelThreshold Fewest battle units picked for in parallel, Integer.MAX_VALUE to never fork
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+    
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+    
+    /** @param maxWorkers Workers the base keeps training up to, the base trains while we have this many or fewer */
+    public void setMaxWorkers(int maxWorkers) {
+        this.maxWorkers = maxWorkers;
+    }
+    
+    public int getBarracksResources() {
+        return barracksResources;
     }
     
+    /** @param barracksResources Resources we need before building a barracks */
+    public void setBarracksResources(int barracksResources) {
+        this.barracksResources = barracksResources;
+    }
+    
+    public int getBarracksWorkers() {
+        return barracksWorkers;
+    }
+    
+    /** @param barracksWorkers Workers we need before building a barracks */
+    public void setBarracksWorkers(int barracksWorkers) {
+        this.barracksWorkers = barracksWorkers;
+    }
+    
+    public int getWorkerReserve() {
+        return workerReserve;
+    }
+    
+    /** @param workerReserve Resources we need before training a worker once we have a barracks */
+    public void setWorkerReserve(int workerReserve) {
+        this.workerReserve = workerReserve;
+    }
+    
+    public int getHarvestRange() {
+        return harvester.getHarvestRange();
+    }
+    
+    /** @param harvestRange Furthest a resource pile can be from one of our stockpiles, in steps, and still be harvested */
+    public void setHarvestRange(int harvestRange) {
+        harvester.setHarvestRange(harvestRange);
+    }
+    
+    public int getLargeMapArea() {
+        return largeMapArea;
+    }
+    
+    /** @param largeMapArea Maps with more cells than this keep an extra free worker */
+    public void setLargeMapArea(int largeMapArea) {
+        this.largeMapArea = largeMapArea;
+    }
+    
+    public int getStackThreshold() {
+        return stackThreshold;
+    }
+    
+    /** @param stackThreshold Battle workers at which all but stackThreshold - 1 of them are stacked out of the way */
+    public void setStackThreshold(int stackThreshold) {
+        this.stackThreshold = stackThreshold;
+    }
+    
+    public boolean getBuildOrder() {
+        return buildOrder;
+    }
+    
+    /** Switches the planned build order on or off.
+     * When on, the first tick with our base looks up a BuildOrder for the map, found by simulating our economy
+     * against the army of ArmyRanged and ArmyLight units. The plan then sets how many workers harvest, how many
+     * workers we need before building the barracks and which army unit the barracks trains next. Playout
+     * scripts still override it. When off the bot's own parameters decide.
+     * @param buildOrder True to follow a planned build order
+     */
+    public void setBuildOrder(boolean buildOrder) {
+        this.buildOrder = buildOrder;
+        plan = null;
+    }
+    
+    public int getArmyRanged() {
+        return armyRanged;
+    }
+    
+    /** @param armyRanged Ranged units in the army the build order plans for */
+    public void setArmyRanged(int armyRanged) {
+        this.armyRanged = armyRanged;
+        plan = null;
+    }
+    
+    public int getArmyLight() {
+        return armyLight;
+    }
+    
+    /** @param armyLight Light units in the army the build order plans for */
+    public void setArmyLight(int armyLight) {
+        this.armyLight = armyLight;
+        plan = null;
+    }
+    
+    /** @return This game's build order, null if not planning or not planned yet */
+    public BuildOrder getPlan() {
+        return plan;
+    }
+    
+    /** @return The playout script being played */
+    public PlayoutScript getScript() {
+        return script;
+    }
+    
+    /** Writes the profile of the game that just ended, if profiling is on.
+     * @param winner The winning player, -1 for a draw
+     */
     @Override
-    public List<ParameterSpecification> getParameters() {
-        return new ArrayList<>();
+    public void gameOver(int winner) {
+        profiler.dump(winner);
+    }
+    
+    /** @return The profiler timing this bot's behaviours */
+    public BotProfiler getProfiler() {
+        return profiler;
+    }
+    
+    /** @return How well the path cache did, and the throughput of the lookahead search if it has run */
+    @Override
+    public String statisticsString() {
+        String stats = "WorkersForLife paths: " + pathCache;
+        return (search == null) ? stats : stats + ", lookahead: " + search;
+    }
+    
+    /** The closest enemy unit and the enemy base to attack, as found by getClosestEnemy. */
+    static final class ClosestEnemy
+    {
+        Unit enemy; ///< The closest enemy that is not a base
+        Unit base; ///< The enemy base
     }
 }
@@ -6,63 +6,247 @@ package tests;
 
 
 import ai.core.AI;
-import ai.RandomBiasedAI;
 import ai.abstraction.WorkerRush;
 import ai.abstraction.pathfinding.BFSPathFinding;
-import ai.mcts.naivemcts.NaiveMCTS;
 import bot.*;
+import gui.PhysicalGameStateJFrame;
 import gui.PhysicalGameStatePanel;
-import java.io.OutputStreamWriter;
-import javax.swing.JFrame;
+import java.awt.KeyboardFocusManager;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import rts.GameState;
 import rts.PhysicalGameState;
 import rts.PlayerAction;
 import rts.units.UnitTypeTable;
-import util.XMLWriter;
 
 /**
+ * Plays a game in a window, with the simulation on its own thread so drawing never holds it up.
+ * The simulation publishes a copy of the game state to the window whenever the window has taken the last
+ * one, so when drawing falls behind frames are dropped rather than cycles slowed. The window redraws on a
+ * Swing timer from whatever was published last.
+ *
+ * Keys:
+ *   space      pause or carry on
+ *   s / right  play one cycle while paused
+ *   1          normal speed, one cycle every PERIOD ms
+ *   4          four times normal speed
+ *   u          uncapped, as fast as the AIs can decide
+ *   j          jump ahead to a cycle, then pause there
  *
  * @author santi
  */
 public class GameVisualSimulationTest {
+    static final int MAXCYCLES = 5000;
+    static final int PERIOD = 20; ///< Milliseconds per cycle at normal speed
+    static final int REDRAW = 16; ///< Milliseconds between redraws
+
     public static void main(String args[]) throws Exception {
 
         UnitTypeTable utt = new UnitTypeTable();              //8x8/basesWorkers8x8 //NoWhereToRun9x8 //basesWorkers8x8Obstacle.xml
         PhysicalGameState pgs = PhysicalGameState.load("../microrts/maps/24x24/basesWorkers24x24.xml", utt);
 
         GameState gs = new GameState(pgs, utt);
-        int MAXCYCLES = 5000;
-        int PERIOD = 20;
-        boolean gameover = false;
-        
+
         //AI ai1 = new WorkerRush(utt, new BFSPathFinding());
         AI ai1 = new WorkersForLife(utt);
         AI ai2 = new WorkerRush(utt, new BFSPathFinding());
-        
-        JFrame w = PhysicalGameStatePanel.newVisualizer(gs,640,640,false,PhysicalGameStatePanel.COLORSCHEME_BLACK);
-//        JFrame w = PhysicalGameStatePanel.newVisualizer(gs,640,640,false,PhysicalGameStatePanel.COLORSCHEME_WHITE);
 
-        long nextTimeToUpdate = System.currentTimeMillis() + PERIOD;
-        do{
-            if (System.currentTimeMillis()>=nextTimeToUpdate) {
-                PlayerAction pa1 = ai1.getAction(0, gs);
-                PlayerAction pa2 = ai2.getAction(1, gs);
-                gs.issueSafe(pa1);
-                gs.issueSafe(pa2);
-
-                // simulate:
-                gameover = gs.cycle();
+        Controls controls = new Controls();
+        AtomicReference<GameState> frame = new AtomicReference<GameState>(gs.clone());
+        PhysicalGameStateJFrame w = PhysicalGameStatePanel.newVisualizer(gs.clone(),640,640,false,PhysicalGameStatePanel.COLORSCHEME_BLACK);
+//        PhysicalGameStateJFrame w = PhysicalGameStatePanel.newVisualizer(gs.clone(),640,640,false,PhysicalGameStatePanel.COLORSCHEME_WHITE);
+
+        /// Redraw from the last published frame, skipping the redraw if nothing new was published
+        Timer redraw = new Timer(REDRAW, e -> {
+            GameState latest = frame.getAndSet(null);
+            if (latest != null) {
+                w.getPanel().setStateDirect(latest);
                 w.repaint();
-                nextTimeToUpdate+=PERIOD;
-            } else {
-                try {
-                    Thread.sleep(1);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
             }
-        }while(!gameover && gs.getTime()<MAXCYCLES);
-        
+            w.setTitle("WorkersForLife - cycle " + controls.getCycle() + " - " + controls);
+        });
+        redraw.start();
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(e -> {
+            if (e.getID() == KeyEvent.KEY_PRESSED) {
+                keyPressed(e, controls, w);
+            }
+            return false;
+        });
+
+        Thread simulation = new Thread(() -> {
+            try {
+                simulate(gs, ai1, ai2, controls, frame);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "simulation");
+        simulation.start();
+        simulation.join();
+
         System.out.println("Game Over");
-    }    
+    }
+
+    /** Plays the game, paced by the controls, publishing frames as it goes.
+     * @param gs The game
+     * @param ai1 Player 0
+     * @param ai2 Player 1
+     * @param controls Pause, step and speed, read before every cycle
+     * @param frame Where frames are published, a copy is only made when the last one has been taken
+     */
+    static void simulate(GameState gs, AI ai1, AI ai2, Controls controls, AtomicReference<GameState> frame) throws Exception {
+        boolean gameover = false;
+        long nextCycle = System.nanoTime();
+        do{
+            /// Make sure the window shows where we stopped before waiting
+            if (controls.isPaused()) {
+                frame.set(gs.clone());
+            }
+            if (controls.awaitCycle(nextCycle)) {
+                nextCycle = System.nanoTime();
+            }
+
+            PlayerAction pa1 = ai1.getAction(0, gs);
+            PlayerAction pa2 = ai2.getAction(1, gs);
+            gs.issueSafe(pa1);
+            gs.issueSafe(pa2);
+
+            // simulate:
+            gameover = gs.cycle();
+            controls.cycled(gs.getTime());
+            nextCycle += controls.getPeriodNanos();
+            if (frame.get() == null) {
+                frame.set(gs.clone());
+            }
+        }while(!gameover && gs.getTime()<MAXCYCLES);
+        frame.set(gs.clone());
+    }
+
+    /** Handles a key press on the window. */
+    static void keyPressed(KeyEvent e, Controls controls, PhysicalGameStateJFrame w) {
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_SPACE: controls.togglePause(); break;
+            case KeyEvent.VK_S:
+            case KeyEvent.VK_RIGHT: controls.step(); break;
+            case KeyEvent.VK_1: controls.setSpeed(1); break;
+            case KeyEvent.VK_4: controls.setSpeed(4); break;
+            case KeyEvent.VK_U: controls.setSpeed(0); break;
+            case KeyEvent.VK_J:
+                /// Ask after the key event is done with, the dialog takes the focus
+                SwingUtilities.invokeLater(() -> {
+                    String cycle = JOptionPane.showInputDialog(w, "Jump to cycle", controls.getCycle());
+                    if (cycle != null) {
+                        try {
+                            controls.jumpTo(Integer.parseInt(cycle.trim()));
+                        } catch (NumberFormatException ex) {
+                            JOptionPane.showMessageDialog(w, cycle + " is not a cycle");
+                        }
+                    }
+                });
+                break;
+            default: break;
+        }
+    }
+
+    /** Pause, step, speed and jump, shared between the window and the simulation thread.
+     * The simulation waits on this instead of polling, and any change wakes it.
+     */
+    static class Controls {
+        private boolean paused = false;
+        private int steps = 0; ///< Cycles to play while paused
+        private int speed = 1; ///< Multiple of normal speed, 0 for uncapped
+        private int jumpTo = -1; ///< Cycle to run to uncapped and then pause at, -1 if none
+        private int cycle = 0; ///< Game time after the last cycle
+
+        /** Waits until the next cycle may be played.
+         * @param nextCycle When the next cycle is due at the current speed, by System.nanoTime
+         * @return True unless the cycle was played on time after waiting for it, so after a pause, a late cycle
+         *         or uncapped play the pacing starts again from now rather than rushing to catch up
+         */
+        synchronized boolean awaitCycle(long nextCycle) throws InterruptedException {
+            boolean onTime = false;
+            while (true) {
+                if (jumpTo >= 0) {
+                    return true;
+                }
+                if (paused) {
+                    if (steps > 0) {
+                        steps--;
+                        return true;
+                    }
+                    onTime = false;
+                    wait();
+                    continue;
+                }
+                long left = nextCycle - System.nanoTime();
+                if (speed == 0 || left <= 0) {
+                    return speed == 0 || !onTime;
+                }
+                onTime = true;
+                wait(left / 1000000, (int) (left % 1000000));
+            }
+        }
+
+        /** Called by the simulation after each cycle. */
+        synchronized void cycled(int time) {
+            cycle = time;
+            if (jumpTo >= 0 && time >= jumpTo) {
+                jumpTo = -1;
+                paused = true;
+            }
+        }
+
+        synchronized long getPeriodNanos() {
+            return (speed == 0 || jumpTo >= 0) ? 0 : PERIOD * 1000000L / speed;
+        }
+
+        synchronized boolean isPaused() {
+            return paused && steps == 0 && jumpTo < 0;
+        }
+
+        synchronized int getCycle() {
+            return cycle;
+        }
+
+        synchronized void togglePause() {
+            paused = !paused;
+            steps = 0;
+            notifyAll();
+        }
+
+        synchronized void step() {
+            paused = true;
+            steps++;
+            notifyAll();
+        }
+
+        /** @param speed Multiple of normal speed, 0 for uncapped */
+        synchronized void setSpeed(int speed) {
+            this.speed = speed;
+            notifyAll();
+        }
+
+        /** Runs uncapped to a cycle and pauses there. The game can't go back, so an earlier cycle just pauses. */
+        synchronized void jumpTo(int target) {
+            if (target > cycle) {
+                jumpTo = target;
+            } else {
+                paused = true;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (jumpTo >= 0) {
+                return "jumping to " + jumpTo;
+            }
+            if (paused) {
+                return "paused";
+            }
+            return speed == 0 ? "uncapped" : speed + "x";
+        }
+    }
 }
@@ -0,0 +1,246 @@
+package tests;
+
+import ai.core.AI;
+import bot.LongIntMap;
+
+import java.util.Arrays;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+import util.Pair;
+
+/** One game between our bot and an opponent, played without a window or frame pacing.
+ * Runs the same loop as GameVisualSimulationTest as fast as the two AIs can decide and keeps
+ * the result, how long our bot took to decide each tick, and how many resources its workers brought home.
+ * Also keeps a hash of every action the bot issued, so two runs of a game can be checked for making the
+ * same decisions. Units are hashed by position rather than ID, as IDs depend on what else ran in the JVM.
+ * @author HoaxShark
+ */
+public class HeadlessGame
+{
+    private final AI bot; ///< The AI being evaluated
+    private final AI opponent; ///< The AI it plays against
+    private final int botPlayer; ///< Which player the bot controls, 0 or 1
+    private final GameState gs;
+    private final int maxCycles;
+
+    private int winner = -1; ///< Winning player, -1 for a draw
+    private int cycles = 0; ///< How many cycles the game lasted
+    private int ticks = 0; ///< How many times the bot was asked for an action
+    private long totalDecisionNanos = 0; ///< Time the bot spent in getAction over the whole game
+    private long maxDecisionNanos = 0; ///< Slowest single getAction call
+    private long[] decisionNanos = new long[1024]; ///< Time of each getAction call, the first ticks of it used
+    private long actionHash = 0xcbf29ce484222325L; ///< FNV-1a hash of the bot's actions so far
+    private int income = 0; ///< Resources the bot's workers returned to its stockpiles
+    private final LongIntMap carried = new LongIntMap(); ///< Resources each of the bot's workers carried after the last cycle
+    private TraceWriter trace = null; ///< Where every cycle is recorded, null to not record
+
+    /** Creates a game on a map, the bot and opponent should already be reset for this map's UnitTypeTable.
+     * @param bot The AI being evaluated
+     * @param opponent The AI to play against
+     * @param botPlayer Which player the bot controls, 0 or 1
+     * @param pgs The map to play on, used directly so pass a fresh copy
+     * @param utt The UnitTypeTable the map was loaded with
+     * @param maxCycles Cycle limit after which the game is a draw
+     */
+    public HeadlessGame(AI bot, AI opponent, int botPlayer, PhysicalGameState pgs, UnitTypeTable utt, int maxCycles)
+    {
+        this.bot = bot;
+        this.opponent = opponent;
+        this.botPlayer = botPlayer;
+        this.gs = new GameState(pgs, utt);
+        this.maxCycles = maxCycles;
+    }
+
+    /** Records the game to a trace as it is played, the trace is finished and closed when the game ends.
+     * @param trace A trace started on this game's GameState
+     * @return This game
+     */
+    public HeadlessGame setTrace(TraceWriter trace)
+    {
+        this.trace = trace;
+        return this;
+    }
+
+    /** Plays the game to the end or the cycle limit.
+     * @return This game, for reading the results
+     */
+    public HeadlessGame play() throws Exception
+    {
+        boolean gameover = false;
+        do
+        {
+            long start = System.nanoTime();
+            PlayerAction botAction = bot.getAction(botPlayer, gs);
+            long elapsed = System.nanoTime() - start;
+            PlayerAction opponentAction = opponent.getAction(1 - botPlayer, gs);
+            totalDecisionNanos += elapsed;
+            maxDecisionNanos = Math.max(maxDecisionNanos, elapsed);
+            if (ticks == decisionNanos.length)
+            {
+                decisionNanos = Arrays.copyOf(decisionNanos, ticks * 2);
+            }
+            decisionNanos[ticks] = elapsed;
+            ticks++;
+            hashActions(botAction);
+            if (trace != null)
+            {
+                trace.record(gs, botPlayer == 0 ? botAction : opponentAction, botPlayer == 0 ? opponentAction : botAction);
+            }
+            gs.issueSafe(botAction);
+            gs.issueSafe(opponentAction);
+
+            // simulate:
+            gameover = gs.cycle();
+            countIncome();
+        } while (!gameover && gs.getTime() < maxCycles);
+        cycles = gs.getTime();
+        winner = gs.winner();
+        if (trace != null)
+        {
+            trace.finish(winner);
+        }
+        bot.gameOver(winner);
+        opponent.gameOver(winner);
+        return this;
+    }
+
+    /** Adds the bot's actions for this cycle to the action hash.
+     * Hashes the cycle, then each unit's position, type and owner with the action's type and arguments, in the
+     * order the bot gave them.
+     */
+    private void hashActions(PlayerAction pa)
+    {
+        actionHash = mix(actionHash, gs.getTime());
+        if (pa == null)
+        {
+            return;
+        }
+        for (Pair<Unit, UnitAction> p : pa.getActions())
+        {
+            Unit u = p.m_a;
+            UnitAction a = p.m_b;
+            actionHash = mix(actionHash, u.getX());
+            actionHash = mix(actionHash, u.getY());
+            actionHash = mix(actionHash, u.getType().ID);
+            actionHash = mix(actionHash, u.getPlayer());
+            actionHash = mix(actionHash, a.getType());
+            actionHash = mix(actionHash, a.getDirection());
+            actionHash = mix(actionHash, a.getLocationX());
+            actionHash = mix(actionHash, a.getLocationY());
+            actionHash = mix(actionHash, a.getUnitType() == null ? -1 : a.getUnitType().ID);
+        }
+    }
+
+    private static long mix(long h, int v)
+    {
+        for (int i = 0; i < 4; i++)
+        {
+            h ^= (v >>> (i * 8)) & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Adds up what the bot's workers returned this cycle.
+     * A worker only stops carrying resources by returning them, so any drop in a live worker's load is income.
+     */
+    private void countIncome()
+    {
+        for (Unit u : gs.getPhysicalGameState().getUnits())
+        {
+            if (u.getPlayer() == botPlayer && u.getType().canHarvest)
+            {
+                int before = carried.get(u.getID(), 0);
+                if (u.getResources() < before)
+                {
+                    income += before - u.getResources();
+                }
+                carried.put(u.getID(), u.getResources());
+            }
+        }
+    }
+
+    /** @return 1 if the bot won, -1 if it lost and 0 for a draw */
+    public int getOutcome()
+    {
+        if (winner == -1)
+        {
+            return 0;
+        }
+        return winner == botPlayer ? 1 : -1;
+    }
+
+    public int getBotPlayer()
+    {
+        return botPlayer;
+    }
+
+    public int getWinner()
+    {
+        return winner;
+    }
+
+    public int getCycles()
+    {
+        return cycles;
+    }
+
+    public int getTicks()
+    {
+        return ticks;
+    }
+
+    public long getTotalDecisionNanos()
+    {
+        return totalDecisionNanos;
+    }
+
+    public long getMaxDecisionNanos()
+    {
+        return maxDecisionNanos;
+    }
+
+    /** Gets a percentile of the bot's getAction times, by nearest rank.
+     * @param percentile From 0 to 100, 50 for the median
+     * @return The time in nanoseconds, 0 if the bot never decided
+     */
+    public long getDecisionNanosPercentile(double percentile)
+    {
+        if (ticks == 0)
+        {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(decisionNanos, ticks);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * ticks);
+        return sorted[Math.max(0, Math.min(ticks - 1, rank - 1))];
+    }
+
+    /** @return Hash of every action the bot issued, equal for two runs that made the same decisions */
+    public long getActionHash()
+    {
+        return actionHash;
+    }
+
+    /** @return Resources the bot's workers returned over the whole game */
+    public int getIncome()
+    {
+        return income;
+    }
+
+    /** @return Resources returned per 1000 cycles */
+    public double getIncomePerKiloCycle()
+    {
+        return cycles == 0 ? 0 : income * 1000.0 / cycles;
+    }
+
+    public GameState getGameState()
+    {
+        return gs;
+    }
+}
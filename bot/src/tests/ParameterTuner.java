@@ -0,0 +1,260 @@
+package tests;
+
+import ai.core.ParameterSpecification;
+import bot.MapAnalysis;
+import bot.MapConfig;
+import bot.WorkersForLife;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/** Tunes WorkersForLife's int parameters for each map by successive halving, and writes the best to a MapConfig file.
+ * For each map a number of candidate settings are drawn at random from the ranges in getParameters, with the
+ * bot's own settings as the first candidate. Every round plays each candidate against every opponent in
+ * headless games on all cores, then drops the worse half by mean score (1 for a win, 0.5 for a draw). Scores
+ * carry over between rounds and each round plays twice as many games as the last, so the few settings left
+ * at the end are the ones measured most. The file is written after each map, so a run stopped part way keeps
+ * the maps it finished, and entries for maps not tuned in this run are kept.
+ * Games ignore any tuned values already in the file and play the candidate settings alone.
+ *
+ * Every round plays the same number of games, configs x games x opponents, and there are log2(configs) rounds;
+ * the run prints the total up front so it can be sized to fit a night.
+ *
+ * Arguments (all optional):
+ *   -maps a,b,c       map files (default the 8x8, 16x16 and 24x24 basesWorkers maps)
+ *   -opponents a,b    opponent names, see TournamentRunner.createOpponent (default WorkerRush,LightRush,RandomBiasedAI)
+ *   -params a,b       parameters to tune (default every int parameter with a range)
+ *   -configs N        candidate settings per map (default 32)
+ *   -games N          games per candidate and opponent in the first round (default 2), sides alternate
+ *   -threads N        worker threads (default the number of cores)
+ *   -cycles N         cycle limit per game (default 5000)
+ *   -seed N           seed for drawing candidates (default 1)
+ *   -out file         config file to update (default workersforlife.properties)
+ * @author HoaxShark
+ */
+public class ParameterTuner
+{
+    public static void main(String args[]) throws Exception
+    {
+        String[] maps = TournamentRunner.DEFAULT_MAPS;
+        String[] opponents = TournamentRunner.DEFAULT_OPPONENTS;
+        String[] names = null;
+        int configs = 32;
+        int games = 2;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxCycles = 5000;
+        long seed = 1;
+        File out = new File(MapConfig.DEFAULT_FILE);
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-maps": maps = args[i + 1].split(","); break;
+                case "-opponents": opponents = args[i + 1].split(","); break;
+                case "-params": names = args[i + 1].split(","); break;
+                case "-configs": configs = Integer.parseInt(args[i + 1]); break;
+                case "-games": games = Integer.parseInt(args[i + 1]); break;
+                case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "-cycles": maxCycles = Integer.parseInt(args[i + 1]); break;
+                case "-seed": seed = Long.parseLong(args[i + 1]); break;
+                case "-out": out = new File(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        /// The games must play the candidates, not whatever was tuned before
+        System.setProperty("workersforlife.config", "");
+        List<ParameterSpecification> tuned = tunedParameters(new WorkersForLife(new UnitTypeTable()), names);
+        MapConfig config = out.isFile() ? MapConfig.read(out) : new MapConfig();
+
+        int rounds = 0;
+        long totalGames = 0;
+        for (int n = configs, g = games; n > 1; n = (n + 1) / 2, g *= 2)
+        {
+            rounds++;
+            totalGames += (long) n * g * opponents.length;
+        }
+        System.out.println("Tuning " + names(tuned) + " with " + configs + " candidates over " + rounds + " rounds, "
+                + totalGames + " games per map, " + totalGames * maps.length + " in all");
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Random random = new Random(seed);
+        try
+        {
+            for (String map : maps)
+            {
+                long start = System.currentTimeMillis();
+                List<Candidate> candidates = drawCandidates(tuned, configs, random);
+                int roundGames = games;
+                int played = 0;
+                while (candidates.size() > 1)
+                {
+                    playRound(pool, candidates, map, opponents, roundGames, played, maxCycles);
+                    played += roundGames;
+                    candidates.sort((a, b) -> Double.compare(b.mean(), a.mean()));
+                    System.out.println(map + ": " + candidates.size() + " candidates after " + played
+                            + " games per opponent, best " + candidates.get(0));
+                    candidates = new ArrayList<Candidate>(candidates.subList(0, (candidates.size() + 1) / 2));
+                    roundGames *= 2;
+                }
+
+                Candidate best = candidates.get(0);
+                long hash = MapAnalysis.hashOf(PhysicalGameState.load(map, new UnitTypeTable()));
+                for (Map.Entry<String, String> e : best.values.entrySet())
+                {
+                    config.set(hash, e.getKey(), e.getValue());
+                }
+                config.setName(hash, map);
+                config.write(out);
+                System.out.println(map + ": best " + best + " in " + (System.currentTimeMillis() - start) / 1000.0
+                        + "s, written to " + out);
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Picks the parameters to tune.
+     * @param bot A bot to read the parameters from
+     * @param names The names asked for, or null for every int parameter with a range
+     * @return The parameters
+     */
+    private static List<ParameterSpecification> tunedParameters(WorkersForLife bot, String[] names)
+    {
+        List<ParameterSpecification> tuned = new ArrayList<ParameterSpecification>();
+        for (ParameterSpecification parameter : bot.getParameters())
+        {
+            boolean ranged = parameter.type == int.class && parameter.minValue != null && parameter.maxValue != null;
+            if (names == null ? ranged : Arrays.asList(names).contains(parameter.name))
+            {
+                if (!ranged)
+                {
+                    throw new IllegalArgumentException("Parameter " + parameter.name + " has no range to tune over");
+                }
+                tuned.add(parameter);
+            }
+        }
+        if (names != null && tuned.size() != names.length)
+        {
+            throw new IllegalArgumentException("Unknown parameter in " + Arrays.toString(names));
+        }
+        return tuned;
+    }
+
+    /** Draws candidate settings, the first being the defaults.
+     * @param tuned The parameters to set
+     * @param configs How many candidates
+     * @param random Where the values come from
+     * @return The candidates
+     */
+    private static List<Candidate> drawCandidates(List<ParameterSpecification> tuned, int configs, Random random)
+    {
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        for (int n = 0; n < configs; n++)
+        {
+            Candidate candidate = new Candidate();
+            for (ParameterSpecification parameter : tuned)
+            {
+                int value = (Integer) parameter.defaultValue;
+                if (n > 0)
+                {
+                    int min = (Integer) parameter.minValue;
+                    int max = (Integer) parameter.maxValue;
+                    value = min + random.nextInt(max - min + 1);
+                }
+                candidate.values.put(parameter.name, String.valueOf(value));
+            }
+            candidates.add(candidate);
+        }
+        return candidates;
+    }
+
+    /** Plays a round of games for every candidate and adds them to the candidates' scores.
+     * @param pool Where the games run
+     * @param candidates The candidates still in the race
+     * @param map The map to play on
+     * @param opponents Opponent names
+     * @param games Games per candidate and opponent
+     * @param played Games per candidate and opponent played in earlier rounds, so sides keep alternating
+     * @param maxCycles Cycle limit per game
+     */
+    private static void playRound(ExecutorService pool, List<Candidate> candidates, String map, String[] opponents,
+            int games, int played, int maxCycles) throws Exception
+    {
+        CompletionService<Integer> done = new ExecutorCompletionService<Integer>(pool);
+        int submitted = 0;
+        for (Candidate candidate : candidates)
+        {
+            WorkersForLife prototype = new WorkersForLife(new UnitTypeTable());
+            for (Map.Entry<String, String> e : candidate.values.entrySet())
+            {
+                prototype.setParameter(e.getKey(), e.getValue());
+            }
+            for (String opponent : opponents)
+            {
+                for (int game = played; game < played + games; game++)
+                {
+                    TournamentRunner.GameSpec spec = new TournamentRunner.GameSpec(map, opponent, game, game % 2, maxCycles);
+                    done.submit(() -> {
+                        candidate.add(TournamentRunner.playGame(prototype, spec).getOutcome());
+                        return 0;
+                    });
+                    submitted++;
+                }
+            }
+        }
+        for (int n = 0; n < submitted; n++)
+        {
+            done.take().get();
+        }
+    }
+
+    private static String names(List<ParameterSpecification> parameters)
+    {
+        List<String> names = new ArrayList<String>();
+        for (ParameterSpecification parameter : parameters)
+        {
+            names.add(parameter.name);
+        }
+        return String.join(",", names);
+    }
+
+    /** One setting of the tuned parameters and its results so far. */
+    private static class Candidate
+    {
+        final Map<String, String> values = new LinkedHashMap<String, String>(); ///< Parameter values by name
+        int games;
+        double score; ///< 1 per win and 0.5 per draw
+
+        synchronized void add(int outcome)
+        {
+            games++;
+            score += (outcome + 1) / 2.0;
+        }
+
+        synchronized double mean()
+        {
+            return games == 0 ? 0 : score / games;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return values + String.format(" scoring %.3f over %d games", mean(), games);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package tests;
+
+import ai.RandomBiasedAI;
+import ai.core.AI;
+import bot.WorkersForLife;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/** Checks a change to WorkersForLife against recorded baselines, for both its decisions and its speed.
+ * Plays a fixed set of games against WorkerRush and RandomBiasedAI on the bundled maps, from both sides.
+ * RandomBiasedAI is given a fixed seed per game, and the bot runs without lookahead and without tuned
+ * values, so every game plays the same way each time. For each game the suite keeps a hash of the actions
+ * the bot issued, the result and length, and the p50, p99 and max getAction times.
+ *
+ * Each game is played a few times one after another. The action hash must match between the runs or the
+ * game is reported as nondeterministic, and the times kept are the best of the runs, which are the least
+ * disturbed by anything else on the machine.
+ *
+ * Against the baselines file a game is then one of:
+ *   same       same decisions, times within the tolerance
+ *   slower     same decisions, p50 or p99 more than the tolerance above the baseline
+ *   faster     same decisions, p50 and p99 more than the tolerance below the baseline
+ *   changed    different actions, result or length; times are printed but not compared
+ *   new        no baseline for this game
+ * Times only mean something against baselines recorded on the same machine, decisions match anywhere.
+ * The exit code is 1 if any game changed or was nondeterministic, 2 if the only differences are slower
+ * games, and 0 otherwise, so a build can tell a behaviour change from a speed regression.
+ *
+ * Arguments (all optional):
+ *   -maps a,b,c       map files (default the 8x8, 16x16 and 24x24 basesWorkers maps)
+ *   -seeds N          RandomBiasedAI seeds per map and side (default 2)
+ *   -repeats N        runs of each game, for the determinism check and the best times (default 3)
+ *   -cycles N         cycle limit per game (default 3000)
+ *   -tolerance X      fraction a time may move before it counts (default 0.2)
+ *   -baselines file   baselines to compare against (default regression-baselines.csv)
+ *   -record           write the results to the baselines file instead of comparing, after checking a change
+ *                     was meant
+ *
+ * There are no baselines until they are recorded, and times only compare on the machine they were recorded on,
+ * so record them once before making a change with "ant RegressionSuiteRecord", which passes -record. Without a
+ * baselines file the suite stops straight away rather than reporting every game as new.
+ * @author HoaxShark
+ */
+public class RegressionSuite
+{
+    public static final String[] OPPONENTS = {"WorkerRush", "RandomBiasedAI"};
+    private static final String HEADER = "map,opponent,side,seed,result,cycles,actionHash,p50Us,p99Us,maxUs";
+
+    public static void main(String args[]) throws Exception
+    {
+        String[] maps = TournamentRunner.DEFAULT_MAPS;
+        int seeds = 2;
+        int repeats = 3;
+        int maxCycles = 3000;
+        double tolerance = 0.2;
+        File baselinesFile = new File("regression-baselines.csv");
+        boolean record = false;
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "-maps": maps = args[++i].split(","); break;
+                case "-seeds": seeds = Integer.parseInt(args[++i]); break;
+                case "-repeats": repeats = Integer.parseInt(args[++i]); break;
+                case "-cycles": maxCycles = Integer.parseInt(args[++i]); break;
+                case "-tolerance": tolerance = Double.parseDouble(args[++i]); break;
+                case "-baselines": baselinesFile = new File(args[++i]); break;
+                case "-record": record = true; break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        if (!record && !baselinesFile.isFile())
+        {
+            System.out.println("No baselines at " + baselinesFile + ", record them first with ant RegressionSuiteRecord");
+            System.exit(1);
+        }
+
+        /// Tuned values would make the results depend on a file outside the suite
+        System.setProperty("workersforlife.config", "");
+        WorkersForLife prototype = new WorkersForLife(new UnitTypeTable());
+        prototype.setLookahead(false);
+
+        List<Result> results = new ArrayList<Result>();
+        for (String map : maps)
+        {
+            for (String opponent : OPPONENTS)
+            {
+                /// WorkerRush has no randomness, one seed is enough
+                int n = opponent.equals("RandomBiasedAI") ? seeds : 1;
+                for (int side = 0; side < 2; side++)
+                {
+                    for (int seed = 0; seed < n; seed++)
+                    {
+                        results.add(new Result(map, opponent, side, seed));
+                    }
+                }
+            }
+        }
+
+        /// One untimed game so the first timed one is not paying for class loading and the JIT
+        playGame(prototype, results.get(0), maxCycles);
+
+        boolean nondeterministic = false;
+        for (Result result : results)
+        {
+            for (int run = 0; run < repeats; run++)
+            {
+                HeadlessGame game = playGame(prototype, result, maxCycles);
+                if (run == 0)
+                {
+                    result.outcome = game.getOutcome();
+                    result.cycles = game.getCycles();
+                    result.actionHash = game.getActionHash();
+                    result.p50 = game.getDecisionNanosPercentile(50);
+                    result.p99 = game.getDecisionNanosPercentile(99);
+                    result.max = game.getMaxDecisionNanos();
+                    continue;
+                }
+                if (game.getActionHash() != result.actionHash || game.getCycles() != result.cycles)
+                {
+                    result.nondeterministic = true;
+                    nondeterministic = true;
+                }
+                result.p50 = Math.min(result.p50, game.getDecisionNanosPercentile(50));
+                result.p99 = Math.min(result.p99, game.getDecisionNanosPercentile(99));
+                result.max = Math.min(result.max, game.getMaxDecisionNanos());
+            }
+        }
+
+        if (record)
+        {
+            if (nondeterministic)
+            {
+                printResults(results, new LinkedHashMap<String, Result>(), tolerance);
+                System.out.println("Not recording, some games did not repeat the same way");
+                System.exit(1);
+            }
+            writeBaselines(baselinesFile, results);
+            System.out.println("Recorded " + results.size() + " games to " + baselinesFile);
+            return;
+        }
+        System.exit(printResults(results, readBaselines(baselinesFile), tolerance));
+    }
+
+    /** Plays one game of the suite.
+     * @param prototype The bot to clone
+     * @param result Which game to play
+     * @param maxCycles Cycle limit
+     * @return The finished game
+     */
+    private static HeadlessGame playGame(AI prototype, Result result, int maxCycles) throws Exception
+    {
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load(result.map, utt);
+        AI bot = prototype.clone();
+        bot.reset(utt);
+        AI opponent = TournamentRunner.createOpponent(result.opponent, utt);
+        if (opponent instanceof RandomBiasedAI)
+        {
+            seed((RandomBiasedAI) opponent, result.seed);
+        }
+        return new HeadlessGame(bot, opponent, result.side, pgs, utt, maxCycles).play();
+    }
+
+    /** Replaces RandomBiasedAI's generator with a seeded one.
+     * It makes its own unseeded Random and has no way to set one, so the field is swapped by reflection.
+     */
+    private static void seed(RandomBiasedAI ai, long seed) throws ReflectiveOperationException
+    {
+        Field field = RandomBiasedAI.class.getDeclaredField("r");
+        field.setAccessible(true);
+        field.set(ai, new Random(seed));
+    }
+
+    /** Prints each game against its baseline and a summary.
+     * @return The exit code, see the class comment
+     */
+    private static int printResults(List<Result> results, Map<String, Result> baselines, double tolerance)
+    {
+        int same = 0, slower = 0, faster = 0, changed = 0, added = 0, nondeterministic = 0;
+        System.out.println("status," + HEADER + ",baselineP50Us,baselineP99Us");
+        for (Result result : results)
+        {
+            Result baseline = baselines.get(result.key());
+            String status;
+            if (result.nondeterministic)
+            {
+                status = "nondeterministic";
+                nondeterministic++;
+            }
+            else if (baseline == null)
+            {
+                status = "new";
+                added++;
+            }
+            else if (baseline.actionHash != result.actionHash || baseline.outcome != result.outcome
+                    || baseline.cycles != result.cycles)
+            {
+                status = "changed";
+                changed++;
+            }
+            else if (result.p50 > baseline.p50 * (1 + tolerance) || result.p99 > baseline.p99 * (1 + tolerance))
+            {
+                status = "slower";
+                slower++;
+            }
+            else if (result.p50 < baseline.p50 * (1 - tolerance) && result.p99 < baseline.p99 * (1 - tolerance))
+            {
+                status = "faster";
+                faster++;
+            }
+            else
+            {
+                status = "same";
+                same++;
+            }
+            System.out.println(status + "," + result + ","
+                    + (baseline == null ? "," : baseline.p50 / 1000 + "," + baseline.p99 / 1000));
+        }
+        System.out.println();
+        System.out.println(results.size() + " games: " + same + " same, " + slower + " slower, " + faster + " faster, "
+                + changed + " changed, " + added + " new, " + nondeterministic + " nondeterministic");
+        if (changed > 0 || nondeterministic > 0)
+        {
+            return 1;
+        }
+        return slower > 0 ? 2 : 0;
+    }
+
+    private static void writeBaselines(File file, List<Result> results) throws IOException
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            out.println(HEADER);
+            for (Result result : results)
+            {
+                out.println(result);
+            }
+        }
+    }
+
+    private static Map<String, Result> readBaselines(File file) throws IOException
+    {
+        Map<String, Result> baselines = new LinkedHashMap<String, Result>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8))
+        {
+            if (line.isEmpty() || line.equals(HEADER))
+            {
+                continue;
+            }
+            String[] f = line.split(",");
+            Result result = new Result(f[0], f[1], Integer.parseInt(f[2]), Integer.parseInt(f[3]));
+            result.outcome = Integer.parseInt(f[4]);
+            result.cycles = Integer.parseInt(f[5]);
+            result.actionHash = Long.parseUnsignedLong(f[6], 16);
+            result.p50 = Long.parseLong(f[7]) * 1000;
+            result.p99 = Long.parseLong(f[8]) * 1000;
+            result.max = Long.parseLong(f[9]) * 1000;
+            baselines.put(result.key(), result);
+        }
+        return baselines;
+    }
+
+    /** One game of the suite and how it went. Times are kept in nanoseconds and written in microseconds. */
+    private static class Result
+    {
+        final String map;
+        final String opponent;
+        final int side; ///< The player our bot controls
+        final int seed; ///< RandomBiasedAI's seed
+        int outcome; ///< 1 for a win, -1 for a loss and 0 for a draw
+        int cycles;
+        long actionHash;
+        long p50, p99, max;
+        boolean nondeterministic = false; ///< If the runs of this game issued different actions
+
+        Result(String map, String opponent, int side, int seed)
+        {
+            this.map = map;
+            this.opponent = opponent;
+            this.side = side;
+            this.seed = seed;
+        }
+
+        String key()
+        {
+            return map + "," + opponent + "," + side + "," + seed;
+        }
+
+        @Override
+        public String toString()
+        {
+            return key() + "," + outcome + "," + cycles + "," + String.format("%016x", actionHash) + ","
+                    + p50 / 1000 + "," + p99 / 1000 + "," + max / 1000;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package tests;
+
+import ai.abstraction.WorkerRush;
+import ai.core.AI;
+import bot.PlayoutScript;
+import bot.RolloutSearch;
+import bot.WorkersForLife;
+
+import java.util.concurrent.ForkJoinPool;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/** Measures how lookahead rollout throughput scales with the number of cores.
+ * Plays WorkersForLife against WorkerRush up to a given cycle, then runs the same lookahead search from that
+ * state on pools of 1, 2, 4, ... threads up to the number of cores and prints rollouts per second for each,
+ * with the speed up and efficiency against one thread.
+ *
+ * Arguments (all optional):
+ *   -map file         map to play on (default the 16x16 basesWorkers map)
+ *   -cycle N          cycle to search from (default 500)
+ *   -budget N         milliseconds per search (default 100)
+ *   -horizon N        cycles per rollout (default 100)
+ *   -searches N       searches timed per thread count, after one warm up search (default 20)
+ * @author HoaxShark
+ */
+public class RolloutScaling
+{
+    public static void main(String args[]) throws Exception
+    {
+        String map = TournamentRunner.MAPS_FOLDER + "16x16/basesWorkers16x16.xml";
+        int cycle = 500;
+        int budget = 100;
+        int horizon = 100;
+        int searches = 20;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-map": map = args[i + 1]; break;
+                case "-cycle": cycle = Integer.parseInt(args[i + 1]); break;
+                case "-budget": budget = Integer.parseInt(args[i + 1]); break;
+                case "-horizon": horizon = Integer.parseInt(args[i + 1]); break;
+                case "-searches": searches = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        UnitTypeTable utt = new UnitTypeTable();
+        WorkersForLife bot = new WorkersForLife(utt);
+        AI opponent = new WorkerRush(utt);
+        GameState gs = new GameState(PhysicalGameState.load(map, utt), utt);
+        boolean gameover = false;
+        while (!gameover && gs.getTime() < cycle)
+        {
+            gs.issueSafe(bot.getAction(0, gs));
+            gs.issueSafe(opponent.getAction(1, gs));
+            gameover = gs.cycle();
+        }
+
+        System.out.println(map + " from cycle " + gs.getTime() + ", " + budget + "ms budget, " + horizon + " cycle horizon");
+        System.out.println("threads,searches,rollouts,rolloutsPerSecond,speedup,efficiency");
+        double single = 0;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = 1;
+        while (true)
+        {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try
+            {
+                new RolloutSearch(pool).pick(bot, 0, gs, budget, horizon, PlayoutScript.DEFAULT);
+                RolloutSearch search = new RolloutSearch(pool);
+                for (int n = 0; n < searches; n++)
+                {
+                    search.pick(bot, 0, gs, budget, horizon, PlayoutScript.DEFAULT);
+                }
+                double rate = search.getRolloutsPerSecond();
+                if (threads == 1)
+                {
+                    single = rate;
+                }
+                double speedup = single == 0 ? 0 : rate / single;
+                System.out.println(threads + "," + searches + "," + search.getRollouts() + ","
+                        + String.format("%.1f,%.2f,%.2f", rate, speedup, speedup / threads));
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            if (threads == cores)
+            {
+                break;
+            }
+            threads = Math.min(threads * 2, cores);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package tests;
+
+import ai.core.AI;
+import bot.WorkersForLife;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.PlayerAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/** Measures how the bot's getAction time grows with map area and unit count, against a fixed per-tick budget.
+ * For every map size and army size it generates a scenario (see ScenarioGenerator), plays WorkersForLife against
+ * an opponent on it for a number of cycles and times each getAction call alongside how many units the bot had.
+ *
+ * It prints three things:
+ *   - a row per scenario with the p50, p99 and max tick times, how many ticks went over the budget and, for the
+ *     first one that did, the cycle and the bot's unit count, so it shows where the bot stops keeping up
+ *   - a chart of p50 and p99 tick time against the bot's unit count, over every tick of every scenario
+ *   - the scaling exponents, the slope of log p50 time against log units for each map size and against log area
+ *     for each army size. Below 1 the bot scales sublinearly, which is the target
+ * The exit code is 1 if any tick of any scenario went over the budget, 0 otherwise.
+ *
+ * Arguments (all optional):
+ *   -sizes a,b,c      square map sizes (default 32,64,128,256)
+ *   -armies a,b,c     military units per player (default 10,50,100,200)
+ *   -bases N          bases per player per 64x64 of map, at least 1 (default 1)
+ *   -obstacles X      fraction of cells that are walls (default 0.1)
+ *   -resources X      fraction of cells with a resource field (default 0.005)
+ *   -cycles N         cycles played per scenario (default 300)
+ *   -budget N         milliseconds per tick (default 100)
+ *   -opponent name    opponent, see TournamentRunner.createOpponent (default WorkerRush)
+ *   -seed N           scenario seed (default 1)
+ *   -ticks file       also write every tick to a CSV, for plotting
+ * @author HoaxShark
+ */
+public class ScalingBenchmark
+{
+    private static final int CHART_WIDTH = 50; ///< Characters the budget takes up in the chart
+
+    public static void main(String args[]) throws Exception
+    {
+        int[] sizes = {32, 64, 128, 256};
+        int[] armies = {10, 50, 100, 200};
+        int basesPer64 = 1;
+        double obstacles = 0.1;
+        double resources = 0.005;
+        int cycles = 300;
+        int budget = 100;
+        String opponentName = "WorkerRush";
+        long seed = 1;
+        File ticksFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-sizes": sizes = parseInts(args[i + 1]); break;
+                case "-armies": armies = parseInts(args[i + 1]); break;
+                case "-bases": basesPer64 = Integer.parseInt(args[i + 1]); break;
+                case "-obstacles": obstacles = Double.parseDouble(args[i + 1]); break;
+                case "-resources": resources = Double.parseDouble(args[i + 1]); break;
+                case "-cycles": cycles = Integer.parseInt(args[i + 1]); break;
+                case "-budget": budget = Integer.parseInt(args[i + 1]); break;
+                case "-opponent": opponentName = args[i + 1]; break;
+                case "-seed": seed = Long.parseLong(args[i + 1]); break;
+                case "-ticks": ticksFile = new File(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        long budgetNanos = budget * 1000000L;
+
+        /// Tuned values would make the results depend on a file outside the benchmark
+        System.setProperty("workersforlife.config", "");
+
+        List<Scenario> scenarios = new ArrayList<Scenario>();
+        for (int size : sizes)
+        {
+            for (int army : armies)
+            {
+                int bases = Math.max(1, basesPer64 * size * size / (64 * 64));
+                scenarios.add(new Scenario(new ScenarioGenerator().setSize(size, size).setBases(bases).setArmy(army)
+                        .setObstacles(obstacles).setResources(resources).setSeed(seed)));
+            }
+        }
+
+        /// One untimed run so the first timed one is not paying for class loading and the JIT
+        play(new Scenario(scenarios.get(0).generator), opponentName, cycles, budgetNanos);
+
+        System.out.println("Budget " + budget + "ms per tick, " + cycles + " cycles per scenario against " + opponentName);
+        System.out.println("size,area,army,bases,ticks,meanUnits,p50Us,p99Us,maxUs,overBudget,firstOverCycle,firstOverUnits");
+        boolean over = false;
+        for (Scenario scenario : scenarios)
+        {
+            play(scenario, opponentName, cycles, budgetNanos);
+            System.out.println(scenario);
+            over |= scenario.overBudget > 0;
+        }
+
+        printChart(scenarios, budgetNanos);
+        printExponents(scenarios, sizes, armies);
+        if (ticksFile != null)
+        {
+            writeTicks(ticksFile, scenarios);
+        }
+        System.exit(over ? 1 : 0);
+    }
+
+    /** Plays a scenario and keeps its tick times and unit counts. */
+    private static void play(Scenario scenario, String opponentName, int cycles, long budgetNanos) throws Exception
+    {
+        UnitTypeTable utt = new UnitTypeTable();
+        GameState gs = new GameState(scenario.generator.generate(utt), utt);
+        AI bot = new WorkersForLife(utt);
+        AI opponent = TournamentRunner.createOpponent(opponentName, utt);
+        boolean gameover = false;
+        while (!gameover && gs.getTime() < cycles)
+        {
+            int units = countUnits(gs.getPhysicalGameState(), 0);
+            long start = System.nanoTime();
+            PlayerAction botAction = bot.getAction(0, gs);
+            long elapsed = System.nanoTime() - start;
+            scenario.add(gs.getTime(), units, elapsed, budgetNanos);
+            gs.issueSafe(botAction);
+            gs.issueSafe(opponent.getAction(1, gs));
+            gameover = gs.cycle();
+        }
+        bot.gameOver(gs.winner());
+        opponent.gameOver(gs.winner());
+    }
+
+    private static int countUnits(PhysicalGameState pgs, int player)
+    {
+        int n = 0;
+        for (Unit u : pgs.getUnits())
+        {
+            if (u.getPlayer() == player)
+            {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Charts tick times against the bot's unit count, in power of two unit buckets.
+     * Each bar is the p99 time, with the p50 marked inside it and the budget as a line.
+     */
+    private static void printChart(List<Scenario> scenarios, long budgetNanos)
+    {
+        List<List<Long>> buckets = new ArrayList<List<Long>>();
+        for (Scenario scenario : scenarios)
+        {
+            for (int t = 0; t < scenario.ticks; t++)
+            {
+                int bucket = 31 - Integer.numberOfLeadingZeros(Math.max(1, scenario.units[t]));
+                while (buckets.size() <= bucket)
+                {
+                    buckets.add(new ArrayList<Long>());
+                }
+                buckets.get(bucket).add(scenario.nanos[t]);
+            }
+        }
+        System.out.println();
+        System.out.println("Tick time against units (# to p50, = to p99, | the budget)");
+        for (int b = 0; b < buckets.size(); b++)
+        {
+            List<Long> times = buckets.get(b);
+            if (times.isEmpty())
+            {
+                continue;
+            }
+            long[] sorted = new long[times.size()];
+            for (int i = 0; i < sorted.length; i++)
+            {
+                sorted[i] = times.get(i);
+            }
+            Arrays.sort(sorted);
+            long p50 = percentile(sorted, sorted.length, 50);
+            long p99 = percentile(sorted, sorted.length, 99);
+            StringBuilder bar = new StringBuilder();
+            int p50Width = (int) Math.min(CHART_WIDTH * 2, p50 * CHART_WIDTH / budgetNanos);
+            int p99Width = (int) Math.min(CHART_WIDTH * 2, p99 * CHART_WIDTH / budgetNanos);
+            for (int c = 0; c < Math.max(p99Width, CHART_WIDTH + 1); c++)
+            {
+                bar.append(c == CHART_WIDTH ? '|' : c < p50Width ? '#' : c < p99Width ? '=' : ' ');
+            }
+            System.out.println(String.format("%5d-%-5d %s p50 %dus p99 %dus", 1 << b, (2 << b) - 1, bar,
+                    p50 / 1000, p99 / 1000));
+        }
+    }
+
+    /** Prints the log-log slope of p50 time against units for each size, and against area for each army. */
+    private static void printExponents(List<Scenario> scenarios, int[] sizes, int[] armies)
+    {
+        System.out.println();
+        System.out.println("Scaling exponents, below 1 is sublinear");
+        for (int size : sizes)
+        {
+            List<double[]> points = new ArrayList<double[]>();
+            for (Scenario scenario : scenarios)
+            {
+                if (scenario.generator.getWidth() == size)
+                {
+                    points.add(new double[] {scenario.meanUnits(), scenario.p50()});
+                }
+            }
+            printExponent("units at " + size + "x" + size, points);
+        }
+        for (int army : armies)
+        {
+            List<double[]> points = new ArrayList<double[]>();
+            for (Scenario scenario : scenarios)
+            {
+                if (scenario.generator.getArmy() == army)
+                {
+                    double area = (double) scenario.generator.getWidth() * scenario.generator.getHeight();
+                    points.add(new double[] {area, scenario.p50()});
+                }
+            }
+            printExponent("area with army " + army, points);
+        }
+    }
+
+    /** Fits log y = k log x + c by least squares and prints k. */
+    private static void printExponent(String label, List<double[]> points)
+    {
+        double n = 0, sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (double[] p : points)
+        {
+            if (p[0] <= 0 || p[1] <= 0)
+            {
+                continue;
+            }
+            double x = Math.log(p[0]);
+            double y = Math.log(p[1]);
+            n++;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double spread = n * sxx - sx * sx;
+        if (n < 2 || spread <= 1e-9)
+        {
+            System.out.println("  " + label + ": not enough points");
+            return;
+        }
+        double k = (n * sxy - sx * sy) / spread;
+        System.out.println(String.format("  %s: %.2f (%s)", label, k, k < 1 ? "sublinear" : "linear or worse"));
+    }
+
+    private static void writeTicks(File file, List<Scenario> scenarios) throws Exception
+    {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)))
+        {
+            out.println("size,army,cycle,units,nanos");
+            for (Scenario scenario : scenarios)
+            {
+                for (int t = 0; t < scenario.ticks; t++)
+                {
+                    out.println(scenario.generator.getWidth() + "," + scenario.generator.getArmy() + ","
+                            + scenario.cycles[t] + "," + scenario.units[t] + "," + scenario.nanos[t]);
+                }
+            }
+        }
+        System.out.println("Wrote every tick to " + file);
+    }
+
+    private static int[] parseInts(String list)
+    {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+        {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    /** Nearest rank percentile of the first n values of a sorted array. */
+    private static long percentile(long[] sorted, int n, double percentile)
+    {
+        if (n == 0)
+        {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * n);
+        return sorted[Math.max(0, Math.min(n - 1, rank - 1))];
+    }
+
+    /** One generated map and the ticks played on it. */
+    private static class Scenario
+    {
+        final ScenarioGenerator generator;
+        int ticks = 0;
+        int[] cycles = new int[256];
+        int[] units = new int[256];
+        long[] nanos = new long[256];
+        int overBudget = 0; ///< Ticks that took longer than the budget
+        int firstOverCycle = -1; ///< Cycle of the first tick over the budget, -1 if none
+        int firstOverUnits = -1; ///< The bot's units on that tick
+        private long[] sorted = null; ///< The tick times sorted, made when first needed
+
+        Scenario(ScenarioGenerator generator)
+        {
+            this.generator = generator;
+        }
+
+        void add(int cycle, int unitCount, long elapsed, long budgetNanos)
+        {
+            if (ticks == nanos.length)
+            {
+                cycles = Arrays.copyOf(cycles, ticks * 2);
+                units = Arrays.copyOf(units, ticks * 2);
+                nanos = Arrays.copyOf(nanos, ticks * 2);
+            }
+            cycles[ticks] = cycle;
+            units[ticks] = unitCount;
+            nanos[ticks] = elapsed;
+            ticks++;
+            sorted = null;
+            if (elapsed > budgetNanos)
+            {
+                if (overBudget == 0)
+                {
+                    firstOverCycle = cycle;
+                    firstOverUnits = unitCount;
+                }
+                overBudget++;
+            }
+        }
+
+        long percentileNanos(double percentile)
+        {
+            if (sorted == null)
+            {
+                sorted = Arrays.copyOf(nanos, ticks);
+                Arrays.sort(sorted);
+            }
+            return percentile(sorted, ticks, percentile);
+        }
+
+        double p50()
+        {
+            return percentileNanos(50);
+        }
+
+        double meanUnits()
+        {
+            long total = 0;
+            for (int t = 0; t < ticks; t++)
+            {
+                total += units[t];
+            }
+            return ticks == 0 ? 0 : (double) total / ticks;
+        }
+
+        @Override
+        public String toString()
+        {
+            int size = generator.getWidth();
+            return size + "x" + size + "," + size * size + "," + generator.getArmy() + "," + generator.getBases()
+                    + "," + ticks + "," + String.format("%.1f", meanUnits()) + "," + percentileNanos(50) / 1000
+                    + "," + percentileNanos(99) / 1000 + "," + percentileNanos(100) / 1000 + "," + overBudget
+                    + "," + firstOverCycle + "," + firstOverUnits;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package tests;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.units.Unit;
+import rts.units.UnitType;
+import rts.units.UnitTypeTable;
+import util.XMLWriter;
+
+/** Generates maps larger and busier than the bundled ones, for stress testing the bot.
+ * Player 0's bases, resources and army are placed in the top half of the map and mirrored through the centre
+ * for player 1, and so are the walls, so both sides start from the same position. Each base gets its
+ * resource fields and workers next to it, the army is spread over the bases, and the cells around every unit
+ * are kept clear. Walls are random rectangles until the obstacle density is reached, and any unit they cut
+ * off from player 0's first base gets a corridor carved back to it, so every unit can reach every other.
+ * The same settings and seed always give the same map.
+ *
+ * As a program it writes one map to an XML file that PhysicalGameState.load can read.
+ * Arguments (all optional):
+ *   -size WxH            map size (default 128x128), at least 16x16
+ *   -bases N             bases per player (default 2)
+ *   -workers N           workers per base (default 2)
+ *   -army N              military units per player (default 50)
+ *   -mix L:H:R           ratio of light, heavy and ranged units in the army (default 2:1:1)
+ *   -obstacles X         fraction of cells that are walls (default 0.1)
+ *   -resources X         fraction of cells with a resource field, besides the ones at each base (default 0.005)
+ *   -seed N              random seed (default 1)
+ *   -out file            where to write the map (default generated_WxH.xml)
+ * @author HoaxShark
+ */
+public class ScenarioGenerator
+{
+    private static final int BASE_RESOURCE_FIELDS = 2; ///< Resource fields next to each base
+    private static final int FIELD_RESOURCES = 25; ///< Resources in each field
+    private static final int STARTING_RESOURCES = 5; ///< Resources each player starts with
+
+    private int width = 128;
+    private int height = 128;
+    private int bases = 2;
+    private int workers = 2;
+    private int army = 50;
+    private int[] mix = {2, 1, 1}; ///< Light, heavy and ranged
+    private double obstacles = 0.1;
+    private double resources = 0.005;
+    private long seed = 1;
+
+    public static void main(String args[]) throws Exception
+    {
+        ScenarioGenerator generator = new ScenarioGenerator();
+        File out = null;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-size":
+                    String[] size = args[i + 1].split("x");
+                    generator.setSize(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+                    break;
+                case "-bases": generator.setBases(Integer.parseInt(args[i + 1])); break;
+                case "-workers": generator.setWorkers(Integer.parseInt(args[i + 1])); break;
+                case "-army": generator.setArmy(Integer.parseInt(args[i + 1])); break;
+                case "-mix":
+                    String[] mix = args[i + 1].split(":");
+                    generator.setMix(Integer.parseInt(mix[0]), Integer.parseInt(mix[1]), Integer.parseInt(mix[2]));
+                    break;
+                case "-obstacles": generator.setObstacles(Double.parseDouble(args[i + 1])); break;
+                case "-resources": generator.setResources(Double.parseDouble(args[i + 1])); break;
+                case "-seed": generator.setSeed(Long.parseLong(args[i + 1])); break;
+                case "-out": out = new File(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (out == null)
+        {
+            out = new File("generated_" + generator.width + "x" + generator.height + ".xml");
+        }
+        PhysicalGameState pgs = generator.generate(new UnitTypeTable());
+        try (Writer writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8))
+        {
+            pgs.toxml(new XMLWriter(writer));
+        }
+        System.out.println("Wrote " + generator + " with " + pgs.getUnits().size() + " units to " + out);
+    }
+
+    /** Builds a map with the current settings.
+     * @param utt The UnitTypeTable the game will be played with
+     * @return A new map, ready to make a GameState from
+     */
+    public PhysicalGameState generate(UnitTypeTable utt)
+    {
+        Random random = new Random(seed);
+        int cells = width * height;
+        int[] terrain = new int[cells];
+        boolean[] occupied = new boolean[cells];
+        List<Unit> units = new ArrayList<Unit>();
+
+        UnitType baseType = utt.getUnitType("Base");
+        UnitType workerType = utt.getUnitType("Worker");
+        UnitType resourceType = utt.getUnitType("Resource");
+        UnitType[] armyTypes = {utt.getUnitType("Light"), utt.getUnitType("Heavy"), utt.getUnitType("Ranged")};
+
+        /// Player 0 works in the top half, everything placed there is mirrored for player 1 at the end
+        int half = height / 2;
+        List<Integer> basePositions = placeBases(random, half);
+        for (int base : basePositions)
+        {
+            occupied[base] = true;
+            units.add(new Unit(0, baseType, base % width, base / width, 0));
+        }
+        for (int base : basePositions)
+        {
+            for (int f = 0; f < BASE_RESOURCE_FIELDS; f++)
+            {
+                int cell = nearestFree(base, occupied, half);
+                occupied[cell] = true;
+                units.add(new Unit(-1, resourceType, cell % width, cell / width, FIELD_RESOURCES));
+            }
+            for (int w = 0; w < workers; w++)
+            {
+                int cell = nearestFree(base, occupied, half);
+                occupied[cell] = true;
+                units.add(new Unit(0, workerType, cell % width, cell / width, 0));
+            }
+        }
+        /// Hand the army out over the bases in turn, following the mix
+        int mixTotal = mix[0] + mix[1] + mix[2];
+        for (int a = 0; a < army; a++)
+        {
+            int slot = a % mixTotal;
+            int type = slot < mix[0] ? 0 : slot < mix[0] + mix[1] ? 1 : 2;
+            int cell = nearestFree(basePositions.get(a % basePositions.size()), occupied, half);
+            occupied[cell] = true;
+            units.add(new Unit(0, armyTypes[type], cell % width, cell / width, 0));
+        }
+        int fields = (int) Math.round(resources * cells / 2);
+        for (int f = 0; f < fields; f++)
+        {
+            int cell = randomFree(random, occupied, half);
+            if (cell >= 0)
+            {
+                occupied[cell] = true;
+                units.add(new Unit(-1, resourceType, cell % width, cell / width, FIELD_RESOURCES));
+            }
+        }
+
+        placeWalls(random, terrain, occupied);
+        connect(terrain, units, basePositions.get(0));
+
+        PhysicalGameState pgs = new PhysicalGameState(width, height);
+        pgs.setTerrain(terrain);
+        pgs.addPlayer(new Player(0, STARTING_RESOURCES));
+        pgs.addPlayer(new Player(1, STARTING_RESOURCES));
+        for (Unit u : units)
+        {
+            pgs.addUnit(u);
+            int player = u.getPlayer() < 0 ? -1 : 1;
+            pgs.addUnit(new Unit(player, u.getType(), width - 1 - u.getX(), height - 1 - u.getY(), u.getResources()));
+        }
+        return pgs;
+    }
+
+    /** Picks player 0's base cells, as far apart as the top half allows.
+     * Bases are kept a few cells from the edges and the middle row so their neighbours stay on player 0's side.
+     */
+    private List<Integer> placeBases(Random random, int half)
+    {
+        int margin = 3;
+        int spacing = Math.max(6, (int) Math.sqrt((double) width * half / bases) / 2);
+        List<Integer> positions = new ArrayList<Integer>();
+        int attempts = 0;
+        while (positions.size() < bases)
+        {
+            int x = margin + random.nextInt(width - 2 * margin);
+            int y = margin + random.nextInt(half - 2 * margin);
+            boolean clear = true;
+            for (int p : positions)
+            {
+                if (Math.max(Math.abs(p % width - x), Math.abs(p / width - y)) < spacing)
+                {
+                    clear = false;
+                    break;
+                }
+            }
+            if (clear)
+            {
+                positions.add(y * width + x);
+            }
+            /// Crowd them closer rather than give up when the bases don't fit
+            else if (++attempts % 1000 == 0 && spacing > 1)
+            {
+                spacing--;
+            }
+        }
+        return positions;
+    }
+
+    /** Finds the free cell in the top half nearest a cell, searching outwards ring by ring.
+     * Throws if the half is full, which only happens when far more units are asked for than there are cells.
+     */
+    private int nearestFree(int from, boolean[] occupied, int half)
+    {
+        int fx = from % width;
+        int fy = from / width;
+        for (int r = 1; r < Math.max(width, half); r++)
+        {
+            for (int y = fy - r; y <= fy + r; y++)
+            {
+                for (int x = fx - r; x <= fx + r; x++)
+                {
+                    boolean ring = Math.abs(x - fx) == r || Math.abs(y - fy) == r;
+                    if (ring && x >= 0 && x < width && y >= 0 && y < half && !occupied[y * width + x])
+                    {
+                        return y * width + x;
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("No room for " + this);
+    }
+
+    /** @return A random free cell in the top half, or -1 if none turned up */
+    private int randomFree(Random random, boolean[] occupied, int half)
+    {
+        for (int attempt = 0; attempt < 100; attempt++)
+        {
+            int cell = random.nextInt(width * half);
+            if (!occupied[cell])
+            {
+                return cell;
+            }
+        }
+        return -1;
+    }
+
+    /** Drops random rectangles of wall, mirrored, until the obstacle density is reached.
+     * A wall cell is never put on or next to a unit, so no unit starts boxed in.
+     */
+    private void placeWalls(Random random, int[] terrain, boolean[] occupied)
+    {
+        int cells = width * height;
+        boolean[] keepClear = new boolean[cells];
+        for (int cell = 0; cell < cells; cell++)
+        {
+            if (occupied[cell])
+            {
+                int x = cell % width;
+                int y = cell / width;
+                for (int dy = -1; dy <= 1; dy++)
+                {
+                    for (int dx = -1; dx <= 1; dx++)
+                    {
+                        if (x + dx >= 0 && x + dx < width && y + dy >= 0 && y + dy < height)
+                        {
+                            keepClear[(y + dy) * width + x + dx] = true;
+                            keepClear[mirror((y + dy) * width + x + dx)] = true;
+                        }
+                    }
+                }
+            }
+        }
+        int target = (int) (obstacles * cells);
+        int walls = 0;
+        int maxSide = Math.max(2, Math.min(width, height) / 16);
+        /// Bounded so a density that can't be reached around the units still finishes
+        for (int attempt = 0; walls < target && attempt < cells; attempt++)
+        {
+            int w = 1 + random.nextInt(maxSide);
+            int h = 1 + random.nextInt(maxSide);
+            int x0 = random.nextInt(width - w + 1);
+            int y0 = random.nextInt(height - h + 1);
+            for (int y = y0; y < y0 + h; y++)
+            {
+                for (int x = x0; x < x0 + w; x++)
+                {
+                    int cell = y * width + x;
+                    if (!keepClear[cell] && terrain[cell] == PhysicalGameState.TERRAIN_NONE)
+                    {
+                        terrain[cell] = PhysicalGameState.TERRAIN_WALL;
+                        walls++;
+                        if (terrain[mirror(cell)] == PhysicalGameState.TERRAIN_NONE)
+                        {
+                            terrain[mirror(cell)] = PhysicalGameState.TERRAIN_WALL;
+                            walls++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /** Carves corridors until every unit, and every unit's mirror, can be reached from player 0's first base.
+     * Each cut off unit gets an L shaped corridor straight to the base, mirrored like the walls, which also
+     * joins its mirror to the mirrored base. Player 1's first base is joined the same way first.
+     */
+    private void connect(int[] terrain, List<Unit> units, int base)
+    {
+        List<Integer> targets = new ArrayList<Integer>();
+        targets.add(mirror(base));
+        for (Unit u : units)
+        {
+            targets.add(u.getY() * width + u.getX());
+            targets.add(mirror(u.getY() * width + u.getX()));
+        }
+        boolean[] reached = reachable(terrain, base);
+        for (int target : targets)
+        {
+            if (!reached[target])
+            {
+                carve(terrain, base, target);
+                reached = reachable(terrain, base);
+            }
+        }
+    }
+
+    /** Flood fills the open cells from a cell, ignoring units. */
+    private boolean[] reachable(int[] terrain, int from)
+    {
+        boolean[] reached = new boolean[width * height];
+        ArrayDeque<Integer> open = new ArrayDeque<Integer>();
+        reached[from] = true;
+        open.add(from);
+        while (!open.isEmpty())
+        {
+            int cell = open.poll();
+            int x = cell % width;
+            int y = cell / width;
+            int[] next = {x > 0 ? cell - 1 : -1, x < width - 1 ? cell + 1 : -1, y > 0 ? cell - width : -1,
+                    y < height - 1 ? cell + width : -1};
+            for (int n : next)
+            {
+                if (n >= 0 && !reached[n] && terrain[n] == PhysicalGameState.TERRAIN_NONE)
+                {
+                    reached[n] = true;
+                    open.add(n);
+                }
+            }
+        }
+        return reached;
+    }
+
+    /** Clears walls along a path from one cell to another, across then down, and along its mirror. */
+    private void carve(int[] terrain, int from, int to)
+    {
+        int x = from % width;
+        int y = from / width;
+        int tx = to % width;
+        int ty = to / width;
+        while (x != tx || y != ty)
+        {
+            if (x != tx)
+            {
+                x += Integer.signum(tx - x);
+            }
+            else
+            {
+                y += Integer.signum(ty - y);
+            }
+            terrain[y * width + x] = PhysicalGameState.TERRAIN_NONE;
+            terrain[mirror(y * width + x)] = PhysicalGameState.TERRAIN_NONE;
+        }
+    }
+
+    /** @return The cell opposite a cell through the centre of the map */
+    private int mirror(int cell)
+    {
+        return width * height - 1 - cell;
+    }
+
+    /** @param width Cells across, at least 16
+     * @param height Cells down, at least 16
+     * @return This generator
+     */
+    public ScenarioGenerator setSize(int width, int height)
+    {
+        if (width < 16 || height < 16)
+        {
+            throw new IllegalArgumentException("Maps must be at least 16x16, not " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    /** @param bases Bases per player, at least 1
+     * @return This generator
+     */
+    public ScenarioGenerator setBases(int bases)
+    {
+        this.bases = Math.max(1, bases);
+        return this;
+    }
+
+    /** @param workers Workers next to each base at the start
+     * @return This generator
+     */
+    public ScenarioGenerator setWorkers(int workers)
+    {
+        this.workers = workers;
+        return this;
+    }
+
+    /** @param army Military units each player starts with
+     * @return This generator
+     */
+    public ScenarioGenerator setArmy(int army)
+    {
+        this.army = army;
+        return this;
+    }
+
+    /** Sets the make up of the army, as a ratio.
+     * @param light Share of light units
+     * @param heavy Share of heavy units
+     * @param ranged Share of ranged units
+     * @return This generator
+     */
+    public ScenarioGenerator setMix(int light, int heavy, int ranged)
+    {
+        if (light + heavy + ranged <= 0)
+        {
+            throw new IllegalArgumentException("The army mix needs at least one unit type");
+        }
+        this.mix = new int[] {light, heavy, ranged};
+        return this;
+    }
+
+    /** @param obstacles Fraction of cells that are walls, from 0 to about 0.5
+     * @return This generator
+     */
+    public ScenarioGenerator setObstacles(double obstacles)
+    {
+        this.obstacles = obstacles;
+        return this;
+    }
+
+    /** @param resources Fraction of cells with a resource field away from the bases
+     * @return This generator
+     */
+    public ScenarioGenerator setResources(double resources)
+    {
+        this.resources = resources;
+        return this;
+    }
+
+    /** @param seed Seed for the placement of bases, walls and resources
+     * @return This generator
+     */
+    public ScenarioGenerator setSeed(long seed)
+    {
+        this.seed = seed;
+        return this;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getBases()
+    {
+        return bases;
+    }
+
+    public int getArmy()
+    {
+        return army;
+    }
+
+    @Override
+    public String toString()
+    {
+        return width + "x" + height + " bases=" + bases + " workers=" + workers + " army=" + army + " mix="
+                + mix[0] + ":" + mix[1] + ":" + mix[2] + " obstacles=" + obstacles + " resources=" + resources
+                + " seed=" + seed;
+    }
+}
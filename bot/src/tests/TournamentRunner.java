@@ -0,0 +1,279 @@
+package tests;
+
+import ai.RandomBiasedAI;
+import ai.abstraction.LightRush;
+import ai.abstraction.WorkerRush;
+import ai.abstraction.pathfinding.BFSPathFinding;
+import ai.core.AI;
+import bot.WorkersForLife;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import rts.PhysicalGameState;
+import rts.units.UnitTypeTable;
+
+/** Plays many headless games of WorkersForLife against a set of opponents on a set of maps.
+ * Games run in parallel on a fixed thread pool sized to the machine's cores, each with its own
+ * UnitTypeTable and its own clone of the bot, and without any frame pacing.
+ * One CSV line is printed per game as soon as it finishes, followed by a summary per matchup.
+ *
+ * Arguments (all optional):
+ *   -games N          games per map and opponent (default 10), sides alternate between games
+ *   -maps a,b,c       map files (default the 8x8, 16x16 and 24x24 basesWorkers maps)
+ *   -opponents a,b    opponent names, see createOpponent (default WorkerRush,LightRush,RandomBiasedAI)
+ *   -threads N        worker threads (default the number of cores)
+ *   -cycles N         cycle limit per game (default 5000)
+ *   -param Name=value set one of the bot's parameters, see WorkersForLife.getParameters; may be given more than once
+ *   -trace folder     record every game to a binary trace in this folder, see TraceWriter and TraceReader
+ * Tuned values in the MapConfig file are applied on top for maps that have an entry; run with
+ * -Dworkersforlife.config= to play the -param values alone.
+ * @author HoaxShark
+ */
+public class TournamentRunner
+{
+    public static final String MAPS_FOLDER = "../microrts/maps/";
+    public static final String[] DEFAULT_MAPS = {
+        MAPS_FOLDER + "8x8/basesWorkers8x8.xml",
+        MAPS_FOLDER + "16x16/basesWorkers16x16.xml",
+        MAPS_FOLDER + "24x24/basesWorkers24x24.xml",
+    };
+    public static final String[] DEFAULT_OPPONENTS = {"WorkerRush", "LightRush", "RandomBiasedAI"};
+
+    public static void main(String args[]) throws Exception
+    {
+        int games = 10;
+        String[] maps = DEFAULT_MAPS;
+        String[] opponents = DEFAULT_OPPONENTS;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxCycles = 5000;
+        List<String> params = new ArrayList<String>();
+        File traceFolder = null;
+        for (int i = 0; i + 1 < args.length; i += 2)
+        {
+            switch (args[i])
+            {
+                case "-games": games = Integer.parseInt(args[i + 1]); break;
+                case "-maps": maps = args[i + 1].split(","); break;
+                case "-opponents": opponents = args[i + 1].split(","); break;
+                case "-threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "-cycles": maxCycles = Integer.parseInt(args[i + 1]); break;
+                case "-param": params.add(args[i + 1]); break;
+                case "-trace": traceFolder = new File(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        WorkersForLife prototype = new WorkersForLife(new UnitTypeTable());
+        for (String param : params)
+        {
+            int equals = param.indexOf('=');
+            if (equals <= 0)
+            {
+                throw new IllegalArgumentException("Expected Name=value, got " + param);
+            }
+            prototype.setParameter(param.substring(0, equals), param.substring(equals + 1));
+        }
+        Map<String, MatchupStats> matchups = new LinkedHashMap<String, MatchupStats>();
+        List<GameSpec> specs = new ArrayList<GameSpec>();
+        for (String map : maps)
+        {
+            for (String opponent : opponents)
+            {
+                matchups.put(map + " vs " + opponent, new MatchupStats());
+                for (int game = 0; game < games; game++)
+                {
+                    specs.add(new GameSpec(map, opponent, game, game % 2, maxCycles));
+                }
+            }
+        }
+
+        if (traceFolder != null)
+        {
+            traceFolder.mkdirs();
+        }
+        File traces = traceFolder;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<GameRecord> done = new ExecutorCompletionService<GameRecord>(pool);
+        for (GameSpec spec : specs)
+        {
+            done.submit(() -> new GameRecord(spec, playGame(prototype, spec, traces)));
+        }
+
+        System.out.println("map,opponent,game,side,result,cycles,meanTickMs,maxTickMs,income");
+        long start = System.currentTimeMillis();
+        try
+        {
+            for (int n = 0; n < specs.size(); n++)
+            {
+                GameRecord record = done.take().get();
+                GameSpec spec = record.spec;
+                HeadlessGame game = record.game;
+                matchups.get(spec.map + " vs " + spec.opponent).add(game);
+                System.out.println(spec.map + "," + spec.opponent + "," + spec.game + "," + spec.side + ","
+                        + resultName(game.getOutcome()) + "," + game.getCycles() + ","
+                        + String.format("%.3f", meanTickMs(game)) + ","
+                        + String.format("%.3f", game.getMaxDecisionNanos() / 1e6) + ","
+                        + game.getIncome());
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+
+        System.out.println();
+        System.out.println("Played " + specs.size() + " games on " + threads + " threads in "
+                + (System.currentTimeMillis() - start) / 1000.0 + "s");
+        for (Map.Entry<String, MatchupStats> e : matchups.entrySet())
+        {
+            System.out.println(e.getKey() + ": " + e.getValue());
+        }
+    }
+
+    /** Plays one game with a fresh UnitTypeTable and a clone of the bot.
+     * @param prototype The bot to clone
+     * @param spec Which game to play
+     * @return The finished game
+     */
+    public static HeadlessGame playGame(AI prototype, GameSpec spec) throws Exception
+    {
+        return playGame(prototype, spec, null);
+    }
+
+    /** Plays one game with a fresh UnitTypeTable and a clone of the bot, recording it to a trace.
+     * @param prototype The bot to clone
+     * @param spec Which game to play
+     * @param traceFolder Folder for the trace, named after the map, opponent, game and side, or null to not record
+     * @return The finished game
+     */
+    public static HeadlessGame playGame(AI prototype, GameSpec spec, File traceFolder) throws Exception
+    {
+        UnitTypeTable utt = new UnitTypeTable();
+        PhysicalGameState pgs = PhysicalGameState.load(spec.map, utt);
+        AI bot = prototype.clone();
+        bot.reset(utt);
+        AI opponent = createOpponent(spec.opponent, utt);
+        HeadlessGame game = new HeadlessGame(bot, opponent, spec.side, pgs, utt, spec.maxCycles);
+        if (traceFolder == null)
+        {
+            return game.play();
+        }
+        String name = new File(spec.map).getName().replace(".xml", "") + "_" + spec.opponent + "_" + spec.game
+                + "_" + spec.side + ".trace";
+        try (TraceWriter trace = new TraceWriter(new File(traceFolder, name), game.getGameState(),
+                TraceWriter.DEFAULT_KEYFRAME_INTERVAL))
+        {
+            return game.setTrace(trace).play();
+        }
+    }
+
+    /** Creates an opponent by name.
+     * @param name One of WorkerRush, LightRush, RandomBiasedAI or WorkersForLife
+     * @param utt The UnitTypeTable of the game
+     * @return A new AI ready to play
+     */
+    public static AI createOpponent(String name, UnitTypeTable utt)
+    {
+        switch (name)
+        {
+            case "WorkerRush": return new WorkerRush(utt, new BFSPathFinding());
+            case "LightRush": return new LightRush(utt, new BFSPathFinding());
+            case "RandomBiasedAI": return new RandomBiasedAI(utt);
+            case "WorkersForLife": return new WorkersForLife(utt);
+            default: throw new IllegalArgumentException("Unknown opponent " + name);
+        }
+    }
+
+    private static String resultName(int outcome)
+    {
+        return outcome > 0 ? "win" : (outcome < 0 ? "loss" : "draw");
+    }
+
+    private static double meanTickMs(HeadlessGame game)
+    {
+        return game.getTicks() == 0 ? 0 : game.getTotalDecisionNanos() / 1e6 / game.getTicks();
+    }
+
+    /** Everything needed to play one game. */
+    public static class GameSpec
+    {
+        public final String map;
+        public final String opponent;
+        public final int game; ///< Number of this game within its matchup
+        public final int side; ///< The player our bot controls
+        public final int maxCycles;
+
+        public GameSpec(String map, String opponent, int game, int side, int maxCycles)
+        {
+            this.map = map;
+            this.opponent = opponent;
+            this.game = game;
+            this.side = side;
+            this.maxCycles = maxCycles;
+        }
+    }
+
+    private static class GameRecord
+    {
+        final GameSpec spec;
+        final HeadlessGame game;
+
+        GameRecord(GameSpec spec, HeadlessGame game)
+        {
+            this.spec = spec;
+            this.game = game;
+        }
+    }
+
+    /** Running totals for one map and opponent. */
+    private static class MatchupStats
+    {
+        int wins, losses, draws;
+        long cycles;
+        long ticks;
+        long decisionNanos;
+        long maxDecisionNanos;
+        long income;
+
+        void add(HeadlessGame game)
+        {
+            int outcome = game.getOutcome();
+            if (outcome > 0)
+            {
+                wins++;
+            }
+            else if (outcome < 0)
+            {
+                losses++;
+            }
+            else
+            {
+                draws++;
+            }
+            cycles += game.getCycles();
+            ticks += game.getTicks();
+            decisionNanos += game.getTotalDecisionNanos();
+            maxDecisionNanos = Math.max(maxDecisionNanos, game.getMaxDecisionNanos());
+            income += game.getIncome();
+        }
+
+        @Override
+        public String toString()
+        {
+            int games = wins + losses + draws;
+            return wins + "W/" + losses + "L/" + draws + "D"
+                    + ", mean length " + (games == 0 ? 0 : cycles / games)
+                    + ", mean tick " + String.format("%.3f", ticks == 0 ? 0 : decisionNanos / 1e6 / ticks) + "ms"
+                    + ", max tick " + String.format("%.3f", maxDecisionNanos / 1e6) + "ms"
+                    + ", income " + String.format("%.1f", cycles == 0 ? 0 : income * 1000.0 / cycles) + " per 1000 cycles";
+        }
+    }
+}
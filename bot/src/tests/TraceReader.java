@@ -0,0 +1,501 @@
+package tests;
+
+import bot.LongIntMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import gui.PhysicalGameStatePanel;
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.UnitAction;
+import rts.units.Unit;
+import rts.units.UnitTypeTable;
+
+/** Reads a trace written by TraceWriter.
+ * The file is memory mapped, so opening a trace only reads its header and footer. seek finds the keyframe at
+ * or before a cycle straight from the footer and reads forward from there, never more than the keyframe
+ * interval of records, and next streams on from wherever the last call stopped. Both fill in the same Frame.
+ * Traces are one game each, so a file must be under 2GB.
+ *
+ * Run as a main to print a cycle of a trace, or to show it in the microRTS viewer:
+ *   TraceReader file [cycle] [-show]
+ * @author HoaxShark
+ */
+public class TraceReader implements Closeable
+{
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int keyframeInterval;
+    private final int nplayers;
+    private final int[] terrain; ///< Terrain of every cell, x + y * width
+    private final int cycles; ///< Records in the trace
+    private final int winner;
+    private final long[] keyframes; ///< Offset of each keyframe
+    private final long footer; ///< Offset of the footer, where the records end
+    private int firstCycle; ///< Cycle of the first record
+    private final Frame frame = new Frame();
+
+    /** Opens a trace.
+     * @param file The trace
+     * @throws IOException If the file can't be read or is not a finished trace of this version
+     */
+    public TraceReader(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < 16 || buffer.getInt(0) != TraceWriter.MAGIC)
+            {
+                throw new IOException(file + " is not a trace");
+            }
+            if (buffer.getInt(4) != TraceWriter.VERSION)
+            {
+                throw new IOException(file + " is trace version " + buffer.getInt(4));
+            }
+            footer = buffer.getLong(buffer.limit() - 8);
+            if (footer < 8 || footer > buffer.limit() - 24 || buffer.getInt((int) footer) != TraceWriter.FOOTER_MAGIC)
+            {
+                throw new IOException(file + " has no footer, the game that wrote it did not finish");
+            }
+            buffer.position((int) footer + 4);
+            cycles = buffer.getInt();
+            winner = buffer.getInt();
+            keyframes = new long[buffer.getInt()];
+            for (int i = 0; i < keyframes.length; i++)
+            {
+                keyframes[i] = buffer.getLong();
+            }
+
+            buffer.position(8);
+            width = readVarint();
+            height = readVarint();
+            keyframeInterval = readVarint();
+            nplayers = readVarint();
+            terrain = new int[width * height];
+            int runs = readVarint();
+            for (int r = 0, cell = 0; r < runs; r++)
+            {
+                int value = readVarint();
+                int run = readVarint();
+                Arrays.fill(terrain, cell, cell + run, value);
+                cell += run;
+            }
+            if (keyframes.length > 0)
+            {
+                buffer.position((int) keyframes[0] + 1);
+                firstCycle = readVarint();
+            }
+            frame.resources = new int[nplayers];
+            frame.actionCount = new int[0];
+            frame.cycle = -1;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /** Reads the state at a cycle and the actions issued on it.
+     * @param cycle Any cycle between the first and last recorded
+     * @return The frame, valid until the next call to seek or next
+     * @throws IllegalArgumentException If the cycle is outside the trace
+     */
+    public Frame seek(int cycle)
+    {
+        if (keyframes.length == 0 || cycle < firstCycle)
+        {
+            throw new IllegalArgumentException("Cycle " + cycle + " is before the trace starts");
+        }
+        /// Records are one per cycle, so the keyframe to start from is known without searching
+        int k = Math.min((cycle - firstCycle) / keyframeInterval, keyframes.length - 1);
+        if (frame.cycle > cycle || frame.cycle < firstCycle + k * keyframeInterval)
+        {
+            buffer.position((int) keyframes[k]);
+            readRecord();
+        }
+        while (frame.cycle < cycle)
+        {
+            if (!next())
+            {
+                throw new IllegalArgumentException("Cycle " + cycle + " is after the trace ends");
+            }
+        }
+        return frame;
+    }
+
+    /** Reads the next record.
+     * @return False at the end of the trace, the frame is left as it was
+     */
+    public boolean next()
+    {
+        if (frame.cycle < 0 && keyframes.length > 0)
+        {
+            buffer.position((int) keyframes[0]);
+        }
+        if (frame.cycle < 0 ? keyframes.length == 0 : buffer.position() >= footer)
+        {
+            return false;
+        }
+        readRecord();
+        return true;
+    }
+
+    /** @return The frame as of the last seek or next */
+    public Frame getFrame()
+    {
+        return frame;
+    }
+
+    private void readRecord()
+    {
+        int tag = buffer.get();
+        frame.cycle = readVarint();
+        if (tag == TraceWriter.KEYFRAME)
+        {
+            readKeyframe();
+        }
+        else
+        {
+            readDelta();
+        }
+        readActions();
+    }
+
+    private void readKeyframe()
+    {
+        int n = readVarint();
+        for (int i = 0; i < n; i++)
+        {
+            frame.resources[i] = readVarint();
+        }
+        frame.count = 0;
+        frame.slots.clear();
+        int units = readVarint();
+        long id = 0;
+        for (int i = 0; i < units; i++)
+        {
+            id += readSigned();
+            frame.add(id, readVarint(), readVarint() - 1, readVarint(), readVarint(), readVarint(), readVarint());
+        }
+    }
+
+    private void readDelta()
+    {
+        int mask = readVarint();
+        for (int i = 0; i < nplayers; i++)
+        {
+            if ((mask & (1 << i)) != 0)
+            {
+                frame.resources[i] += readSigned();
+            }
+        }
+        int changed = readVarint();
+        long id = 0;
+        for (int n = 0; n < changed; n++)
+        {
+            id += readSigned();
+            int fields = buffer.get();
+            if (fields == TraceWriter.FIELD_NEW)
+            {
+                frame.add(id, readVarint(), readVarint() - 1, readVarint(), readVarint(), readVarint(), readVarint());
+                continue;
+            }
+            int i = frame.slots.get(id, -1);
+            if ((fields & TraceWriter.FIELD_X) != 0)
+            {
+                frame.x[i] += readSigned();
+            }
+            if ((fields & TraceWriter.FIELD_Y) != 0)
+            {
+                frame.y[i] += readSigned();
+            }
+            if ((fields & TraceWriter.FIELD_HP) != 0)
+            {
+                frame.hp[i] += readSigned();
+            }
+            if ((fields & TraceWriter.FIELD_RESOURCES) != 0)
+            {
+                frame.unitResources[i] += readSigned();
+            }
+        }
+        int removed = readVarint();
+        if (removed > 0)
+        {
+            id = 0;
+            for (int n = 0; n < removed; n++)
+            {
+                id += readSigned();
+                frame.slots.remove(id);
+            }
+            frame.compact();
+        }
+    }
+
+    private void readActions()
+    {
+        int n = readVarint();
+        if (frame.actionCount.length != n)
+        {
+            frame.actionCount = new int[n];
+        }
+        int i = 0;
+        for (int p = 0; p < n; p++)
+        {
+            int count = readVarint();
+            frame.actionCount[p] = count;
+            frame.ensureActions(i + count);
+            long id = 0;
+            for (int a = 0; a < count; a++, i++)
+            {
+                id += readSigned();
+                frame.actionUnit[i] = id;
+                frame.actionType[i] = buffer.get();
+                frame.actionUnitType[i] = -1;
+                switch (frame.actionType[i])
+                {
+                    case UnitAction.TYPE_ATTACK_LOCATION:
+                        frame.actionX[i] = readVarint();
+                        frame.actionY[i] = readVarint();
+                        frame.actionParameter[i] = -1;
+                        break;
+                    case UnitAction.TYPE_PRODUCE:
+                        frame.actionParameter[i] = (int) readSigned();
+                        frame.actionUnitType[i] = readVarint();
+                        break;
+                    default:
+                        frame.actionParameter[i] = (int) readSigned();
+                        break;
+                }
+            }
+        }
+    }
+
+    private int readVarint()
+    {
+        long v = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            int b = buffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return (int) v;
+            }
+        }
+    }
+
+    private long readSigned()
+    {
+        long v = 0;
+        for (int shift = 0; ; shift += 7)
+        {
+            int b = buffer.get();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /** @return Terrain of a cell, one of the PhysicalGameState TERRAIN_ values */
+    public int getTerrain(int x, int y)
+    {
+        return terrain[x + y * width];
+    }
+
+    /** @return Cycles recorded */
+    public int getCycles()
+    {
+        return cycles;
+    }
+
+    /** @return The winning player, -1 for a draw */
+    public int getWinner()
+    {
+        return winner;
+    }
+
+    public int getKeyframeInterval()
+    {
+        return keyframeInterval;
+    }
+
+    /** Builds a GameState of the current frame, for looking at in the viewer or handing to an AI.
+     * Units are placed with their hit points and resources but without the actions they were carrying out.
+     * @param utt The UnitTypeTable the game was played with
+     * @return A new GameState
+     */
+    public GameState toGameState(UnitTypeTable utt)
+    {
+        PhysicalGameState pgs = new PhysicalGameState(width, height);
+        pgs.setTerrain(terrain.clone());
+        for (int p = 0; p < nplayers; p++)
+        {
+            pgs.addPlayer(new Player(p, frame.resources[p]));
+        }
+        for (int i = 0; i < frame.count; i++)
+        {
+            Unit u = new Unit(frame.ids[i], frame.player[i], utt.getUnitType(frame.type[i]), frame.x[i], frame.y[i],
+                    frame.unitResources[i]);
+            u.setHitPoints(frame.hp[i]);
+            pgs.addUnit(u);
+        }
+        return new GameState(pgs, utt);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /** The state at one cycle and the actions issued on it.
+     * Units are held in unit order as parallel arrays, and actions in player order, player 0's first.
+     */
+    public static class Frame
+    {
+        public int cycle;
+        public int[] resources; ///< Each player's resources
+        public int count; ///< Units alive
+        public long[] ids = new long[64];
+        public int[] type = new int[64]; ///< Unit type ID
+        public int[] player = new int[64]; ///< Owner, -1 for resource piles
+        public int[] x = new int[64];
+        public int[] y = new int[64];
+        public int[] hp = new int[64];
+        public int[] unitResources = new int[64]; ///< Resources carried, or left in a pile
+        public int[] actionCount; ///< Actions each player issued
+        public long[] actionUnit = new long[16]; ///< ID of the unit each action was for
+        public int[] actionType = new int[16]; ///< One of the UnitAction TYPE_ values
+        public int[] actionParameter = new int[16]; ///< Direction, or wait time for TYPE_NONE, -1 for attacks
+        public int[] actionX = new int[16]; ///< Attack location
+        public int[] actionY = new int[16];
+        public int[] actionUnitType = new int[16]; ///< Unit type ID produced, -1 if not producing
+        private final LongIntMap slots = new LongIntMap(); ///< Index of each unit, by ID
+
+        /// Appends a unit
+        private void add(long id, int type, int player, int x, int y, int hp, int resources)
+        {
+            if (count == ids.length)
+            {
+                int size = count * 2;
+                ids = Arrays.copyOf(ids, size);
+                this.type = Arrays.copyOf(this.type, size);
+                this.player = Arrays.copyOf(this.player, size);
+                this.x = Arrays.copyOf(this.x, size);
+                this.y = Arrays.copyOf(this.y, size);
+                this.hp = Arrays.copyOf(this.hp, size);
+                unitResources = Arrays.copyOf(unitResources, size);
+            }
+            ids[count] = id;
+            this.type[count] = type;
+            this.player[count] = player;
+            this.x[count] = x;
+            this.y[count] = y;
+            this.hp[count] = hp;
+            unitResources[count] = resources;
+            slots.put(id, count);
+            count++;
+        }
+
+        /// Drops the units no longer in slots, keeping unit order
+        private void compact()
+        {
+            int kept = 0;
+            for (int i = 0; i < count; i++)
+            {
+                if (!slots.containsKey(ids[i]))
+                {
+                    continue;
+                }
+                ids[kept] = ids[i];
+                type[kept] = type[i];
+                player[kept] = player[i];
+                x[kept] = x[i];
+                y[kept] = y[i];
+                hp[kept] = hp[i];
+                unitResources[kept] = unitResources[i];
+                slots.put(ids[kept], kept);
+                kept++;
+            }
+            count = kept;
+        }
+
+        private void ensureActions(int n)
+        {
+            if (actionUnit.length < n)
+            {
+                int size = Math.max(n, actionUnit.length * 2);
+                actionUnit = Arrays.copyOf(actionUnit, size);
+                actionType = Arrays.copyOf(actionType, size);
+                actionParameter = Arrays.copyOf(actionParameter, size);
+                actionX = Arrays.copyOf(actionX, size);
+                actionY = Arrays.copyOf(actionY, size);
+                actionUnitType = Arrays.copyOf(actionUnitType, size);
+            }
+        }
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.out.println("TraceReader file [cycle] [-show]");
+            return;
+        }
+        boolean show = Arrays.asList(args).contains("-show");
+        try (TraceReader trace = new TraceReader(new File(args[0])))
+        {
+            System.out.println(args[0] + ": " + trace.getWidth() + "x" + trace.getHeight() + ", " + trace.getCycles()
+                    + " cycles, winner " + trace.getWinner() + ", keyframe every " + trace.getKeyframeInterval());
+            if (args.length < 2 || args[1].startsWith("-"))
+            {
+                return;
+            }
+            Frame frame = trace.seek(Integer.parseInt(args[1]));
+            System.out.println("cycle " + frame.cycle + ", resources " + Arrays.toString(frame.resources) + ", "
+                    + frame.count + " units");
+            for (int i = 0; i < frame.count; i++)
+            {
+                System.out.println("  unit " + frame.ids[i] + " type " + frame.type[i] + " player " + frame.player[i]
+                        + " at " + frame.x[i] + "," + frame.y[i] + " hp " + frame.hp[i] + " resources " + frame.unitResources[i]);
+            }
+            for (int p = 0, i = 0; p < frame.actionCount.length; p++)
+            {
+                for (int a = 0; a < frame.actionCount[p]; a++, i++)
+                {
+                    System.out.println("  player " + p + " unit " + frame.actionUnit[i] + " action " + frame.actionType[i]
+                            + " parameter " + frame.actionParameter[i]
+                            + (frame.actionUnitType[i] >= 0 ? " producing " + frame.actionUnitType[i] : ""));
+                }
+            }
+            if (show)
+            {
+                PhysicalGameStatePanel.newVisualizer(trace.toGameState(new UnitTypeTable()), 640, 640, false,
+                        PhysicalGameStatePanel.COLORSCHEME_BLACK);
+            }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package tests;
+
+import bot.LongIntMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import rts.GameState;
+import rts.PhysicalGameState;
+import rts.Player;
+import rts.PlayerAction;
+import rts.UnitAction;
+import rts.units.Unit;
+import util.Pair;
+
+/** Records a game to a compact binary trace, read back with TraceReader.
+ * Each cycle is one record holding what changed since the last cycle and the actions both players issued.
+ * Every keyframeInterval cycles the record is a keyframe holding every unit instead, so a reader can start
+ * from any keyframe without reading what came before it. A footer at the end of the file lists where each
+ * keyframe starts.
+ *
+ * All numbers are varints, so most fit in one byte, and unit IDs, positions, hit points and resources are
+ * written as zigzag deltas from the unit before or from the last cycle. A delta record only holds units that
+ * changed, with a mask of the fields that did.
+ *
+ * Layout:
+ *   header    int MAGIC, int VERSION, width, height, keyframe interval, players, terrain as (value, run) pairs
+ *   record    byte KEYFRAME or DELTA, cycle, then the state and the actions, see writeKeyframe, writeDelta
+ *             and writeActions
+ *   footer    int FOOTER_MAGIC, int cycles, int winner, int keyframes, long offset of each keyframe,
+ *             then the long offset of the footer as the file's last 8 bytes
+ * Fixed width ints and longs are big endian.
+ * @author HoaxShark
+ */
+public class TraceWriter implements Closeable
+{
+    static final int MAGIC = 0x57464C54; ///< "WFLT", first int of every trace
+    static final int VERSION = 1; ///< Bump whenever the layout changes
+    static final int FOOTER_MAGIC = 0x57464C46; ///< "WFLF", first int of the footer
+    static final int KEYFRAME = 1; ///< Record holding every unit
+    static final int DELTA = 2; ///< Record holding the units that changed
+    static final int FIELD_NEW = 1; ///< The unit is new, every field follows
+    static final int FIELD_X = 2;
+    static final int FIELD_Y = 4;
+    static final int FIELD_HP = 8;
+    static final int FIELD_RESOURCES = 16;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+
+    private final OutputStream out;
+    private final int keyframeInterval;
+    private byte[] buffer = new byte[1 << 16]; ///< Bytes not yet written to out
+    private int length = 0; ///< Bytes used in buffer
+    private long flushed = 0; ///< Bytes written to out so far
+    private long[] keyframes = new long[16]; ///< Offset of each keyframe
+    private int nkeyframes = 0;
+    private int cycles = 0; ///< Records written
+    private boolean closed = false;
+
+    /// The units as of the last record, in unit order
+    private int nunits = 0;
+    private long[] ids = new long[64];
+    private int[] types = new int[64];
+    private int[] players = new int[64];
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private int[] hps = new int[64];
+    private int[] resources = new int[64];
+    private boolean[] seen = new boolean[64]; ///< Which of the last record's units are still alive, while writing a delta
+    private final LongIntMap slots = new LongIntMap(); ///< Index of each unit in the arrays above, by ID
+    private int[] playerResources = new int[0]; ///< Each player's resources as of the last record
+
+    /** Starts a trace and writes its header.
+     * @param file Where to write
+     * @param gs The game, read for its map
+     * @param keyframeInterval Cycles between keyframes, a reader reads at most this many records to reach any cycle
+     */
+    public TraceWriter(File file, GameState gs, int keyframeInterval) throws IOException
+    {
+        this.out = new FileOutputStream(file);
+        this.keyframeInterval = keyframeInterval;
+        PhysicalGameState pgs = gs.getPhysicalGameState();
+        writeInt(MAGIC);
+        writeInt(VERSION);
+        writeVarint(pgs.getWidth());
+        writeVarint(pgs.getHeight());
+        writeVarint(keyframeInterval);
+        writeVarint(pgs.getPlayers().size());
+        /// Terrain is mostly long runs of the same value
+        int cells = pgs.getWidth() * pgs.getHeight();
+        int runs = 0;
+        for (int i = 0; i < cells; i++)
+        {
+            if (i == 0 || terrain(pgs, i) != terrain(pgs, i - 1))
+            {
+                runs++;
+            }
+        }
+        writeVarint(runs);
+        for (int i = 0; i < cells; )
+        {
+            int value = terrain(pgs, i);
+            int run = 1;
+            while (i + run < cells && terrain(pgs, i + run) == value)
+            {
+                run++;
+            }
+            writeVarint(value);
+            writeVarint(run);
+            i += run;
+        }
+    }
+
+    private static int terrain(PhysicalGameState pgs, int cell)
+    {
+        return pgs.getTerrain(cell % pgs.getWidth(), cell / pgs.getWidth());
+    }
+
+    /** Records one cycle, call it after the actions are chosen and before the game is cycled.
+     * @param gs The game as the players saw it
+     * @param actions Each player's action in player order, null for a player that issued nothing
+     */
+    public void record(GameState gs, PlayerAction... actions) throws IOException
+    {
+        int cycle = gs.getTime();
+        if (cycles % keyframeInterval == 0)
+        {
+            if (nkeyframes == keyframes.length)
+            {
+                keyframes = Arrays.copyOf(keyframes, nkeyframes * 2);
+            }
+            keyframes[nkeyframes++] = flushed + length;
+            writeByte(KEYFRAME);
+            writeVarint(cycle);
+            writeKeyframe(gs.getPhysicalGameState());
+        }
+        else
+        {
+            writeByte(DELTA);
+            writeVarint(cycle);
+            writeDelta(gs.getPhysicalGameState());
+        }
+        writeActions(actions);
+        cycles++;
+        if (length > buffer.length / 2)
+        {
+            flush();
+        }
+    }
+
+    /** Writes every player's resources and every unit, and makes them the state the next delta is taken from.
+     * Player count then each player's resources, unit count then for each unit its ID delta, type ID,
+     * player + 1, x, y, hit points and resources.
+     */
+    private void writeKeyframe(PhysicalGameState pgs) throws IOException
+    {
+        List<Player> ps = pgs.getPlayers();
+        playerResources = new int[ps.size()];
+        writeVarint(ps.size());
+        for (int i = 0; i < ps.size(); i++)
+        {
+            playerResources[i] = ps.get(i).getResources();
+            writeVarint(playerResources[i]);
+        }
+        List<Unit> units = pgs.getUnits();
+        writeVarint(units.size());
+        nunits = 0;
+        slots.clear();
+        long lastId = 0;
+        for (Unit u : units)
+        {
+            int i = keep(u);
+            writeSigned(ids[i] - lastId);
+            lastId = ids[i];
+            writeVarint(types[i]);
+            writeVarint(players[i] + 1);
+            writeVarint(xs[i]);
+            writeVarint(ys[i]);
+            writeVarint(hps[i]);
+            writeVarint(resources[i]);
+        }
+    }
+
+    /** Writes what changed since the last record.
+     * A mask of the players whose resources changed and the change for each, then the count of changed or new
+     * units and for each its ID delta, a FIELD_ mask and the fields, then the count of removed units and their
+     * ID deltas. New units have every field written as in a keyframe, changed ones the change in each field.
+     */
+    private void writeDelta(PhysicalGameState pgs) throws IOException
+    {
+        List<Player> ps = pgs.getPlayers();
+        int mask = 0;
+        for (int i = 0; i < ps.size(); i++)
+        {
+            if (ps.get(i).getResources() != playerResources[i])
+            {
+                mask |= 1 << i;
+            }
+        }
+        writeVarint(mask);
+        for (int i = 0; i < ps.size(); i++)
+        {
+            if ((mask & (1 << i)) != 0)
+            {
+                writeSigned(ps.get(i).getResources() - playerResources[i]);
+                playerResources[i] = ps.get(i).getResources();
+            }
+        }
+
+        /// Changed and new units, in unit order
+        List<Unit> units = pgs.getUnits();
+        Arrays.fill(seen, 0, nunits, false);
+        int changed = 0;
+        for (Unit u : units)
+        {
+            int i = slots.get(u.getID(), -1);
+            if (i < 0 || fields(u, i) != 0)
+            {
+                changed++;
+            }
+            if (i >= 0)
+            {
+                seen[i] = true;
+            }
+        }
+        writeVarint(changed);
+        long lastId = 0;
+        for (Unit u : units)
+        {
+            int i = slots.get(u.getID(), -1);
+            int fields = (i < 0) ? FIELD_NEW : fields(u, i);
+            if (fields == 0)
+            {
+                continue;
+            }
+            writeSigned(u.getID() - lastId);
+            lastId = u.getID();
+            writeByte(fields);
+            if (fields == FIELD_NEW)
+            {
+                writeVarint(u.getType().ID);
+                writeVarint(u.getPlayer() + 1);
+                writeVarint(u.getX());
+                writeVarint(u.getY());
+                writeVarint(u.getHitPoints());
+                writeVarint(u.getResources());
+                continue;
+            }
+            if ((fields & FIELD_X) != 0)
+            {
+                writeSigned(u.getX() - xs[i]);
+            }
+            if ((fields & FIELD_Y) != 0)
+            {
+                writeSigned(u.getY() - ys[i]);
+            }
+            if ((fields & FIELD_HP) != 0)
+            {
+                writeSigned(u.getHitPoints() - hps[i]);
+            }
+            if ((fields & FIELD_RESOURCES) != 0)
+            {
+                writeSigned(u.getResources() - resources[i]);
+            }
+        }
+
+        int removed = 0;
+        for (int i = 0; i < nunits; i++)
+        {
+            if (!seen[i])
+            {
+                removed++;
+            }
+        }
+        writeVarint(removed);
+        lastId = 0;
+        for (int i = 0; i < nunits; i++)
+        {
+            if (!seen[i])
+            {
+                writeSigned(ids[i] - lastId);
+                lastId = ids[i];
+            }
+        }
+
+        /// This cycle's units become the ones the next delta is taken from
+        nunits = 0;
+        slots.clear();
+        for (Unit u : units)
+        {
+            keep(u);
+        }
+    }
+
+    /** @return The FIELD_ mask of what changed in a unit since the last record */
+    private int fields(Unit u, int i)
+    {
+        int fields = 0;
+        if (u.getX() != xs[i])
+        {
+            fields |= FIELD_X;
+        }
+        if (u.getY() != ys[i])
+        {
+            fields |= FIELD_Y;
+        }
+        if (u.getHitPoints() != hps[i])
+        {
+            fields |= FIELD_HP;
+        }
+        if (u.getResources() != resources[i])
+        {
+            fields |= FIELD_RESOURCES;
+        }
+        return fields;
+    }
+
+    /** Adds a unit to the end of the kept state.
+     * @return Its index
+     */
+    private int keep(Unit u)
+    {
+        if (nunits == ids.length)
+        {
+            int size = nunits * 2;
+            ids = Arrays.copyOf(ids, size);
+            types = Arrays.copyOf(types, size);
+            players = Arrays.copyOf(players, size);
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+            hps = Arrays.copyOf(hps, size);
+            resources = Arrays.copyOf(resources, size);
+            seen = Arrays.copyOf(seen, size);
+        }
+        int i = nunits++;
+        ids[i] = u.getID();
+        types[i] = u.getType().ID;
+        players[i] = u.getPlayer();
+        xs[i] = u.getX();
+        ys[i] = u.getY();
+        hps[i] = u.getHitPoints();
+        resources[i] = u.getResources();
+        slots.put(ids[i], i);
+        return i;
+    }
+
+    /** Writes the actions each player issued.
+     * Player count, then for each player the action count and for each action the unit ID delta, the action
+     * type and its arguments: the location for an attack, the direction and unit type ID for produce, and the
+     * direction, or the wait time for none, for the rest.
+     */
+    private void writeActions(PlayerAction[] actions) throws IOException
+    {
+        writeVarint(actions.length);
+        for (PlayerAction pa : actions)
+        {
+            List<Pair<Unit, UnitAction>> list = (pa == null) ? null : pa.getActions();
+            writeVarint(list == null ? 0 : list.size());
+            if (list == null)
+            {
+                continue;
+            }
+            long lastId = 0;
+            for (Pair<Unit, UnitAction> p : list)
+            {
+                writeSigned(p.m_a.getID() - lastId);
+                lastId = p.m_a.getID();
+                UnitAction a = p.m_b;
+                writeByte(a.getType());
+                switch (a.getType())
+                {
+                    case UnitAction.TYPE_ATTACK_LOCATION:
+                        writeVarint(a.getLocationX());
+                        writeVarint(a.getLocationY());
+                        break;
+                    case UnitAction.TYPE_PRODUCE:
+                        writeSigned(a.getDirection());
+                        writeVarint(a.getUnitType().ID);
+                        break;
+                    default:
+                        writeSigned(a.getDirection());
+                        break;
+                }
+            }
+        }
+    }
+
+    /** Writes the footer and closes the file.
+     * @param winner The winning player, -1 for a draw or a game that was stopped
+     */
+    public void finish(int winner) throws IOException
+    {
+        long footer = flushed + length;
+        writeInt(FOOTER_MAGIC);
+        writeInt(cycles);
+        writeInt(winner);
+        writeInt(nkeyframes);
+        for (int i = 0; i < nkeyframes; i++)
+        {
+            writeLong(keyframes[i]);
+        }
+        writeLong(footer);
+        close();
+    }
+
+    /** Closes the file, without a footer if finish was not called, which leaves the trace unreadable. */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+        {
+            return;
+        }
+        closed = true;
+        try
+        {
+            flush();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /** @return Bytes written so far */
+    public long size()
+    {
+        return flushed + length;
+    }
+
+    private void flush() throws IOException
+    {
+        out.write(buffer, 0, length);
+        flushed += length;
+        length = 0;
+    }
+
+    private void writeByte(int b) throws IOException
+    {
+        if (length == buffer.length)
+        {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        buffer[length++] = (byte) b;
+    }
+
+    private void writeVarint(long v) throws IOException
+    {
+        while ((v & ~0x7FL) != 0)
+        {
+            writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        writeByte((int) v);
+    }
+
+    /** Writes a signed number zigzag encoded, so small negative numbers stay short. */
+    private void writeSigned(long v) throws IOException
+    {
+        writeVarint((v << 1) ^ (v >> 63));
+    }
+
+    private void writeInt(int v) throws IOException
+    {
+        for (int shift = 24; shift >= 0; shift -= 8)
+        {
+            writeByte(v >>> shift);
+        }
+    }
+
+    private void writeLong(long v) throws IOException
+    {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+}